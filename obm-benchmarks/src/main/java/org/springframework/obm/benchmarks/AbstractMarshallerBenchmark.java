@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.obm.Marshaller;
+import org.springframework.obm.Unmarshaller;
+import org.springframework.obm.snappy.SnappyMarshaller;
+import org.springframework.obm.support.AbstractMarshaller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <P>Base class for the marshaller benchmarks. Each subclass provides a marshaller and a payload; this class measures
+ * marshalling and unmarshalling it at several {@link #payloadSize payload sizes}, both on its own and wrapped in a
+ * {@link SnappyMarshaller}.
+ * <P>The payload size is the number of characters of free text in the payload (spread over its string fields), so
+ * the encoded size is a little larger.
+ *
+ * @author Josh Long
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class AbstractMarshallerBenchmark<T> {
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    @Param({"false", "true"})
+    public boolean snappy;
+
+    private Marshaller<T> marshaller;
+
+    private Unmarshaller<T> unmarshaller;
+
+    private Class<T> payloadClass;
+
+    private T payload;
+
+    private byte[] encoded;
+
+    private ByteArrayOutputStream outputStream;
+
+    /**
+     * @return the marshaller to benchmark, ready to use
+     */
+    protected abstract AbstractMarshaller<T> buildMarshaller() throws Exception;
+
+    /**
+     * @param size the number of characters of free text to put in the payload
+     * @return the payload
+     */
+    protected abstract T buildPayload(int size);
+
+    protected abstract Class<T> getPayloadClass();
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        AbstractMarshaller<T> m = buildMarshaller();
+        if (this.snappy) {
+            SnappyMarshaller snappyMarshaller = new SnappyMarshaller(m);
+            this.marshaller = snappyMarshaller;
+            this.unmarshaller = snappyMarshaller;
+        } else {
+            this.marshaller = m;
+            this.unmarshaller = m;
+        }
+        this.payloadClass = getPayloadClass();
+        this.payload = buildPayload(this.payloadSize);
+
+        this.outputStream = new ByteArrayOutputStream();
+        this.marshaller.marshal(this.payload, this.outputStream);
+        this.encoded = this.outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public int marshal() throws Exception {
+        this.outputStream.reset();
+        this.marshaller.marshal(this.payload, this.outputStream);
+        return this.outputStream.size();
+    }
+
+    @Benchmark
+    public T unmarshal() throws Exception {
+        return this.unmarshaller.unmarshal(this.payloadClass, new ByteArrayInputStream(this.encoded));
+    }
+}
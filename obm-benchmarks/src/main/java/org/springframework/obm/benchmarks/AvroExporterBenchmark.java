@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.apache.avro.AvroRemoteException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.obm.avro.crm.Crm;
+import org.springframework.obm.avro.crm.Customer;
+import org.springframework.remoting.avro.AvroExporter;
+import org.springframework.remoting.avro.AvroProxyFactoryBean;
+import org.springframework.util.ClassUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * measures a full round trip through an {@link AvroProxyFactoryBean} client and an {@link AvroExporter}
+ * (both using Netty) on the loopback interface
+ *
+ * @author Josh Long
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+@Fork(1)
+public class AvroExporterBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    private AvroExporter exporter;
+
+    private Crm client;
+
+    private String[] fields;
+
+    @Setup
+    public void setup() throws Exception {
+        this.fields = Fixtures.customerFields(this.payloadSize);
+
+        this.exporter = new AvroExporter();
+        this.exporter.setService(new EchoCrm());
+        this.exporter.setServiceInterface(Crm.class);
+        this.exporter.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        this.exporter.afterPropertiesSet();
+        this.exporter.start();
+
+        AvroProxyFactoryBean<Crm> proxyFactoryBean = new AvroProxyFactoryBean<Crm>();
+        proxyFactoryBean.setServiceInterface(Crm.class);
+        proxyFactoryBean.afterPropertiesSet();
+        this.client = proxyFactoryBean.getObject();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.exporter.stop();
+    }
+
+    @Benchmark
+    public Customer createCustomer() throws AvroRemoteException {
+        return this.client.createCustomer(this.fields[0], this.fields[1], this.fields[2]);
+    }
+
+    /**
+     * sends back what it was given, so that the response is as large as the request
+     */
+    public static class EchoCrm implements Crm {
+
+        @Override
+        public Customer createCustomer(CharSequence fn, CharSequence ln, CharSequence email) throws AvroRemoteException {
+            Customer customer = new Customer();
+            customer.firstName = fn;
+            customer.lastName = ln;
+            customer.email = email;
+            customer.id = 242;
+            return customer;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.springframework.obm.avro.AvroMarshaller;
+import org.springframework.obm.avro.crm.Customer;
+import org.springframework.obm.support.AbstractMarshaller;
+
+/**
+ * benchmarks the {@link AvroMarshaller} with the Avro generated CRM {@link Customer}
+ *
+ * @author Josh Long
+ */
+public class AvroMarshallerBenchmark extends AbstractMarshallerBenchmark<Customer> {
+
+    @Override
+    protected AbstractMarshaller<Customer> buildMarshaller() throws Exception {
+        return new AvroMarshaller<Customer>();
+    }
+
+    @Override
+    protected Customer buildPayload(int size) {
+        String[] fields = Fixtures.customerFields(size);
+        Customer customer = new Customer();
+        customer.firstName = fields[0];
+        customer.lastName = fields[1];
+        customer.email = fields[2];
+        customer.id = 242;
+        return customer;
+    }
+
+    @Override
+    protected Class<Customer> getPayloadClass() {
+        return Customer.class;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <P>Runs the benchmarks with the {@link GCProfiler} attached, so that every result comes with the number of bytes
+ * allocated per operation (<CODE>gc.alloc.rate.norm</CODE>) next to the throughput and latency.
+ * <P>Arguments, if any, are regular expressions selecting the benchmarks to run, for example
+ * <CODE>java -jar benchmarks.jar Thrift</CODE>. Without arguments, everything runs.
+ * For the full set of JMH options, use <CODE>java -cp benchmarks.jar org.openjdk.jmh.Main -h</CODE> instead.
+ *
+ * @author Josh Long
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class);
+        if (args.length == 0) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+        for (String include : args) {
+            options.include(include);
+        }
+        new Runner(options.build()).run();
+    }
+}
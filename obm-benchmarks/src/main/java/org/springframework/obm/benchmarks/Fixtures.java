@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+/**
+ * builds the free text that goes into the benchmark payloads
+ *
+ * @author Josh Long
+ */
+abstract public class Fixtures {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    /**
+     * @param size the number of characters
+     * @return a deterministic string of exactly <CODE>size</CODE> characters
+     */
+    public static String text(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append(ALPHABET.charAt((i * 7) % ALPHABET.length()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * splits the payload size over a first name, a last name and an email address
+     *
+     * @param size the total number of characters
+     * @return three strings whose lengths add up to <CODE>size</CODE>
+     */
+    public static String[] customerFields(int size) {
+        int name = Math.max(1, size / 4);
+        int email = Math.max(1, size - (2 * name));
+        return new String[]{text(name), text(name), text(email)};
+    }
+}
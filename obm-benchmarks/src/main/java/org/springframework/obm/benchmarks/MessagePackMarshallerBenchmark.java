@@ -0,0 +1,46 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.springframework.obm.messagepack.Cat;
+import org.springframework.obm.messagepack.MessagePackMarshaller;
+import org.springframework.obm.support.AbstractMarshaller;
+
+/**
+ * benchmarks the {@link MessagePackMarshaller} with the {@link Cat} test entity
+ *
+ * @author Josh Long
+ */
+public class MessagePackMarshallerBenchmark extends AbstractMarshallerBenchmark<Cat> {
+
+    @Override
+    protected AbstractMarshaller<Cat> buildMarshaller() throws Exception {
+        MessagePackMarshaller<Cat> marshaller = new MessagePackMarshaller<Cat>();
+        marshaller.afterPropertiesSet();
+        return marshaller;
+    }
+
+    @Override
+    protected Cat buildPayload(int size) {
+        return new Cat(Fixtures.text(size), 242);
+    }
+
+    @Override
+    protected Class<Cat> getPayloadClass() {
+        return Cat.class;
+    }
+}
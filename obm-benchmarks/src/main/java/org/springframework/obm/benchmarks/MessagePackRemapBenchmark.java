@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.msgpack.MessagePackObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.GenericCollectionTypeResolver;
+import org.springframework.obm.messagepack.Cat;
+import org.springframework.obm.messagepack.util.MessagePackUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <P>Measures the cost of {@link MessagePackUtils#remapResult(Object)}, which runs after every MessagePack unmarshal,
+ * against the previous implementation (kept here as {@link #legacyRemap(Object)}), which walked and reflected over
+ * every field of the result on every call.
+ * <P>{@link #catCount} is the number of elements in the collection field of the {@link Litter} payload; the
+ * <CODE>*Flat</CODE> benchmarks use a {@link Cat}, which has no collection fields at all.
+ *
+ * @author Josh Long
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagePackRemapBenchmark {
+
+    @Param({"0", "16", "256"})
+    public int catCount;
+
+    private Cat cat;
+
+    private Litter litter;
+
+    @Setup
+    public void setup() {
+        this.cat = new Cat(Fixtures.text(16), 242);
+        this.litter = new Litter();
+        this.litter.setName(Fixtures.text(16));
+        List<Cat> cats = new ArrayList<Cat>(this.catCount);
+        for (int i = 0; i < this.catCount; i++) {
+            cats.add(new Cat(Fixtures.text(16), i));
+        }
+        this.litter.setCats(cats);
+    }
+
+    @Benchmark
+    public Object legacyFlat() throws Throwable {
+        return legacyRemap(this.cat);
+    }
+
+    @Benchmark
+    public Object remapFlat() throws Throwable {
+        return MessagePackUtils.remapResult(this.cat);
+    }
+
+    @Benchmark
+    public Object legacyCollection() throws Throwable {
+        return legacyRemap(this.litter);
+    }
+
+    @Benchmark
+    public Object remapCollection() throws Throwable {
+        return MessagePackUtils.remapResult(this.litter);
+    }
+
+    /**
+     * the per-call field walk that {@link MessagePackUtils#remapResult(Object)} used before it cached a plan per class
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T legacyRemap(final T result) throws Throwable {
+        if (org.springframework.obm.messagepack.util.ReflectionUtils.isUninterestingClass(result.getClass())) {
+            return result;
+        }
+        ReflectionUtils.doWithFields(result.getClass(), new ReflectionUtils.FieldCallback() {
+            @Override
+            public void doWith(Field field) throws IllegalArgumentException, IllegalAccessException {
+                try {
+                    if (ReflectionUtils.isPublicStaticFinal(field) || Modifier.isFinal(field.getModifiers())) {
+                        return;
+                    }
+                    if (!field.isAccessible()) {
+                        field.setAccessible(true);
+                    }
+                    Object value = field.get(result);
+                    if (Collection.class.isAssignableFrom(value.getClass())) {
+                        Collection<?> values = (Collection<?>) value;
+                        Collection destination = values.getClass().newInstance();
+                        Class<?> classOfCollection = GenericCollectionTypeResolver.getCollectionFieldType(field);
+                        for (Object srcObject : values) {
+                            if (srcObject instanceof MessagePackObject) {
+                                destination.add(((MessagePackObject) srcObject).convert(classOfCollection));
+                            } else {
+                                destination.add(srcObject);
+                            }
+                        }
+                        field.set(result, destination);
+                    }
+                } catch (Throwable thr) {
+                    throw new RuntimeException(thr);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * a bean with a typed collection field, the shape that {@link MessagePackUtils#remapResult(Object)} exists for
+     */
+    public static class Litter {
+
+        private String name;
+
+        private List<Cat> cats;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<Cat> getCats() {
+            return cats;
+        }
+
+        public void setCats(List<Cat> cats) {
+            this.cats = cats;
+        }
+    }
+}
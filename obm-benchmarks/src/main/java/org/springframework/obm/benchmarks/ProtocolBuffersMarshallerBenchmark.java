@@ -0,0 +1,50 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.springframework.obm.protocolbuffers.ProtocolBuffersMarshaller;
+import org.springframework.obm.protocolbuffers.crm.Crm;
+import org.springframework.obm.support.AbstractMarshaller;
+
+/**
+ * benchmarks the {@link ProtocolBuffersMarshaller} with the generated CRM {@link Crm.Customer}
+ *
+ * @author Josh Long
+ */
+public class ProtocolBuffersMarshallerBenchmark extends AbstractMarshallerBenchmark<Crm.Customer> {
+
+    @Override
+    protected AbstractMarshaller<Crm.Customer> buildMarshaller() throws Exception {
+        return new ProtocolBuffersMarshaller<Crm.Customer>();
+    }
+
+    @Override
+    protected Crm.Customer buildPayload(int size) {
+        String[] fields = Fixtures.customerFields(size);
+        return Crm.Customer.newBuilder()
+                       .setId(242)
+                       .setFirstName(fields[0])
+                       .setLastName(fields[1])
+                       .setEmail(fields[2])
+                       .build();
+    }
+
+    @Override
+    protected Class<Crm.Customer> getPayloadClass() {
+        return Crm.Customer.class;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.apache.thrift.TException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.obm.thrift.crm.Crm;
+import org.springframework.obm.thrift.crm.Customer;
+import org.springframework.remoting.thrift.ThriftExporter;
+import org.springframework.remoting.thrift.ThriftProxyFactoryBean;
+import org.springframework.util.ClassUtils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * measures a full round trip through a {@link ThriftProxyFactoryBean} client and a {@link ThriftExporter}
+ * on the loopback interface
+ *
+ * @author Josh Long
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+@Fork(1)
+public class ThriftExporterBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private ThriftExporter exporter;
+
+    private Crm.Iface client;
+
+    private String[] fields;
+
+    @Setup
+    public void setup() throws Exception {
+        this.fields = Fixtures.customerFields(this.payloadSize);
+
+        this.exporter = new ThriftExporter();
+        this.exporter.setService(new EchoCrm());
+        this.exporter.setServiceInterface(Crm.class);
+        this.exporter.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        this.exporter.afterPropertiesSet();
+        this.executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                exporter.start();
+            }
+        });
+
+        // give the server a bit to bind to the socket
+        Thread.sleep(1000);
+
+        ThriftProxyFactoryBean<Crm.Iface> proxyFactoryBean = new ThriftProxyFactoryBean<Crm.Iface>();
+        proxyFactoryBean.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        proxyFactoryBean.setServiceInterface(Crm.Iface.class);
+        proxyFactoryBean.afterPropertiesSet();
+        this.client = proxyFactoryBean.getObject();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.exporter.stop();
+        this.executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Customer createCustomer() throws TException {
+        return this.client.createCustomer(this.fields[0], this.fields[1], this.fields[2]);
+    }
+
+    /**
+     * sends back what it was given, so that the response is as large as the request
+     */
+    public static class EchoCrm implements Crm.Iface {
+
+        @Override
+        public Customer createCustomer(String fn, String ln, String email) throws TException {
+            return new Customer(fn, ln, email, 242);
+        }
+
+        @Override
+        public Customer getCustomerById(int customerId) throws TException {
+            return new Customer("", "", "", customerId);
+        }
+    }
+}
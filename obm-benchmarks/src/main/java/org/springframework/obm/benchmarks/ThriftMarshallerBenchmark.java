@@ -0,0 +1,47 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.benchmarks;
+
+import org.springframework.obm.support.AbstractMarshaller;
+import org.springframework.obm.thrift.ThriftMarshaller;
+import org.springframework.obm.thrift.crm.Customer;
+
+/**
+ * benchmarks the {@link ThriftMarshaller} with the Thrift generated CRM {@link Customer}
+ *
+ * @author Josh Long
+ */
+public class ThriftMarshallerBenchmark extends AbstractMarshallerBenchmark<Customer> {
+
+    @Override
+    protected AbstractMarshaller<Customer> buildMarshaller() throws Exception {
+        ThriftMarshaller<Customer> marshaller = new ThriftMarshaller<Customer>();
+        marshaller.afterPropertiesSet();
+        return marshaller;
+    }
+
+    @Override
+    protected Customer buildPayload(int size) {
+        String[] fields = Fixtures.customerFields(size);
+        return new Customer(fields[0], fields[1], fields[2], 242);
+    }
+
+    @Override
+    protected Class<Customer> getPayloadClass() {
+        return Customer.class;
+    }
+}
@@ -27,13 +27,27 @@ abstract public class ResponderRequestHandlerUtils {
      */
     public static void handleRequest(MediaType mediaType, HttpServletRequest request, HttpServletResponse response, Responder responder) throws IOException, ServletException {
         response.setContentType(mediaType.toString());
-        List<ByteBuffer> requestBufs = HttpTransceiver.readBuffers(request.getInputStream());
+        List<ByteBuffer> requestBufs = readRequest(request);
+        writeResponse(respond(responder, requestBufs), response);
+    }
+
+    /**
+     * reads the whole request, so that it can be {@link #respond(Responder, List) responded to} on another thread
+     */
+    public static List<ByteBuffer> readRequest(HttpServletRequest request) throws IOException {
+        return HttpTransceiver.readBuffers(request.getInputStream());
+    }
+
+    public static List<ByteBuffer> respond(Responder responder, List<ByteBuffer> requestBufs) throws IOException, ServletException {
         try {
-            List<ByteBuffer> responseBufs = responder.respond(requestBufs);
-            response.setContentLength(HttpTransceiver.getLength(responseBufs));
-            HttpTransceiver.writeBuffers(responseBufs, response.getOutputStream());
+            return responder.respond(requestBufs);
         } catch (AvroRuntimeException e) {
             throw new ServletException(e);
         }
     }
+
+    public static void writeResponse(List<ByteBuffer> responseBufs, HttpServletResponse response) throws IOException {
+        response.setContentLength(HttpTransceiver.getLength(responseBufs));
+        HttpTransceiver.writeBuffers(responseBufs, response.getOutputStream());
+    }
 }
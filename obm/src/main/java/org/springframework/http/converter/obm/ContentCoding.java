@@ -0,0 +1,59 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.http.converter.obm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <P>A streaming HTTP content coding, like <code>gzip</code>, that a {@link MarshallingHttpMessageConverter} can apply to the
+ * bodies it writes (when the client's <code>Accept-Encoding</code> allows) and remove from the bodies it reads (when their
+ * <code>Content-Encoding</code> names it).
+ * <P>Unlike a compressing {@link org.springframework.obm.Marshaller}, a content coding leaves the payload format alone, so a
+ * client that doesn't ask for the coding still gets plain bodies. Implementations must be thread safe.
+ *
+ * @author Josh Long
+ * @see MarshallingHttpMessageConverter#setContentCodings(java.util.List)
+ */
+public interface ContentCoding {
+
+    /**
+     * @return the token that names this coding in <code>Accept-Encoding</code> and <code>Content-Encoding</code> headers,
+     *         like <code>gzip</code>
+     */
+    String getName();
+
+    /**
+     * @param out the stream to write the encoded bytes to
+     * @return a stream that encodes what's written to it. Closing it must write out anything that's left; the
+     *         caller makes sure that doesn't close <code>out</code> as well
+     */
+    OutputStream encode(OutputStream out) throws IOException;
+
+    /**
+     * @return whether flushing a stream returned by {@link #encode(OutputStream)} writes out everything written to it so
+     *         far. Only such codings are applied to streamed bodies, whose elements must reach the client as they're produced
+     */
+    boolean isFlushable();
+
+    /**
+     * @param in the encoded bytes
+     * @return a stream of the decoded bytes
+     */
+    InputStream decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.http.converter.obm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The standard <code>gzip</code> {@link ContentCoding}, which every HTTP client understands.
+ *
+ * @author Josh Long
+ */
+public class GzipContentCoding implements ContentCoding {
+
+    public static final String NAME = "gzip";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+
+    /**
+     * no: {@link GZIPOutputStream} holds on to what the deflater hasn't finished with when it's flushed (it can only sync
+     * flush from Java 7 on)
+     */
+    @Override
+    public boolean isFlushable() {
+        return false;
+    }
+
+    @Override
+    public InputStream decode(InputStream in) throws IOException {
+        return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+}
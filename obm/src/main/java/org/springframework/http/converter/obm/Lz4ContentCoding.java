@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.http.converter.obm;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <P>A {@link ContentCoding} that streams bodies through lz4-java's block stream format ({@link LZ4BlockOutputStream}),
+ * using the fastest LZ4 implementation available. Blocks are written out whenever the stream is flushed, so it can be used
+ * for streamed bodies.
+ * <P>The lz4-java library is an optional dependency.
+ *
+ * @author Josh Long
+ */
+public class Lz4ContentCoding implements ContentCoding {
+
+    public static final String NAME = "lz4";
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * the seed {@link LZ4BlockInputStream} checks the block checksums with, by default
+     */
+    private static final int CHECKSUM_SEED = 0x9747b28c;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream out) throws IOException {
+        return new LZ4BlockOutputStream(out, BLOCK_SIZE, LZ4Factory.fastestInstance().fastCompressor(),
+                XXHashFactory.fastestInstance().newStreamingHash32(CHECKSUM_SEED).asChecksum(), true);
+    }
+
+    @Override
+    public boolean isFlushable() {
+        return true;
+    }
+
+    @Override
+    public InputStream decode(InputStream in) throws IOException {
+        return new LZ4BlockInputStream(in);
+    }
+}
@@ -17,34 +17,116 @@
 package org.springframework.http.converter.obm;
 
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
 import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.http.converter.AbstractHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.HttpMessageNotWritableException;
 import org.springframework.obm.Marshaller;
+import org.springframework.obm.SizeAwareTypedCodec;
+import org.springframework.obm.TypedCodec;
 import org.springframework.obm.Unmarshaller;
+import org.springframework.obm.support.DelimitedIterator;
+import org.springframework.obm.support.ExposedByteArrayOutputStream;
+import org.springframework.obm.support.LimitedInputStream;
+import org.springframework.obm.support.TypedCodecCache;
+import org.springframework.obm.support.VarintUtils;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
  * The idea is that this class wil do the work that all of other defintions do because, essentially, their only differentiator is that
  * they do project-specific IO, which the {@link Marshaller} and {@link Unmarshaller} encapsulate nicely.
+ * <P>Bodies are read and written through {@link org.springframework.obm.TypedCodec handles} that the {@link Marshaller} and {@link Unmarshaller}
+ * {@link Marshaller#prepare(Class) prepare} once per type, so per request there's only the encoding or decoding left to do.
+ * <P>When the handle is a {@link SizeAwareTypedCodec} (Protocol Buffers' are) the exact <CODE>Content-Length</CODE> is sent
+ * and the body is streamed. Otherwise, with {@link #setBuffered(boolean) buffering} switched on, the body is encoded into
+ * a buffer that each thread reuses, and sent with its <CODE>Content-Length</CODE> in a single write. Bodies that outgrow
+ * the {@link #setMaxBufferSize(int) maximum buffer size} are streamed (chunked) from that point on.
+ * <P>Bodies can also be compressed on the wire with a {@link ContentCoding} (<code>gzip</code>, <code>snappy</code> and, if
+ * lz4-java is on the classpath, <code>lz4</code>), which leaves the payload format alone. A response is compressed with the
+ * coding the client's <code>Accept-Encoding</code> rates highest, as long as it's at least the
+ * {@link #setCompressionThreshold(int) compression threshold} in size; bodies of unknown size are buffered up to the threshold
+ * to find out. Bodies read with a <code>Content-Encoding</code> are decompressed before they're unmarshalled.
+ * <P>With {@link #setStreamCollections(boolean) streamCollections} switched on, {@link Iterator}s and {@link Iterable}s
+ * are streamed: each element is written as it's taken from the iterator, as a
+ * frame holding its length (a varint) and then its bytes, which is the format {@link Marshaller#marshalAll(Iterator, OutputStream)}
+ * writes. The class of the elements goes into the {@link #ELEMENT_TYPE_PARAMETER element-type} parameter of the
+ * <code>Content-Type</code>. Reading into an {@link Iterator} or {@link Iterable} decodes the elements lazily, one frame at a
+ * time, as they're asked for. Null elements aren't written. Neither side ever holds more than one element. Since the element type comes from the
+ * other side, only the {@link #setStreamElementTypes(Class[]) streamElementTypes} configured here are ever read.
+ * Reading lazily only works where the body stays open while the caller iterates, as it does on the server.
+ * {@link org.springframework.web.client.RestTemplate} closes the response as soon as it has been read, so clients
+ * should consume streams with a {@link StreamedElementsResponseExtractor}.
  *
  * @author Josh Long
  * @see org.springframework.http.converter.HttpMessageConverter
  */
 public class MarshallingHttpMessageConverter extends AbstractHttpMessageConverter<Object> implements InitializingBean {
 
+    /**
+     * the <code>Content-Type</code> parameter that names the class of the elements of a streamed body
+     */
+    public static final String ELEMENT_TYPE_PARAMETER = "element-type";
+
+    /**
+     * a streamed body is flushed after its first element, then whenever this many bytes have been written since the last flush
+     */
+    private static final int STREAM_FLUSH_SIZE = 8 * 1024;
+
     private Marshaller marshaller;
 
     private Unmarshaller unmarshaller;
 
+    private volatile TypedCodecCache codecs;
+
+    private static final ThreadLocal<ExposedByteArrayOutputStream> RESPONSE_BUFFER = new ThreadLocal<ExposedByteArrayOutputStream>();
+
+    private boolean buffered = false;
+
+    private int maxBufferSize = 64 * 1024;
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    private static final String VARY = "Vary";
+
+    private static final String IDENTITY = "identity";
+
+    private List<ContentCoding> contentCodings = new ArrayList<ContentCoding>(Arrays.asList(defaultContentCodings()));
+
+    private int compressionThreshold = 1024;
+
+    private boolean streamCollections = false;
+
+    private List<Class<?>> streamElementTypes = Collections.emptyList();
+
+    /**
+     * for subclasses that pick the {@link Marshaller} per request, by overriding {@link #getEncoder(Class, MediaType)}
+     * and {@link #getDecoder(Class, MediaType)}
+     */
+    protected MarshallingHttpMessageConverter() {
+    }
+
     public MarshallingHttpMessageConverter(Marshaller marshaller) {
         Assert.isInstanceOf(Unmarshaller.class, marshaller);
         this.marshaller = marshaller;
@@ -58,15 +140,126 @@ public class MarshallingHttpMessageConverter extends AbstractHttpMessageConverte
 
     public void setMarshaller(Marshaller<Object> marshaller) {
         this.marshaller = marshaller;
+        this.codecs = null;
     }
 
     public void setUnmarshaller(Unmarshaller<Object> unmarshaller) {
         this.unmarshaller = unmarshaller;
+        this.codecs = null;
+    }
+
+    /**
+     * whether to buffer bodies whose size can't be known up front, so they can be sent with a <CODE>Content-Length</CODE>.
+     * Defaults to false
+     *
+     * @param buffered whether to buffer bodies
+     */
+    public void setBuffered(boolean buffered) {
+        this.buffered = buffered;
+    }
+
+    /**
+     * the largest body, in bytes, that will be buffered (64KB by default). Larger bodies are streamed without a
+     * <CODE>Content-Length</CODE>, and buffers larger than this aren't kept for the next body
+     *
+     * @param maxBufferSize the maximum buffer size, in bytes
+     */
+    public void setMaxBufferSize(int maxBufferSize) {
+        Assert.isTrue(maxBufferSize > 0, "the maximum buffer size must be greater than 0");
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * the codings that may be used to compress responses and decompress requests. When a client accepts several of them
+     * equally, the one that comes first in this list is used. Defaults to {@link #defaultContentCodings()}; an empty list
+     * switches compression off
+     *
+     * @param contentCodings the content codings
+     */
+    public void setContentCodings(List<ContentCoding> contentCodings) {
+        Assert.notNull(contentCodings, "the contentCodings must not be null");
+        this.contentCodings = new ArrayList<ContentCoding>(contentCodings);
+    }
+
+    /**
+     * the smallest response body, in bytes, that's worth compressing (1KB by default)
+     *
+     * @param compressionThreshold the compression threshold, in bytes
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        Assert.isTrue(compressionThreshold >= 0, "the compression threshold can't be negative");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * whether to stream {@link Iterator}s and {@link Iterable}s, element by element. Off by default, since the converter
+     * would otherwise claim every collection, whatever its elements, ahead of converters that could write them
+     */
+    public void setStreamCollections(boolean streamCollections) {
+        this.streamCollections = streamCollections;
+    }
+
+    /**
+     * the classes that the elements of a streamed body may be read as. The {@link #ELEMENT_TYPE_PARAMETER element-type}
+     * of a body must name one of them, and classes are never loaded by the name a body gives. None by default, in
+     * which case streamed bodies can't be read at all
+     *
+     * @param streamElementTypes the element types to accept
+     */
+    public void setStreamElementTypes(Class<?>... streamElementTypes) {
+        for (Class<?> streamElementType : streamElementTypes) {
+            Assert.notNull(streamElementType, "the stream element types must not be null");
+            Assert.isTrue(!Iterator.class.isAssignableFrom(streamElementType) && !Iterable.class.isAssignableFrom(streamElementType),
+                    "the elements of a stream can't be streams themselves");
+        }
+        this.streamElementTypes = Arrays.<Class<?>>asList(streamElementTypes.clone());
+    }
+
+    /**
+     * @return <code>gzip</code>, <code>snappy</code> and, if lz4-java is on the classpath, <code>lz4</code>
+     */
+    protected ContentCoding[] defaultContentCodings() {
+        if (ClassUtils.isPresent("net.jpountz.lz4.LZ4Factory", getClass().getClassLoader())) {
+            return new ContentCoding[]{new GzipContentCoding(), new SnappyContentCoding(), new Lz4ContentCoding()};
+        }
+        return new ContentCoding[]{new GzipContentCoding(), new SnappyContentCoding()};
+    }
+
+    /**
+     * @return the handles prepared so far by the current {@link Marshaller} and {@link Unmarshaller}
+     */
+    protected TypedCodecCache getCodecs() {
+        TypedCodecCache typedCodecCache = this.codecs;
+        if (typedCodecCache == null) {
+            this.codecs = typedCodecCache = new TypedCodecCache(this.marshaller, this.unmarshaller);
+        }
+        return typedCodecCache;
     }
 
     @Override
     public boolean supports(Class<?> clazz) {
-        return marshaller.supports(clazz) && unmarshaller.supports(clazz);
+        return isStreamed(clazz) || (marshaller.supports(clazz) && unmarshaller.supports(clazz));
+    }
+
+    /**
+     * streamed bodies can only be read into an {@link Iterator} or an {@link Iterable}, as there's no telling what
+     * other collection types would want, and only when there are {@link #setStreamElementTypes(Class[]) element types}
+     * to read them as
+     */
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        if (isStreamed(clazz)) {
+            return (clazz == Iterator.class || clazz == Iterable.class) && !this.streamElementTypes.isEmpty() && canRead(mediaType);
+        }
+        return super.canRead(clazz, mediaType);
+    }
+
+    /**
+     * @return whether values of the type are streamed, element by element
+     * @see #setStreamCollections(boolean)
+     */
+    protected boolean isStreamed(Class<?> clazz) {
+        return this.streamCollections && (Iterator.class.isAssignableFrom(clazz) || Iterable.class.isAssignableFrom(clazz));
     }
 
     @Override
@@ -82,8 +275,19 @@ public class MarshallingHttpMessageConverter extends AbstractHttpMessageConverte
     @Override
     protected Object readInternal(Class clazz, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
         InputStream in = inputMessage.getBody();
+        String contentEncoding = inputMessage.getHeaders().getFirst(CONTENT_ENCODING);
+        if (StringUtils.hasText(contentEncoding) && !IDENTITY.equalsIgnoreCase(contentEncoding.trim())) {
+            ContentCoding contentCoding = getContentCoding(contentEncoding.trim());
+            if (contentCoding == null) {
+                throw new HttpMessageNotReadableException("the Content-Encoding '" + contentEncoding + "' is not supported");
+            }
+            in = contentCoding.decode(in);
+        }
+        if (isStreamed(clazz)) {
+            return readElements(clazz, inputMessage.getHeaders().getContentType(), in);
+        }
         try {
-            return unmarshaller.unmarshal(clazz, in);
+            return getDecoder(clazz, inputMessage.getHeaders().getContentType()).decode(in);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -91,11 +295,429 @@ public class MarshallingHttpMessageConverter extends AbstractHttpMessageConverte
 
     @Override
     protected void writeInternal(Object o, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        try {
+            if (isStreamed(o.getClass())) {
+                writeElements(o instanceof Iterator ? (Iterator<?>) o : ((Iterable<?>) o).iterator(), outputMessage);
+                return;
+            }
+            TypedCodec<Object> codec = getEncoder(o, outputMessage.getHeaders().getContentType());
+            long size = getEncodedSize(codec, o);
+            ContentCoding contentCoding = negotiateResponseCoding(outputMessage, false);
+            if (contentCoding != null && size >= this.compressionThreshold) {
+                outputMessage.getHeaders().set(CONTENT_ENCODING, contentCoding.getName());
+                OutputStream out = contentCoding.encode(new NonClosingOutputStream(outputMessage.getBody()));
+                codec.encode(o, out);
+                out.close();
+                return;
+            }
+            if (size >= 0) {
+                // the length is only known here, once it's settled whether the body is compressed
+                if (outputMessage.getHeaders().getContentLength() == -1) {
+                    outputMessage.getHeaders().setContentLength(size);
+                }
+                codec.encode(o, outputMessage.getBody());
+                return;
+            }
+            if (contentCoding == null && !this.buffered) {
+                codec.encode(o, outputMessage.getBody());
+                return;
+            }
+            // find out whether the body is large enough to be worth compressing, or buffer it to send its length
+            int limit = contentCoding == null ? this.maxBufferSize : this.compressionThreshold;
+            ExposedByteArrayOutputStream buffer = borrowBuffer();
+            try {
+                ResponseBufferOutputStream out = new ResponseBufferOutputStream(buffer, outputMessage, limit, contentCoding);
+                codec.encode(o, out);
+                out.finish();
+            } finally {
+                returnBuffer(buffer);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * writes each element as a length delimited frame, as it's taken from the iterator. Null elements are skipped, so they
+     * never reach the client, wherever they turn up in the stream. Streams are always compressed
+     * if the client accepts a {@link ContentCoding#isFlushable() flushable} coding, since there's no telling how large
+     * they'll get; otherwise they're sent as they are, so that each flush reaches the client
+     */
+    private void writeElements(Iterator<?> elements, HttpOutputMessage outputMessage) throws Exception {
+        HttpHeaders headers = outputMessage.getHeaders();
+        MediaType contentType = headers.getContentType();
+        Object first = nextElement(elements);
+        if (first != null && contentType != null) {
+            headers.setContentType(new MediaType(contentType.getType(), contentType.getSubtype(),
+                    Collections.singletonMap(ELEMENT_TYPE_PARAMETER, first.getClass().getName())));
+        }
+        ContentCoding contentCoding = negotiateResponseCoding(outputMessage, true);
+        if (contentCoding != null) {
+            headers.set(CONTENT_ENCODING, contentCoding.getName());
+        }
         OutputStream out = outputMessage.getBody();
+        if (contentCoding != null) {
+            out = contentCoding.encode(new NonClosingOutputStream(out));
+        }
+        ExposedByteArrayOutputStream buffer = borrowBuffer();
+        try {
+            if (first != null) {
+                ElementWriter writer = new ElementWriter(contentType, out, buffer);
+                writer.write(first);
+                out.flush(); // so the client can start on the first element while the rest are produced
+                long unflushed = 0;
+                Object element;
+                while ((element = nextElement(elements)) != null) {
+                    unflushed += writer.write(element);
+                    if (unflushed >= STREAM_FLUSH_SIZE) {
+                        out.flush();
+                        unflushed = 0;
+                    }
+                }
+            }
+            if (contentCoding != null) {
+                out.close();
+            }
+        } finally {
+            returnBuffer(buffer);
+        }
+    }
+
+    /**
+     * @return the next element that isn't null, or null once the iterator is exhausted
+     */
+    private static Object nextElement(Iterator<?> elements) {
+        while (elements.hasNext()) {
+            Object element = elements.next();
+            if (element != null) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a lazy {@link Iterator} (or a single use {@link Iterable}) over the frames of a streamed body. An empty
+     *         stream is written without an element type, so an empty body without one is read as an empty stream.
+     *         The element type is looked up among the {@link #setStreamElementTypes(Class[]) streamElementTypes}
+     */
+    private Object readElements(Class<?> clazz, MediaType contentType, InputStream in) throws IOException {
+        String elementTypeName = contentType == null ? null : contentType.getParameter(ELEMENT_TYPE_PARAMETER);
+        if (!StringUtils.hasText(elementTypeName)) {
+            if (in.read() == -1) {
+                List<Object> empty = Collections.emptyList();
+                return clazz == Iterator.class ? empty.iterator() : empty;
+            }
+            throw new HttpMessageNotReadableException("a streamed body needs the '" + ELEMENT_TYPE_PARAMETER + "' Content-Type parameter");
+        }
+        Class<?> elementType = null;
+        for (Class<?> streamElementType : this.streamElementTypes) {
+            if (streamElementType.getName().equals(elementTypeName)) {
+                elementType = streamElementType;
+                break;
+            }
+        }
+        if (elementType == null) {
+            throw new HttpMessageNotReadableException("the element type " + elementTypeName + " isn't one of the streamElementTypes");
+        }
+        if (!canRead(elementType, contentType)) {
+            throw new HttpMessageNotReadableException("elements of type " + elementTypeName + " can't be read as " + contentType);
+        }
+        final TypedCodec<?> codec;
         try {
-            marshaller.marshal(o, out);
+            codec = getDecoder(elementType, contentType);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        final Iterator<Object> elements = new DelimitedIterator<Object>(in) {
+            @Override
+            protected Object read(LimitedInputStream source, int length) throws Exception {
+                return codec.decode(source);
+            }
+        };
+        if (clazz == Iterator.class) {
+            return elements;
+        }
+        return new Iterable<Object>() {
+            private boolean iterated;
+
+            @Override
+            public synchronized Iterator<Object> iterator() {
+                Assert.state(!this.iterated, "a streamed body can only be iterated over once");
+                this.iterated = true;
+                return elements;
+            }
+        };
+    }
+
+    /**
+     * @return the coding to compress a server response with, if the client accepts one. Marks the response as varying by
+     *         <code>Accept-Encoding</code> whenever compression is possible at all
+     */
+    private ContentCoding negotiateResponseCoding(HttpOutputMessage outputMessage, boolean flushableOnly) {
+        if (outputMessage instanceof ServerHttpResponse && !this.contentCodings.isEmpty()) {
+            outputMessage.getHeaders().add(VARY, ACCEPT_ENCODING);
+            return negotiateContentCoding(getCurrentRequest(), flushableOnly);
+        }
+        return null;
+    }
+
+    /**
+     * @return the coding named in a <code>Content-Encoding</code> header, or null if it isn't one of the configured codings
+     */
+    protected ContentCoding getContentCoding(String name) {
+        for (ContentCoding contentCoding : this.contentCodings) {
+            if (contentCoding.getName().equalsIgnoreCase(name)) {
+                return contentCoding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the configured coding that the request's <code>Accept-Encoding</code> rates highest, or null if the
+     *         request accepts none of them (or there is no request)
+     */
+    protected ContentCoding negotiateContentCoding(HttpServletRequest request) {
+        return negotiateContentCoding(request, false);
+    }
+
+    /**
+     * @param flushableOnly whether to only consider {@link ContentCoding#isFlushable() flushable} codings
+     * @return the configured coding that the request's <code>Accept-Encoding</code> rates highest, out of the ones
+     *         considered, or null if the request accepts none of them (or there is no request)
+     */
+    protected ContentCoding negotiateContentCoding(HttpServletRequest request, boolean flushableOnly) {
+        if (request == null || this.contentCodings.isEmpty()) {
+            return null;
+        }
+        String acceptEncoding = request.getHeader(ACCEPT_ENCODING);
+        if (!StringUtils.hasText(acceptEncoding)) {
+            return null;
+        }
+        ContentCoding best = null;
+        float bestQuality = 0;
+        for (ContentCoding contentCoding : this.contentCodings) {
+            if (flushableOnly && !contentCoding.isFlushable()) {
+                continue;
+            }
+            float quality = getQuality(acceptEncoding, contentCoding.getName());
+            if (quality > bestQuality) {
+                best = contentCoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the quality the <code>Accept-Encoding</code> header gives the coding, either by name or through <code>*</code>
+     */
+    private static float getQuality(String acceptEncoding, String name) {
+        float wildcard = 0;
+        for (String element : StringUtils.commaDelimitedListToStringArray(acceptEncoding)) {
+            String[] parts = StringUtils.tokenizeToStringArray(element, ";");
+            if (parts.length == 0) {
+                continue;
+            }
+            float quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                if (parts[i].startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parts[i].substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (parts[0].equalsIgnoreCase(name)) {
+                return quality;
+            }
+            if ("*".equals(parts[0])) {
+                wildcard = quality;
+            }
+        }
+        return wildcard;
+    }
+
+    private static HttpServletRequest getCurrentRequest() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes instanceof ServletRequestAttributes) {
+            return ((ServletRequestAttributes) requestAttributes).getRequest();
+        }
+        return null;
+    }
+
+    /**
+     * @return the handle to write the type with, when writing it as the given content type
+     */
+    protected TypedCodec<?> getEncoder(Class<?> clazz, MediaType contentType) throws Exception {
+        return getCodecs().getEncoder(clazz);
+    }
+
+    /**
+     * @return the handle to read the type with, when reading it from the given content type
+     */
+    protected TypedCodec<?> getDecoder(Class<?> clazz, MediaType contentType) throws Exception {
+        return getCodecs().getDecoder(clazz);
+    }
+
+    @SuppressWarnings("unchecked")
+    private TypedCodec<Object> getEncoder(Object o, MediaType contentType) throws Exception {
+        return (TypedCodec<Object>) getEncoder(o.getClass(), contentType);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long getEncodedSize(TypedCodec<Object> codec, Object o) throws Exception {
+        return codec instanceof SizeAwareTypedCodec ? ((SizeAwareTypedCodec<Object>) codec).getEncodedSize(o) : -1;
+    }
+
+    private static ExposedByteArrayOutputStream borrowBuffer() {
+        ExposedByteArrayOutputStream buffer = RESPONSE_BUFFER.get();
+        if (buffer == null) {
+            return new ExposedByteArrayOutputStream(4096);
+        }
+        RESPONSE_BUFFER.set(null); // in case the same thread comes back in before this body is written
+        buffer.reset();
+        return buffer;
+    }
+
+    private void returnBuffer(ExposedByteArrayOutputStream buffer) {
+        if (buffer.getBuffer().length <= this.maxBufferSize) {
+            RESPONSE_BUFFER.set(buffer);
+        }
+    }
+
+    /**
+     * writes elements as frames, holding on to the codec of the last element's class
+     */
+    private class ElementWriter {
+
+        private final MediaType contentType;
+        private final OutputStream out;
+        private final ExposedByteArrayOutputStream buffer;
+        private Class<?> lastType;
+        private TypedCodec<Object> lastCodec;
+
+        ElementWriter(MediaType contentType, OutputStream out, ExposedByteArrayOutputStream buffer) {
+            this.contentType = contentType;
+            this.out = out;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return the number of bytes written
+         */
+        int write(Object element) throws Exception {
+            if (element.getClass() != this.lastType) {
+                this.lastCodec = getEncoder(element, this.contentType);
+                this.lastType = element.getClass();
+            }
+            long size = getEncodedSize(this.lastCodec, element);
+            if (size >= 0) {
+                // the length is known up front, so the element can go straight out
+                VarintUtils.writeVarint((int) size, this.out);
+                this.lastCodec.encode(element, this.out);
+                return VarintUtils.computeVarintSize((int) size) + (int) size;
+            }
+            this.buffer.reset();
+            this.lastCodec.encode(element, this.buffer);
+            VarintUtils.writeVarint(this.buffer.size(), this.out);
+            this.out.write(this.buffer.getBuffer(), 0, this.buffer.size());
+            return VarintUtils.computeVarintSize(this.buffer.size()) + this.buffer.size();
+        }
+    }
+
+    /**
+     * collects the body until it would grow past the limit, at which point whatever has been collected is written
+     * to the response (through the content coding, if there is one) and the rest of the body goes straight through
+     */
+    private static class ResponseBufferOutputStream extends OutputStream {
+
+        private final ExposedByteArrayOutputStream buffer;
+        private final HttpOutputMessage outputMessage;
+        private final int limit;
+        private final ContentCoding contentCoding;
+        private OutputStream body;
+
+        ResponseBufferOutputStream(ExposedByteArrayOutputStream buffer, HttpOutputMessage outputMessage, int limit, ContentCoding contentCoding) {
+            this.buffer = buffer;
+            this.outputMessage = outputMessage;
+            this.limit = limit;
+            this.contentCoding = contentCoding;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.body == null && this.buffer.size() + 1 > this.limit) {
+                spill();
+            }
+            if (this.body != null) {
+                this.body.write(b);
+            } else {
+                this.buffer.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (this.body == null && this.buffer.size() + len > this.limit) {
+                spill();
+            }
+            if (this.body != null) {
+                this.body.write(b, off, len);
+            } else {
+                this.buffer.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.body != null) {
+                this.body.flush();
+            }
+        }
+
+        /**
+         * sends the buffered body, with its length, if it was never spilled. Otherwise finishes the content coding
+         */
+        void finish() throws IOException {
+            if (this.body == null) {
+                this.outputMessage.getHeaders().setContentLength(this.buffer.size());
+                this.outputMessage.getBody().write(this.buffer.getBuffer(), 0, this.buffer.size());
+            } else if (this.contentCoding != null) {
+                this.body.close();
+            }
+        }
+
+        private void spill() throws IOException {
+            if (this.contentCoding == null) {
+                this.body = this.outputMessage.getBody();
+            } else {
+                this.outputMessage.getHeaders().set(CONTENT_ENCODING, this.contentCoding.getName());
+                this.body = this.contentCoding.encode(new NonClosingOutputStream(this.outputMessage.getBody()));
+            }
+            this.body.write(this.buffer.getBuffer(), 0, this.buffer.size());
+        }
+    }
+
+    /**
+     * keeps a content coding from closing the response when it's closed to finish the coding
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
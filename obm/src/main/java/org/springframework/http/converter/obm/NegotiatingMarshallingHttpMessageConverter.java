@@ -0,0 +1,316 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.http.converter.obm;
+
+import org.springframework.http.MediaType;
+import org.springframework.obm.Marshaller;
+import org.springframework.obm.TypedCodec;
+import org.springframework.obm.Unmarshaller;
+import org.springframework.obm.snappy.SnappyMarshaller;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <P>A {@link MarshallingHttpMessageConverter} that serves several formats at once, from a table that maps media types
+ * (see {@link #PROTOBUF}, {@link #AVRO}, {@link #MESSAGEPACK} and {@link #THRIFT}) to {@link Marshaller}s. Registering one
+ * converter like this, rather than one converter per format, spares Spring MVC from probing each converter's
+ * <code>supports()</code> in turn on every request.
+ * <P>Which marshaller (if any) handles a given class as a given media type is worked out the first time that pair is seen,
+ * and remembered. After that, deciding whether the converter can read or write a body, and getting the
+ * {@link TypedCodec handle} to do it with, is a single map lookup.
+ * <P>With {@link #setSnappyVariants(boolean) Snappy variants} on (the default), every registered media type also has a
+ * Snappy compressed variant, with <code>+snappy</code> appended to its subtype (<code>application/x-thrift+snappy</code>,
+ * say), that's handled by a {@link SnappyMarshaller} wrapped around the same marshaller. Unlike a
+ * {@link ContentCoding}, this changes the payload format, so both sides have to agree on it.
+ *
+ * @author Josh Long
+ */
+public class NegotiatingMarshallingHttpMessageConverter extends MarshallingHttpMessageConverter {
+
+    public static final MediaType PROTOBUF = new MediaType("application", "x-protobuf");
+
+    public static final MediaType AVRO = new MediaType("avro", "binary");
+
+    public static final MediaType MESSAGEPACK = new MediaType("application", "x-msgpack");
+
+    public static final MediaType THRIFT = new MediaType("application", "x-thrift");
+
+    public static final String SNAPPY_SUFFIX = "+snappy";
+
+    /**
+     * past this many (class, media type) pairs, unknown pairs aren't remembered, so that clients can't grow the
+     * cache without bound by asking for made up media types
+     */
+    private static final int MAX_CACHED_BINDINGS = 1024;
+
+    private static final Binding NO_BINDING = new Binding(null, null);
+
+    private final Map<MediaType, Marshaller> marshallers = new LinkedHashMap<MediaType, Marshaller>();
+
+    private volatile Map<MediaType, Marshaller> effectiveMarshallers = Collections.emptyMap();
+
+    private boolean snappyVariants = true;
+
+    private final ConcurrentMap<BindingKey, Binding> writers = new ConcurrentHashMap<BindingKey, Binding>();
+
+    private final ConcurrentMap<BindingKey, Binding> readers = new ConcurrentHashMap<BindingKey, Binding>();
+
+    public NegotiatingMarshallingHttpMessageConverter() {
+        super();
+    }
+
+    /**
+     * @param marshallers the marshallers to use, keyed by media type
+     */
+    public NegotiatingMarshallingHttpMessageConverter(Map<MediaType, ? extends Marshaller> marshallers) {
+        this();
+        for (Map.Entry<MediaType, ? extends Marshaller> entry : marshallers.entrySet()) {
+            addMarshaller(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * the marshallers to use, keyed by media type (like <code>application/x-protobuf</code>). When a class could be
+     * written as several of the media types a client accepts, the one registered first wins
+     *
+     * @param marshallers the marshallers, keyed by media type
+     */
+    public void setMarshallers(Map<String, ? extends Marshaller> marshallers) {
+        Assert.notNull(marshallers, "the marshallers must not be null");
+        synchronized (this.marshallers) {
+            this.marshallers.clear();
+            for (Map.Entry<String, ? extends Marshaller> entry : marshallers.entrySet()) {
+                addMarshaller(MediaType.parseMediaType(entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * maps a media type to a marshaller, which must also be an {@link Unmarshaller}
+     */
+    public void addMarshaller(MediaType mediaType, Marshaller marshaller) {
+        Assert.notNull(mediaType, "the media type must not be null");
+        Assert.isInstanceOf(Unmarshaller.class, marshaller, "the marshaller must also be an Unmarshaller");
+        synchronized (this.marshallers) {
+            this.marshallers.put(normalize(mediaType), marshaller);
+            refresh();
+        }
+    }
+
+    /**
+     * whether each registered media type also gets a Snappy compressed <code>+snappy</code> variant. Defaults to true
+     *
+     * @param snappyVariants whether to add Snappy variants
+     */
+    public void setSnappyVariants(boolean snappyVariants) {
+        synchronized (this.marshallers) {
+            this.snappyVariants = snappyVariants;
+            refresh();
+        }
+    }
+
+    /**
+     * rebuilds the table, Snappy variants included, and forgets every decision made with the old one
+     */
+    private void refresh() {
+        Map<MediaType, Marshaller> effective = new LinkedHashMap<MediaType, Marshaller>(this.marshallers);
+        if (this.snappyVariants) {
+            for (Map.Entry<MediaType, Marshaller> entry : this.marshallers.entrySet()) {
+                MediaType variant = getSnappyVariant(entry.getKey());
+                if (!effective.containsKey(variant) && !(entry.getValue() instanceof SnappyMarshaller)) {
+                    effective.put(variant, new SnappyMarshaller(entry.getValue()));
+                }
+            }
+        }
+        this.effectiveMarshallers = effective;
+        this.writers.clear();
+        this.readers.clear();
+        setSupportedMediaTypes(new ArrayList<MediaType>(effective.keySet()));
+    }
+
+    /**
+     * @return the Snappy compressed variant of the media type, like <code>application/x-thrift+snappy</code>
+     */
+    public static MediaType getSnappyVariant(MediaType mediaType) {
+        return new MediaType(mediaType.getType(), mediaType.getSubtype() + SNAPPY_SUFFIX);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notEmpty(this.effectiveMarshallers, "at least one marshaller must be registered");
+    }
+
+    @Override
+    public boolean supports(Class<?> clazz) {
+        if (isStreamed(clazz)) {
+            return true;
+        }
+        for (MediaType mediaType : this.effectiveMarshallers.keySet()) {
+            if (getWriter(clazz, mediaType) != NO_BINDING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        if (isStreamed(clazz)) {
+            return super.canRead(clazz, mediaType);
+        }
+        return getReader(clazz, mediaType) != NO_BINDING;
+    }
+
+    @Override
+    public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+        if (isStreamed(clazz)) {
+            return super.canWrite(clazz, mediaType);
+        }
+        return getWriter(clazz, mediaType) != NO_BINDING;
+    }
+
+    /**
+     * @return the first registered media type whose marshaller can write the object. Streamed bodies, whose elements
+     *         can't be looked at ahead of time, get the first registered media type
+     */
+    @Override
+    protected MediaType getDefaultContentType(Object o) throws IOException {
+        if (isStreamed(o.getClass())) {
+            return this.effectiveMarshallers.keySet().iterator().next();
+        }
+        return getWriter(o.getClass(), null).mediaType;
+    }
+
+    @Override
+    protected TypedCodec<?> getEncoder(Class<?> clazz, MediaType contentType) throws Exception {
+        return checkBinding(getWriter(clazz, contentType), clazz, contentType).codec;
+    }
+
+    @Override
+    protected TypedCodec<?> getDecoder(Class<?> clazz, MediaType contentType) throws Exception {
+        return checkBinding(getReader(clazz, contentType), clazz, contentType).codec;
+    }
+
+    private static Binding checkBinding(Binding binding, Class<?> clazz, MediaType contentType) {
+        if (binding == NO_BINDING) {
+            throw new IllegalStateException("no marshaller is registered for " + clazz.getName() + " as " + contentType);
+        }
+        return binding;
+    }
+
+    private Binding getWriter(Class<?> clazz, MediaType mediaType) {
+        return getBinding(this.writers, clazz, mediaType, true);
+    }
+
+    private Binding getReader(Class<?> clazz, MediaType mediaType) {
+        return getBinding(this.readers, clazz, mediaType, false);
+    }
+
+    private Binding getBinding(ConcurrentMap<BindingKey, Binding> bindings, Class<?> clazz, MediaType mediaType, boolean writing) {
+        BindingKey key = new BindingKey(clazz, mediaType == null ? MediaType.ALL : normalize(mediaType));
+        Binding binding = bindings.get(key);
+        if (binding == null) {
+            binding = resolve(clazz, key.mediaType, writing);
+            if (binding != NO_BINDING || bindings.size() < MAX_CACHED_BINDINGS) {
+                bindings.putIfAbsent(key, binding);
+            }
+        }
+        return binding;
+    }
+
+    /**
+     * finds the first registered media type that's compatible with the one asked for, and whose marshaller handles the class
+     */
+    @SuppressWarnings("unchecked")
+    private Binding resolve(Class<?> clazz, MediaType mediaType, boolean writing) {
+        for (Map.Entry<MediaType, Marshaller> entry : this.effectiveMarshallers.entrySet()) {
+            if (!entry.getKey().isCompatibleWith(mediaType)) {
+                continue;
+            }
+            Marshaller marshaller = entry.getValue();
+            Unmarshaller unmarshaller = (Unmarshaller) marshaller;
+            try {
+                if (writing && marshaller.supports(clazz)) {
+                    return new Binding(entry.getKey(), marshaller.prepare(clazz));
+                }
+                if (!writing && unmarshaller.supports(clazz)) {
+                    return new Binding(entry.getKey(), unmarshaller.prepare(clazz));
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return NO_BINDING;
+    }
+
+    /**
+     * drops the parameters (quality, charset) that don't matter when picking a marshaller
+     */
+    private static MediaType normalize(MediaType mediaType) {
+        return new MediaType(mediaType.getType(), mediaType.getSubtype());
+    }
+
+    /**
+     * the media type a class is written as (or read from), and the handle to do it with
+     */
+    private static class Binding {
+
+        private final MediaType mediaType;
+        private final TypedCodec<?> codec;
+
+        Binding(MediaType mediaType, TypedCodec<?> codec) {
+            this.mediaType = mediaType;
+            this.codec = codec;
+        }
+    }
+
+    private static class BindingKey {
+
+        private final Class<?> clazz;
+        private final MediaType mediaType;
+
+        BindingKey(Class<?> clazz, MediaType mediaType) {
+            this.clazz = clazz;
+            this.mediaType = mediaType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BindingKey)) {
+                return false;
+            }
+            BindingKey other = (BindingKey) o;
+            return this.clazz == other.clazz && this.mediaType.equals(other.mediaType);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.clazz.hashCode() + this.mediaType.hashCode();
+        }
+    }
+}
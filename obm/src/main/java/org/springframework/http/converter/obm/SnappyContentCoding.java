@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.http.converter.obm;
+
+import org.springframework.obm.snappy.SnappyFramedInputStream;
+import org.springframework.obm.snappy.SnappyFramedOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link ContentCoding} that streams bodies through the Snappy framing format (see {@link SnappyFramedOutputStream}).
+ * Much cheaper than <code>gzip</code> on the CPU, for a more modest saving.
+ *
+ * @author Josh Long
+ */
+public class SnappyContentCoding implements ContentCoding {
+
+    public static final String NAME = "snappy";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream out) throws IOException {
+        return new SnappyFramedOutputStream(out);
+    }
+
+    @Override
+    public boolean isFlushable() {
+        return true;
+    }
+
+    @Override
+    public InputStream decode(InputStream in) throws IOException {
+        return new SnappyFramedInputStream(in);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.http.converter.obm;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientException;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * <P>Reads a streamed response on the client, handing each element to an {@link ElementCallback} as soon as it has
+ * been decoded, while the rest of the response is still on its way.
+ * <P>{@link org.springframework.web.client.RestTemplate} closes the response as soon as its {@link ResponseExtractor}
+ * returns, so an {@link Iterator} read through <code>getForObject</code> and the like is over a closed stream by the time
+ * the caller gets it. Pass this extractor to {@link org.springframework.web.client.RestTemplate#execute(String,
+ * org.springframework.http.HttpMethod, org.springframework.web.client.RequestCallback, ResponseExtractor, Object...)}
+ * instead: the elements are consumed before the response is closed.
+ *
+ * @param <T> the type of the elements, which must be one of the converter's
+ *            {@link MarshallingHttpMessageConverter#setStreamElementTypes(Class[]) streamElementTypes}
+ * @author Josh Long
+ */
+public class StreamedElementsResponseExtractor<T> implements ResponseExtractor<Integer> {
+
+    /**
+     * does the work for each element of the stream
+     *
+     * @param <T> the type of the elements
+     */
+    public interface ElementCallback<T> {
+
+        void doWithElement(T element) throws Exception;
+    }
+
+    private final MarshallingHttpMessageConverter converter;
+
+    private final Class<T> elementType;
+
+    private final ElementCallback<? super T> callback;
+
+    public StreamedElementsResponseExtractor(MarshallingHttpMessageConverter converter, Class<T> elementType, ElementCallback<? super T> callback) {
+        Assert.notNull(converter, "the converter must not be null");
+        Assert.notNull(elementType, "the element type must not be null");
+        Assert.notNull(callback, "the callback must not be null");
+        this.converter = converter;
+        this.elementType = elementType;
+        this.callback = callback;
+    }
+
+    /**
+     * @return the number of elements handed to the callback
+     */
+    @Override
+    public Integer extractData(ClientHttpResponse response) throws IOException {
+        MediaType contentType = response.getHeaders().getContentType();
+        if (!this.converter.canRead(Iterator.class, contentType)) {
+            throw new RestClientException("a streamed response can't be read as " + contentType);
+        }
+        Iterator<?> elements = (Iterator<?>) this.converter.read(Iterator.class, response);
+        int count = 0;
+        while (elements.hasNext()) {
+            Object element = elements.next();
+            if (!this.elementType.isInstance(element)) {
+                throw new RestClientException("the streamed response holds " + element.getClass().getName() +
+                        " elements rather than " + this.elementType.getName());
+            }
+            try {
+                this.callback.doWithElement(this.elementType.cast(element));
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RestClientException("could not handle a streamed element", e);
+            }
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.jms.support.converter.obm;
+
+import org.springframework.util.Assert;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that reads straight from the body of a {@link BytesMessage}, so that an
+ * {@link org.springframework.obm.Unmarshaller} can decode a payload without the body first being copied
+ * into a byte array of its full length.
+ * <P>The body is pulled from the message through {@link BytesMessage#readBytes(byte[], int)} one chunk at a
+ * time. Reads at least as large as a chunk go directly into the caller's array when they can.
+ *
+ * @author Josh Long
+ * @see BytesMessageOutputStream
+ */
+public class BytesMessageInputStream extends InputStream {
+
+    private final BytesMessage message;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean exhausted;
+
+    public BytesMessageInputStream(BytesMessage message) {
+        this(message, BytesMessageOutputStream.DEFAULT_CHUNK_SIZE);
+    }
+
+    public BytesMessageInputStream(BytesMessage message, int chunkSize) {
+        Assert.notNull(message, "the message must not be null");
+        Assert.isTrue(chunkSize > 0, "the chunk size must be greater than 0");
+        this.message = message;
+        this.buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.position == this.limit && !fill()) {
+            return -1;
+        }
+        return this.buffer[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int buffered = this.limit - this.position;
+        if (buffered == 0) {
+            if (off == 0 && len >= this.buffer.length) {
+                // BytesMessage only ever fills an array from its start
+                return readFromMessage(b, len);
+            }
+            if (!fill()) {
+                return -1;
+            }
+            buffered = this.limit - this.position;
+        }
+        int count = Math.min(buffered, len);
+        System.arraycopy(this.buffer, this.position, b, off, count);
+        this.position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (this.position == this.limit && !fill()) {
+                break;
+            }
+            int count = (int) Math.min(this.limit - this.position, n - skipped);
+            this.position += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.limit - this.position;
+    }
+
+    private boolean fill() throws IOException {
+        int read = readFromMessage(this.buffer, this.buffer.length);
+        this.position = 0;
+        this.limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private int readFromMessage(byte[] b, int len) throws IOException {
+        if (this.exhausted) {
+            return -1;
+        }
+        try {
+            int read = this.message.readBytes(b, len);
+            if (read < len) {
+                // a short read means the end of the body has been reached
+                this.exhausted = true;
+            }
+            return read == 0 ? -1 : read;
+        } catch (JMSException e) {
+            throw new IOException("could not read from the message body", e);
+        }
+    }
+}
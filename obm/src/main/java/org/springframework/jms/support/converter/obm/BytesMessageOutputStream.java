@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.jms.support.converter.obm;
+
+import org.springframework.util.Assert;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that writes straight into the body of a {@link BytesMessage}, so that a
+ * {@link org.springframework.obm.Marshaller} can encode a payload into the message without first
+ * collecting the whole thing in a byte array.
+ * <P>Small writes are gathered into a buffer of {@link #DEFAULT_CHUNK_SIZE chunk size} bytes and handed to
+ * {@link BytesMessage#writeBytes(byte[], int, int)} when the buffer fills up or the stream is flushed. Writes
+ * at least as large as the buffer skip it.
+ * <P>Closing the stream flushes it; the message itself stays open for the caller to send.
+ *
+ * @author Josh Long
+ * @see BytesMessageInputStream
+ */
+public class BytesMessageOutputStream extends OutputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+    private final BytesMessage message;
+    private final byte[] buffer;
+    private int count;
+
+    public BytesMessageOutputStream(BytesMessage message) {
+        this(message, DEFAULT_CHUNK_SIZE);
+    }
+
+    public BytesMessageOutputStream(BytesMessage message, int chunkSize) {
+        Assert.notNull(message, "the message must not be null");
+        Assert.isTrue(chunkSize > 0, "the chunk size must be greater than 0");
+        this.message = message;
+        this.buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.count == this.buffer.length) {
+            flushBuffer();
+        }
+        this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len >= this.buffer.length) {
+            flushBuffer();
+            writeToMessage(b, off, len);
+            return;
+        }
+        if (len > this.buffer.length - this.count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, this.buffer, this.count, len);
+        this.count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            writeToMessage(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    private void writeToMessage(byte[] b, int off, int len) throws IOException {
+        try {
+            this.message.writeBytes(b, off, len);
+        } catch (JMSException e) {
+            throw new IOException("could not write to the message body", e);
+        }
+    }
+}
@@ -21,7 +21,9 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jms.support.converter.MessageConversionException;
 import org.springframework.jms.support.converter.MessageConverter;
 import org.springframework.obm.Marshaller;
+import org.springframework.obm.TypedCodec;
 import org.springframework.obm.Unmarshaller;
+import org.springframework.obm.support.TypedCodecCache;
 import org.springframework.oxm.XmlMappingException;
 import org.springframework.util.Assert;
 
@@ -29,8 +31,6 @@ import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.Session;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 /**
@@ -39,6 +39,10 @@ import java.io.IOException;
  * This is inconvenient, however, in most typical configurations a {@link org.springframework.jms.core.JmsTemplate}
  * will be tied to the workload of one {@link javax.jms.Destination}, and typically a {@link javax.jms.Destination}
  * will only transport one type of payload.
+ * <P>Messages are read and written through {@link TypedCodec handles} that the {@link Marshaller} and {@link Unmarshaller}
+ * {@link Marshaller#prepare(Class) prepare} once per type. The handles write into and read from the message body
+ * directly (see {@link BytesMessageOutputStream} and {@link BytesMessageInputStream}), a {@link #setChunkSize(int) chunk}
+ * at a time, so the memory used per message doesn't grow with the size of the payload.
  *
  * @author Josh Long
  * @see org.springframework.jms.support.converter.MarshallingMessageConverter
@@ -50,6 +54,8 @@ public class MarshallingMessageConverter implements MessageConverter, Initializi
     private Marshaller marshaller;
     private Unmarshaller unmarshaller;
     private Class<?> payloadClass;
+    private volatile TypedCodecCache codecs;
+    private int chunkSize = BytesMessageOutputStream.DEFAULT_CHUNK_SIZE;
 
     public MarshallingMessageConverter() {
     }
@@ -86,10 +92,33 @@ public class MarshallingMessageConverter implements MessageConverter, Initializi
 
     public void setMarshaller(Marshaller marshaller) {
         this.marshaller = marshaller;
+        this.codecs = null;
     }
 
     public void setUnmarshaller(Unmarshaller unmarshaller) {
         this.unmarshaller = unmarshaller;
+        this.codecs = null;
+    }
+
+    /**
+     * the number of bytes copied into or out of the message body at a time (8KB by default)
+     *
+     * @param chunkSize the chunk size, in bytes
+     */
+    public void setChunkSize(int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "the chunk size must be greater than 0");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the handles prepared so far by the current {@link Marshaller} and {@link Unmarshaller}
+     */
+    protected TypedCodecCache getCodecs() {
+        TypedCodecCache typedCodecCache = this.codecs;
+        if (typedCodecCache == null) {
+            this.codecs = typedCodecCache = new TypedCodecCache(this.marshaller, this.unmarshaller);
+        }
+        return typedCodecCache;
     }
 
     @Override
@@ -128,10 +157,8 @@ public class MarshallingMessageConverter implements MessageConverter, Initializi
 
     protected Object unmarshalFromBytesMessage(Class clzz, BytesMessage message, org.springframework.obm.Unmarshaller unmarshaller) throws JMSException, IOException, XmlMappingException {
         try {
-            byte[] bytes = new byte[(int) message.getBodyLength()];
-            message.readBytes(bytes);
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-            Object result = unmarshaller.unmarshal(clzz, bis);
+            TypedCodec<?> codec = unmarshaller == this.unmarshaller ? getCodecs().getDecoder(clzz) : unmarshaller.prepare(clzz);
+            Object result = codec.decode(new BytesMessageInputStream(message, this.chunkSize));
             Assert.notNull(result, "the result from the queue is null");
             if (log.isDebugEnabled()) {
                 log.debug("received: " + result);
@@ -142,16 +169,20 @@ public class MarshallingMessageConverter implements MessageConverter, Initializi
         }
     }
 
+    @SuppressWarnings("unchecked")
     protected BytesMessage marshalToBytesMessage(Object object, Session session, org.springframework.obm.Marshaller marshaller) throws JMSException, IOException, XmlMappingException {
         Assert.notNull(object);
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
         BytesMessage message;
         try {
 
-            marshaller.marshal(object, bos);
+            TypedCodec<Object> codec = marshaller == this.marshaller ?
+                                               getCodecs().getEncoder((Class<Object>) object.getClass()) :
+                                               marshaller.prepare(object.getClass());
 
             message = session.createBytesMessage();
-            message.writeBytes(bos.toByteArray());
+            BytesMessageOutputStream out = new BytesMessageOutputStream(message, this.chunkSize);
+            codec.encode(object, out);
+            out.flush();
 
             if (log.isDebugEnabled()) {
                 log.debug("sent:" + object);
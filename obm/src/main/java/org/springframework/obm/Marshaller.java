@@ -18,6 +18,9 @@ package org.springframework.obm;
 
 
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
 
 /**
  * <p/>
@@ -40,4 +43,43 @@ public interface Marshaller<T> {
 
     void marshal(T obj, OutputStream os) throws Exception;
 
+    /**
+     * writes the object into the buffer, starting at the buffer's current position. On return, the position
+     * has been advanced past the bytes written.
+     *
+     * @param obj    the object to write
+     * @param buffer the buffer to write to (heap or direct)
+     * @throws java.nio.BufferOverflowException if the buffer does not have enough space remaining
+     */
+    void marshal(T obj, ByteBuffer buffer) throws Exception;
+
+    /**
+     * writes the object to the channel. The channel is not closed.
+     *
+     * @param obj     the object to write
+     * @param channel the channel to write to
+     */
+    void marshal(T obj, WritableByteChannel channel) throws Exception;
+
+    /**
+     * writes a sequence of objects to the stream, one after the other, each preceded by its length as an unsigned
+     * varint (the framing Protocol Buffers uses for delimited messages). The objects are pulled from the iterator and written
+     * one at a time, so the sequence never has to be held in memory. The stream is not closed.
+     *
+     * @param objects the objects to write
+     * @param os      the stream to write to
+     * @see Unmarshaller#unmarshalAll(Class, java.io.InputStream)
+     */
+    void marshalAll(Iterator<? extends T> objects, OutputStream os) throws Exception;
+
+    /**
+     * does whatever work writing instances of the type takes that only depends on the type, once, and returns a
+     * handle that only has the encoding left to do. Callers that write the same types over and over should
+     * prepare a handle per type and keep it.
+     *
+     * @param clazz the type to write
+     * @return a handle for the type
+     */
+    TypedCodec<T> prepare(Class<T> clazz) throws Exception;
+
 }
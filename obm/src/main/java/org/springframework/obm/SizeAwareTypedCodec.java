@@ -0,0 +1,33 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm;
+
+/**
+ * A {@link TypedCodec} that can tell how many bytes an object will be encoded to without encoding it, so that
+ * callers can announce the length up front (an HTTP <CODE>Content-Length</CODE>, say) and still stream the body.
+ *
+ * @author Josh Long
+ */
+public interface SizeAwareTypedCodec<T> extends TypedCodec<T> {
+
+    /**
+     * @param obj the object that's about to be {@link #encode(Object, java.io.OutputStream) encoded}
+     * @return the exact number of bytes {@link #encode(Object, java.io.OutputStream)} will write, or -1 if it
+     *         isn't known for this object
+     */
+    long getEncodedSize(T obj) throws Exception;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <P>A handle for reading and writing one particular type, obtained from {@link Marshaller#prepare(Class)} or
+ * {@link Unmarshaller#prepare(Class)}. Everything that only depends on the type (looking up schemas, templates, builders
+ * or constructors) has been done by the time the handle is returned, so each call only encodes or decodes.
+ * <P>Handles are thread safe, and meant to be obtained once per type and kept.
+ *
+ * @author Josh Long
+ */
+public interface TypedCodec<T> {
+
+    Class<T> getType();
+
+    void encode(T obj, OutputStream os) throws Exception;
+
+    T decode(InputStream source) throws Exception;
+}
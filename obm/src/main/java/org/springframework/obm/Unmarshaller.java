@@ -18,11 +18,53 @@ package org.springframework.obm;
 
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 
+/**
+ * Defines the contract for Binary to Object Unmarshallers. Implementations of this interface
+ * can read a given Object from an {@link InputStream} or a {@link ByteBuffer}.
+ *
+ * @author Josh Long
+ * @see org.springframework.obm.Marshaller
+ */
 public interface Unmarshaller<T> {
 
     boolean supports(Class<T> clazz);
 
     T unmarshal(Class<T> clazz, InputStream source) throws Exception;
 
+    /**
+     * reads an object from the remaining bytes of the buffer (from its position to its limit). On return
+     * the buffer's position is at its limit.
+     *
+     * @param clazz  the type to read
+     * @param source the buffer to read from (heap or direct)
+     * @return the object
+     */
+    T unmarshal(Class<T> clazz, ByteBuffer source) throws Exception;
+
+    /**
+     * reads a sequence of objects written by {@link Marshaller#marshalAll(java.util.Iterator, java.io.OutputStream)}.
+     * The objects are read lazily, one per call to {@link Iterator#next()}, so memory use doesn't grow with the length of
+     * the sequence. The stream must not be read by anything else until the iterator is exhausted, and it is not closed.
+     *
+     * @param clazz  the type to read
+     * @param source the stream to read from
+     * @return an iterator over the objects in the stream. Failures while reading are thrown from the iterator
+     *         as {@link RuntimeException}s
+     */
+    Iterator<T> unmarshalAll(Class<T> clazz, InputStream source) throws Exception;
+
+    /**
+     * does whatever work reading instances of the type takes that only depends on the type, once, and returns a
+     * handle that only has the decoding left to do. Callers that read the same types over and over should
+     * prepare a handle per type and keep it.
+     *
+     * @param clazz the type to read
+     * @return a handle for the type
+     * @see Marshaller#prepare(Class)
+     */
+    TypedCodec<T> prepare(Class<T> clazz) throws Exception;
+
 }
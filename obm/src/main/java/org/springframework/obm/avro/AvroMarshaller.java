@@ -17,25 +17,45 @@
 package org.springframework.obm.avro;
 
 
-import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+import org.springframework.obm.TypedCodec;
+import org.springframework.obm.avro.support.DatumBinding;
 import org.springframework.obm.avro.support.DecoderFactoryBuilder;
 import org.springframework.obm.avro.support.EncoderFactoryBuilder;
-import org.springframework.obm.avro.support.SchemaFactoryBean;
 import org.springframework.obm.support.AbstractMarshaller;
+import org.springframework.obm.support.AbstractTypedCodec;
+import org.springframework.obm.support.ByteBufferInputStream;
+import org.springframework.obm.support.ByteBufferOutputStream;
+import org.springframework.obm.support.DelimitedIterator;
+import org.springframework.obm.support.ExposedByteArrayOutputStream;
+import org.springframework.obm.support.LimitedInputStream;
+import org.springframework.obm.support.VarintUtils;
 import org.springframework.oxm.XmlMappingException;
 import org.springframework.util.Assert;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Implementation of the {@link org.springframework.obm.Marshaller} and
  * {@link org.springframework.obm.Unmarshaller} interfaces for Avro
+ * <p/>
+ * <P>The {@link org.apache.avro.Schema schema} and the datum reader and writer for a given class are resolved
+ * once, the first time the class is seen, and then cached in a {@link DatumBinding}. The cache holds at most
+ * {@link #setCacheLimit(int) cacheLimit} types; types seen after the limit is reached are still supported, but
+ * they are resolved on every call.
  *
  * @param <T>
  * @author Josh Long
@@ -44,6 +64,10 @@ public class AvroMarshaller<T> extends AbstractMarshaller<T> {
 
     private boolean validate = false;
 
+    private int cacheLimit = 1024;
+
+    private final ConcurrentMap<Class<?>, DatumBinding<?>> bindings = new ConcurrentHashMap<Class<?>, DatumBinding<?>>();
+
     /**
      * dictates whether the {@link org.apache.avro.io.Encoder encoders} and {@link org.apache.avro.io.Decoder decoders} will
      * be wrapped in a {@link org.apache.avro.io.ValidatingDecoder} or {@link org.apache.avro.io.ValidatingEncoder}
@@ -54,12 +78,46 @@ public class AvroMarshaller<T> extends AbstractMarshaller<T> {
         this.validate = validate;
     }
 
+    /**
+     * the maximum number of types for which the resolved {@link DatumBinding} is kept
+     *
+     * @param cacheLimit the maximum number of cached types
+     */
+    public void setCacheLimit(int cacheLimit) {
+        Assert.isTrue(cacheLimit >= 0, "the 'cacheLimit' can't be negative");
+        this.cacheLimit = cacheLimit;
+    }
+
+    /**
+     * returns the (possibly cached) binding for the class. The binding is
+     * {@link DatumBinding#isSupported() unsupported} if no schema could be found.
+     *
+     * @param clazz the class to bind
+     * @return the binding
+     */
+    @SuppressWarnings("unchecked")
+    protected <X> DatumBinding<X> getBinding(Class<X> clazz) {
+        DatumBinding<X> binding = (DatumBinding<X>) this.bindings.get(clazz);
+        if (binding != null) {
+            return binding;
+        }
+        binding = new DatumBinding<X>(clazz);
+        if (this.bindings.size() < this.cacheLimit) {
+            DatumBinding<X> existing = (DatumBinding<X>) this.bindings.putIfAbsent(clazz, binding);
+            if (existing != null) {
+                return existing;
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("the binding cache is full (" + this.cacheLimit + " types); not caching the binding for " + clazz.getName());
+        }
+        return binding;
+    }
+
     @Override
     public boolean supports(Class clazz) {
         try {
             Assert.notNull(clazz, "the class must not be null");
-            Schema s = new SchemaFactoryBean(clazz).getObject();
-            boolean supports = s != null;
+            boolean supports = getBinding(clazz).isSupported();
 
             if (log.isDebugEnabled()) {
                 log.debug("returning " + supports + " for class " + clazz.getName());
@@ -75,19 +133,50 @@ public class AvroMarshaller<T> extends AbstractMarshaller<T> {
     }
 
     @Override
-    public void marshal(Object obj, OutputStream os) throws IOException, XmlMappingException {
+    @SuppressWarnings("unchecked")
+    public void marshal(T obj, OutputStream os) throws IOException, XmlMappingException {
+        Assert.notNull(obj, "the object to encode must not be null");
+        write(getBinding((Class<T>) obj.getClass()), obj, os);
+    }
+
+    @Override
+    public T unmarshal(Class<T> clazz, InputStream source) throws IOException, XmlMappingException {
+        Assert.notNull(clazz, "the class must not be null");
+        return read(getBinding(clazz), source);
+    }
+
+    /**
+     * the returned handle holds on to the type's {@link DatumBinding}
+     */
+    @Override
+    public TypedCodec<T> prepare(Class<T> clazz) throws Exception {
+        Assert.notNull(clazz, "the class must not be null");
+        final DatumBinding<T> binding = getBinding(clazz);
+        Assert.isTrue(binding.isSupported(), "the schema must not be null");
+        return new AbstractTypedCodec<T>(clazz) {
+            @Override
+            public void encode(T obj, OutputStream os) throws Exception {
+                write(binding, obj, os);
+            }
+
+            @Override
+            public T decode(InputStream source) throws Exception {
+                return read(binding, source);
+            }
+        };
+    }
+
+    protected void write(DatumBinding<T> binding, T obj, OutputStream os) {
         try {
             Assert.notNull(obj, "the object to encode must not be null");
-            Schema schema = new SchemaFactoryBean(obj.getClass()).getObject();
-            Assert.notNull(schema, "the schema must not be null");
-            GenericDatumWriter writer = new GenericDatumWriter(schema);
+            Assert.isTrue(binding.isSupported(), "the schema must not be null");
             Encoder encoder = new EncoderFactoryBuilder()
                                       .setOutputStream(os)
-                                      .setSchema(schema)
+                                      .setSchema(binding.getSchema())
                                       .setUseBinary(true)
                                       .setValidate(this.validate)
                                       .build();
-            writer.write(obj, encoder);
+            binding.getWriter().write(obj, encoder);
             encoder.flush();
         } catch (Exception e) {
             if (log.isDebugEnabled()) {
@@ -97,26 +186,121 @@ public class AvroMarshaller<T> extends AbstractMarshaller<T> {
         }
     }
 
-    @Override
-    public T unmarshal(Class<T> clazz, InputStream source) throws IOException, XmlMappingException {
+    protected T read(DatumBinding<T> binding, InputStream source) {
         try {
-            Assert.notNull(clazz, "the class must not be null");
-            Schema schema = new SchemaFactoryBean(clazz).getObject();
-            Assert.notNull(schema, "the schema must not be null");
-            GenericDatumReader reader = new GenericDatumReader(schema);
-            Object old = clazz.newInstance();
+            Assert.isTrue(binding.isSupported(), "the schema must not be null");
             Decoder decoder = new DecoderFactoryBuilder()
                                       .setInputStream(source)
                                       .setUseBinary(true)
-                                      .setSchema(schema)
+                                      .setSchema(binding.getSchema())
                                       .setValidate(this.validate)
                                       .build();
-            return (T) reader.read(old, decoder);
+            return binding.getReader().read(null, decoder);
         } catch (Exception e) {
             if (log.isDebugEnabled()) {
-                log.debug("exception when trying to test whether the class " + clazz.getName() + " has an Avro schema");
+                log.debug("exception when trying to test whether the class " + binding.getType().getName() + " has an Avro schema");
             }
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * writes through an unbuffered encoder, so the bytes go straight into the buffer
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void marshal(T obj, ByteBuffer buffer) throws Exception {
+        try {
+            Assert.notNull(obj, "the object to encode must not be null");
+            DatumBinding<T> binding = getBinding((Class<T>) obj.getClass());
+            Assert.isTrue(binding.isSupported(), "the schema must not be null");
+            EncoderFactory encoderFactory = EncoderFactory.get();
+            Encoder encoder = encoderFactory.directBinaryEncoder(new ByteBufferOutputStream(buffer), null);
+            if (this.validate) {
+                encoder = encoderFactory.validatingEncoder(binding.getSchema(), encoder);
+            }
+            binding.getWriter().write(obj, encoder);
+            encoder.flush();
+        } catch (BufferOverflowException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * heap buffers are decoded in place, with no intermediate array
+     */
+    @Override
+    public T unmarshal(Class<T> clazz, ByteBuffer source) throws Exception {
+        try {
+            Assert.notNull(clazz, "the class must not be null");
+            DatumBinding<T> binding = getBinding(clazz);
+            Assert.isTrue(binding.isSupported(), "the schema must not be null");
+            DecoderFactory decoderFactory = DecoderFactory.get();
+            Decoder decoder = source.hasArray() ?
+                                      decoderFactory.binaryDecoder(source.array(), source.arrayOffset() + source.position(), source.remaining(), null) :
+                                      decoderFactory.directBinaryDecoder(new ByteBufferInputStream(source), null);
+            if (this.validate) {
+                decoder = decoderFactory.validatingDecoder(binding.getSchema(), decoder);
+            }
+            return binding.getReader().read(null, decoder);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            source.position(source.limit());
+        }
+    }
+
+    /**
+     * one {@link BinaryEncoder} and one buffer are reused for the whole sequence
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void marshalAll(Iterator<? extends T> objects, OutputStream os) throws Exception {
+        EncoderFactory encoderFactory = EncoderFactory.get();
+        ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream(512);
+        BinaryEncoder binaryEncoder = encoderFactory.binaryEncoder(buffer, null);
+        while (objects.hasNext()) {
+            T obj = objects.next();
+            Assert.notNull(obj, "the object to encode must not be null");
+            DatumBinding<T> binding = getBinding((Class<T>) obj.getClass());
+            Assert.isTrue(binding.isSupported(), "the schema must not be null");
+            buffer.reset();
+            Encoder encoder = this.validate ? encoderFactory.validatingEncoder(binding.getSchema(), binaryEncoder) : binaryEncoder;
+            binding.getWriter().write(obj, encoder);
+            encoder.flush();
+            VarintUtils.writeVarint(buffer.size(), os);
+            os.write(buffer.getBuffer(), 0, buffer.size());
+        }
+    }
+
+    /**
+     * each record is read into a buffer that's reused (and only grown when a record is larger than any before it), and decoded
+     * in place by a {@link BinaryDecoder} that's reused, too
+     */
+    @Override
+    public Iterator<T> unmarshalAll(Class<T> clazz, InputStream source) throws Exception {
+        Assert.notNull(clazz, "the class must not be null");
+        final DatumBinding<T> binding = getBinding(clazz);
+        Assert.isTrue(binding.isSupported(), "the schema must not be null");
+        final DecoderFactory decoderFactory = DecoderFactory.get();
+        return new DelimitedIterator<T>(source) {
+
+            private byte[] bytes = new byte[512];
+
+            private BinaryDecoder binaryDecoder;
+
+            @Override
+            protected T read(LimitedInputStream record, int length) throws Exception {
+                if (length > this.bytes.length) {
+                    this.bytes = new byte[Math.max(length, this.bytes.length * 2)];
+                }
+                new DataInputStream(record).readFully(this.bytes, 0, length);
+                this.binaryDecoder = decoderFactory.binaryDecoder(this.bytes, 0, length, this.binaryDecoder);
+                Decoder decoder = validate ? decoderFactory.validatingDecoder(binding.getSchema(), this.binaryDecoder) : this.binaryDecoder;
+                return binding.getReader().read(null, decoder);
+            }
+        };
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.obm.avro.support;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.reflect.ReflectDatumReader;
+import org.apache.avro.reflect.ReflectDatumWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificFixed;
+import org.apache.avro.specific.SpecificRecord;
+import org.springframework.util.Assert;
+
+/**
+ * <P>Holds everything that Avro needs to know about a given Java type: the resolved {@link Schema} and the
+ * {@link DatumWriter} and {@link DatumReader} appropriate for that type.
+ * <P>Classes generated by the Avro compiler get the {@link SpecificDatumWriter specific} implementations,
+ * everything else (POJOs, strings, primitives) gets the {@link ReflectDatumWriter reflection based} implementations.
+ * <P>A binding is meant to be built once per type and then reused for every message. Avro's readers and writers keep
+ * their per-call state on the stack (or in thread locals), so one binding may be shared across threads.
+ *
+ * @author Josh Long
+ * @see SchemaFactoryBean
+ */
+public class DatumBinding<T> {
+
+    private final Class<T> type;
+    private final Schema schema;
+    private final boolean specific;
+    private final DatumWriter<T> writer;
+    private final DatumReader<T> reader;
+
+    /**
+     * builds a binding for the class. If no {@link Schema} can be derived for it, the resulting
+     * binding is {@link #isSupported() unsupported}
+     *
+     * @param type the class to bind
+     */
+    public DatumBinding(Class<T> type) {
+        this(type, findSchema(type));
+    }
+
+    public DatumBinding(Class<T> type, Schema schema) {
+        Assert.notNull(type, "the type must not be null");
+        this.type = type;
+        this.schema = schema;
+        this.specific = SpecificRecord.class.isAssignableFrom(type) || SpecificFixed.class.isAssignableFrom(type);
+        if (schema == null) {
+            this.writer = null;
+            this.reader = null;
+        } else if (this.specific) {
+            this.writer = new SpecificDatumWriter<T>(schema);
+            this.reader = new SpecificDatumReader<T>(schema);
+        } else {
+            this.writer = new ReflectDatumWriter<T>(schema);
+            this.reader = new ReflectDatumReader<T>(schema);
+        }
+    }
+
+    private static Schema findSchema(Class<?> type) {
+        try {
+            return new SchemaFactoryBean(type).getObject();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public boolean isSupported() {
+        return this.schema != null;
+    }
+
+    /**
+     * @return whether this binding uses the Avro generated (specific) readers and writers
+     */
+    public boolean isSpecific() {
+        return this.specific;
+    }
+
+    public Class<T> getType() {
+        return this.type;
+    }
+
+    public Schema getSchema() {
+        return this.schema;
+    }
+
+    public DatumWriter<T> getWriter() {
+        return this.writer;
+    }
+
+    public DatumReader<T> getReader() {
+        return this.reader;
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import org.springframework.obm.Marshaller;
+import org.springframework.obm.Unmarshaller;
+import org.springframework.obm.snappy.SnappyMarshaller;
+import org.springframework.obm.support.AbstractMarshaller;
+import org.springframework.obm.support.ExposedByteArrayOutputStream;
+import org.springframework.obm.support.VarintUtils;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <P>Wrapping {@link Marshaller} that compresses what another {@link Marshaller} writes, using a pluggable {@link CompressionCodec}.
+ * Snappy ({@link SnappyCodec}), LZ4 ({@link Lz4Codec}, if lz4-java is on the classpath) and deflate ({@link DeflateCodec}) are
+ * supported out of the box.
+ * <P>Every message starts with a small header:
+ * <ul>
+ * <li>two magic bytes, <code>0xCB 0x00</code>. No Snappy stream written by {@link SnappyMarshaller} can start this way
+ * (a Snappy block starts with its length as a varint, and a varint is never followed by a redundant zero byte),
+ * which is how older, headerless messages are told apart</li>
+ * <li>one byte with the {@link CompressionCodec#getId() id} of the codec used, or 0 if the message is stored uncompressed</li>
+ * <li>the uncompressed length and the compressed length, each as an unsigned varint</li>
+ * </ul>
+ * <P>When reading, the codec is picked from the header, so the writing side can switch codecs (say, deflate for a slow WAN link, LZ4
+ * for a busy queue) without the readers being reconfigured. The lengths let the reader consume exactly one message and decompress it into a
+ * buffer of exactly the right size. Messages without a header are, by default, read the way {@link SnappyMarshaller} reads them, so this
+ * marshaller can take over from a {@link SnappyMarshaller} without a coordinated redeploy.
+ * <P>Compression doesn't pay for every message: small Thrift or Protocol Buffers messages often come out of Snappy larger than they went in.
+ * Messages smaller than the {@link #setCompressionThreshold(int) compression threshold}, and messages that don't compress by at least the
+ * {@link #setMinCompressionRatio(double) minimum compression ratio}, are stored uncompressed instead (with the codec id 0). The marshaller also
+ * keeps a running average of the ratio achieved for each class, and stops trying to compress classes that consistently fall short, save for an
+ * occasional message to check whether that's still the case. How many messages were compressed or stored, and how many bytes compression saved,
+ * is available from {@link #getCompressedCount()}, {@link #getStoredCount()} and {@link #getBytesSaved()}.
+ *
+ * @author Josh Long
+ * @see CompressionCodec
+ */
+public class CompressingMarshaller<T> extends AbstractMarshaller<T> {
+
+    static final int MAGIC_0 = 0xCB;
+
+    static final int MAGIC_1 = 0x00;
+
+    /**
+     * the codec id for messages that are stored uncompressed
+     */
+    public static final int STORED = 0;
+
+    /**
+     * magic, codec id and two varints of at most five bytes each
+     */
+    static final int MAX_HEADER_LENGTH = 2 + 1 + 5 + 5;
+
+    private Marshaller<T> marshaller;
+
+    private Unmarshaller<T> unmarshaller;
+
+    private CompressionCodec codec;
+
+    private final CompressionCodec[] codecs = new CompressionCodec[256];
+
+    private boolean legacySnappyFallback = true;
+
+    private int maxMessageSize = 64 * 1024 * 1024;
+
+    private int initialBufferSize = 512;
+
+    private int compressionThreshold = 0;
+
+    private double minCompressionRatio = 1.0;
+
+    private int probeInterval = 100;
+
+    private final ConcurrentMap<Class<?>, CompressionHistory> histories = new ConcurrentHashMap<Class<?>, CompressionHistory>();
+
+    private final AtomicLong compressedCount = new AtomicLong();
+
+    private final AtomicLong storedCount = new AtomicLong();
+
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public CompressingMarshaller(Marshaller<T> marshaller) {
+        this(marshaller, marshaller instanceof Unmarshaller ? (Unmarshaller<T>) marshaller : null);
+    }
+
+    public CompressingMarshaller(Marshaller<T> marshaller, Unmarshaller<T> unmarshaller) {
+        Assert.notNull(marshaller, "the marshaller must not be null");
+        Assert.notNull(unmarshaller, "the unmarshaller must not be null");
+        this.marshaller = marshaller;
+        this.unmarshaller = unmarshaller;
+        for (CompressionCodec c : defaultCodecs()) {
+            registerCodec(c);
+        }
+        this.codec = this.codecs[SnappyCodec.ID];
+    }
+
+    /**
+     * @return the codecs known to every {@link CompressingMarshaller}
+     */
+    protected CompressionCodec[] defaultCodecs() {
+        if (ClassUtils.isPresent("net.jpountz.lz4.LZ4Factory", getClass().getClassLoader())) {
+            return new CompressionCodec[]{new SnappyCodec(), new Lz4Codec(), new DeflateCodec()};
+        }
+        return new CompressionCodec[]{new SnappyCodec(), new DeflateCodec()};
+    }
+
+    public void setMarshaller(Marshaller<T> marshaller) {
+        this.marshaller = marshaller;
+    }
+
+    public void setUnmarshaller(Unmarshaller<T> unmarshaller) {
+        this.unmarshaller = unmarshaller;
+    }
+
+    /**
+     * the codec used to compress messages. Defaults to {@link SnappyCodec}. The codec is registered for reading, too
+     *
+     * @param codec the codec to write with
+     */
+    public void setCodec(CompressionCodec codec) {
+        registerCodec(codec);
+        this.codec = codec;
+    }
+
+    public CompressionCodec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * registers additional codecs that messages may be read with. A codec replaces any registered codec that has the same id
+     *
+     * @param codecs the codecs
+     */
+    public void setCodecs(List<CompressionCodec> codecs) {
+        for (CompressionCodec c : codecs) {
+            registerCodec(c);
+        }
+    }
+
+    protected void registerCodec(CompressionCodec c) {
+        Assert.notNull(c, "the codec must not be null");
+        Assert.isTrue(c.getId() > STORED && c.getId() < this.codecs.length, "the codec id must be between 1 and 255");
+        this.codecs[c.getId()] = c;
+    }
+
+    /**
+     * @param id the codec id from a message header
+     * @return the codec registered for the id, or null
+     */
+    public CompressionCodec getCodec(int id) {
+        return id > STORED && id < this.codecs.length ? this.codecs[id] : null;
+    }
+
+    /**
+     * whether messages without a header should be read as {@link SnappyMarshaller} output. Defaults to true
+     */
+    public void setLegacySnappyFallback(boolean legacySnappyFallback) {
+        this.legacySnappyFallback = legacySnappyFallback;
+    }
+
+    /**
+     * the largest (compressed or uncompressed) length a message header may declare; larger messages are rejected
+     * before anything is allocated for them. Defaults to 64MB
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        Assert.isTrue(maxMessageSize > 0, "the maximum message size must be positive");
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * how large the buffer that collects the delegate's output starts out
+     */
+    public void setInitialBufferSize(int initialBufferSize) {
+        Assert.isTrue(initialBufferSize > 0, "the initial buffer size must be positive");
+        this.initialBufferSize = initialBufferSize;
+    }
+
+    /**
+     * messages smaller than this many bytes are stored uncompressed. Defaults to 0, so that every message is compressed
+     *
+     * @param compressionThreshold the smallest message size, in bytes, worth compressing
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        Assert.isTrue(compressionThreshold >= 0, "the compression threshold must not be negative");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * the smallest ratio of uncompressed to compressed size worth keeping; messages that compress less are stored
+     * uncompressed, and classes whose messages on average compress less stop being compressed. Defaults to 1.0,
+     * which only stores messages that compression would have made larger
+     *
+     * @param minCompressionRatio the minimum ratio, 1.0 or more
+     */
+    public void setMinCompressionRatio(double minCompressionRatio) {
+        Assert.isTrue(minCompressionRatio >= 1.0, "the minimum compression ratio must be at least 1.0");
+        this.minCompressionRatio = minCompressionRatio;
+    }
+
+    /**
+     * once a class is no longer being compressed, every this many messages of it are compressed anyway to
+     * see whether its average ratio has changed. Defaults to 100
+     */
+    public void setProbeInterval(int probeInterval) {
+        Assert.isTrue(probeInterval > 0, "the probe interval must be positive");
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * @return how many messages were written compressed
+     */
+    public long getCompressedCount() {
+        return this.compressedCount.get();
+    }
+
+    /**
+     * @return how many messages were written uncompressed, because they were too small, didn't compress well
+     *         enough, or belong to a class that doesn't
+     */
+    public long getStoredCount() {
+        return this.storedCount.get();
+    }
+
+    /**
+     * @return how many bytes smaller the compressed messages were than they'd have been uncompressed
+     */
+    public long getBytesSaved() {
+        return this.bytesSaved.get();
+    }
+
+    /**
+     * @param clazz a class that has been marshalled
+     * @return the running average ratio of uncompressed to compressed size for the class, or 0 if none of its messages has been compressed yet
+     */
+    public double getCompressionRatio(Class<?> clazz) {
+        CompressionHistory history = this.histories.get(clazz);
+        return history == null ? 0 : history.averageRatio;
+    }
+
+    @Override
+    public boolean supports(Class<T> clazz) {
+        return marshaller.supports(clazz) && unmarshaller.supports(clazz);
+    }
+
+    @Override
+    public void marshal(T obj, OutputStream os) throws Exception {
+        try {
+            ExposedByteArrayOutputStream uncompressed = new ExposedByteArrayOutputStream(this.initialBufferSize);
+            marshaller.marshal(obj, uncompressed);
+            writeMessage(obj.getClass(), uncompressed.getBuffer(), uncompressed.size(), os);
+        } catch (Throwable th) {
+            if (log.isErrorEnabled()) {
+                log.error("could not compress the object " + (null == obj ? "" : obj + ""), th);
+            }
+            throw new RuntimeException(th);
+        }
+    }
+
+    /**
+     * writes the bytes, header first, to the stream: compressed with the {@link #setCodec(CompressionCodec) codec} if that's
+     * worth it, stored uncompressed otherwise
+     *
+     * @param type the class the bytes are a marshalled instance of
+     */
+    protected void writeMessage(Class<?> type, byte[] bytes, int length, OutputStream os) throws IOException {
+        if (length < this.compressionThreshold) {
+            writeStored(bytes, length, os);
+            return;
+        }
+        CompressionHistory history = getHistory(type);
+        if (history.shouldSkip(this.minCompressionRatio, this.probeInterval)) {
+            writeStored(bytes, length, os);
+            return;
+        }
+
+        // the compressed bytes go after room for the longest possible header, and the actual header is written
+        // right in front of them, so that header and payload leave in a single write
+        byte[] message = new byte[MAX_HEADER_LENGTH + this.codec.maxCompressedLength(length)];
+        int compressedLength = this.codec.compress(bytes, 0, length, message, MAX_HEADER_LENGTH);
+        double ratio = compressedLength == 0 ? 1.0 : (double) length / compressedLength;
+        history.record(ratio);
+        if (ratio < this.minCompressionRatio) {
+            writeStored(bytes, length, os);
+            return;
+        }
+
+        int start = MAX_HEADER_LENGTH - headerLength(length, compressedLength);
+        writeHeader(this.codec.getId(), length, compressedLength, message, start);
+        os.write(message, start, MAX_HEADER_LENGTH + compressedLength - start);
+        this.compressedCount.incrementAndGet();
+        this.bytesSaved.addAndGet(length - compressedLength);
+    }
+
+    private void writeStored(byte[] bytes, int length, OutputStream os) throws IOException {
+        byte[] header = new byte[MAX_HEADER_LENGTH];
+        int headerLength = writeHeader(STORED, length, length, header, 0);
+        os.write(header, 0, headerLength);
+        os.write(bytes, 0, length);
+        this.storedCount.incrementAndGet();
+    }
+
+    private CompressionHistory getHistory(Class<?> type) {
+        CompressionHistory history = this.histories.get(type);
+        if (history == null) {
+            CompressionHistory existing = this.histories.putIfAbsent(type, history = new CompressionHistory());
+            if (existing != null) {
+                history = existing;
+            }
+        }
+        return history;
+    }
+
+    @Override
+    public T unmarshal(Class<T> clazz, InputStream source) throws Exception {
+        int first = source.read();
+        if (first == MAGIC_0) {
+            int second = source.read();
+            if (second == MAGIC_1) {
+                return unmarshaller.unmarshal(clazz, new ByteArrayInputStream(readMessage(source)));
+            }
+            return unmarshalLegacy(clazz, source, first, second);
+        }
+        return unmarshalLegacy(clazz, source, first, -1);
+    }
+
+    /**
+     * reads the rest of a message, after its magic bytes, and returns it uncompressed
+     */
+    protected byte[] readMessage(InputStream source) throws IOException {
+        int id = source.read();
+        if (id < 0) {
+            throw new EOFException("the stream ended in the middle of the message header");
+        }
+        int uncompressedLength = readLength(source);
+        int compressedLength = readLength(source);
+
+        if (id == STORED) {
+            if (compressedLength != uncompressedLength) {
+                throw new IOException("the lengths in the header of an uncompressed message differ");
+            }
+            return readFully(source, uncompressedLength);
+        }
+        CompressionCodec c = getCodec(id);
+        if (c == null) {
+            throw new IOException("no codec is registered for the id " + id);
+        }
+        byte[] compressed = readFully(source, compressedLength);
+        byte[] uncompressed = new byte[uncompressedLength];
+        c.decompress(compressed, 0, compressedLength, uncompressed, 0, uncompressedLength);
+        return uncompressed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T unmarshalLegacy(Class<T> clazz, InputStream source, int first, int second) throws Exception {
+        if (!this.legacySnappyFallback) {
+            throw new IOException("the stream does not start with a compressed message header");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("no compressed message header found, reading the message as plain Snappy");
+        }
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(source, 2);
+        if (second >= 0) {
+            pushbackInputStream.unread(second);
+        }
+        if (first >= 0) {
+            pushbackInputStream.unread(first);
+        }
+        SnappyMarshaller snappyMarshaller = new SnappyMarshaller(this.marshaller, this.unmarshaller);
+        return (T) snappyMarshaller.unmarshal(clazz, pushbackInputStream);
+    }
+
+    private int readLength(InputStream source) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = source.read();
+            if (b < 0) {
+                throw new EOFException("the stream ended in the middle of the message header");
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0 || value > this.maxMessageSize) {
+                    throw new IOException("the message length " + (value & 0xffffffffL) + " exceeds the maximum of " + this.maxMessageSize);
+                }
+                return value;
+            }
+        }
+        throw new IOException("malformed length in the message header");
+    }
+
+    private static byte[] readFully(InputStream source, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = source.read(bytes, read, length - read);
+            if (count < 0) {
+                throw new EOFException("the stream ended after " + read + " of the message's " + length + " bytes");
+            }
+            read += count;
+        }
+        return bytes;
+    }
+
+    static int headerLength(int uncompressedLength, int compressedLength) {
+        return 3 + VarintUtils.computeVarintSize(uncompressedLength) + VarintUtils.computeVarintSize(compressedLength);
+    }
+
+    static int writeHeader(int id, int uncompressedLength, int compressedLength, byte[] dest, int off) {
+        int position = off;
+        dest[position++] = (byte) MAGIC_0;
+        dest[position++] = (byte) MAGIC_1;
+        dest[position++] = (byte) id;
+        position = VarintUtils.writeVarint(uncompressedLength, dest, position);
+        position = VarintUtils.writeVarint(compressedLength, dest, position);
+        return position - off;
+    }
+
+    /**
+     * the compression ratios seen for one class. Updates from concurrent writers may occasionally be lost, which
+     * is harmless for a running average
+     */
+    private static class CompressionHistory {
+
+        /**
+         * how many ratios to see before the average is trusted
+         */
+        private static final int MIN_SAMPLES = 8;
+
+        /**
+         * the weight of the newest ratio in the exponentially weighted average
+         */
+        private static final double WEIGHT = 0.1;
+
+        private volatile double averageRatio;
+
+        private volatile int samples;
+
+        private final AtomicInteger skipped = new AtomicInteger();
+
+        boolean shouldSkip(double minCompressionRatio, int probeInterval) {
+            if (this.samples < MIN_SAMPLES || this.averageRatio >= minCompressionRatio) {
+                return false;
+            }
+            // a class that doesn't compress well still gets the odd message compressed, so the average can recover
+            return this.skipped.incrementAndGet() % probeInterval != 0;
+        }
+
+        void record(double ratio) {
+            int n = this.samples;
+            this.averageRatio = n == 0 ? ratio : (n < MIN_SAMPLES ? (this.averageRatio * n + ratio) / (n + 1) : this.averageRatio + WEIGHT * (ratio - this.averageRatio));
+            if (n < Integer.MAX_VALUE) {
+                this.samples = n + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import java.io.IOException;
+
+/**
+ * <P>A block compression algorithm that a {@link CompressingMarshaller} can use to compress messages.
+ * <P>Each codec has a unique {@link #getId() id} that's written in front of every message it compresses, so that
+ * the reading side can find the right codec without being told. Implementations must be thread safe.
+ *
+ * @author Josh Long
+ * @see CompressingMarshaller
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return the id written into the header of messages compressed with this codec, between 1 and 255. The id
+     *         0 is reserved for messages stored uncompressed
+     */
+    int getId();
+
+    /**
+     * @return a short, lower case name for the algorithm, like <code>snappy</code>
+     */
+    String getName();
+
+    /**
+     * @param length the number of bytes to compress
+     * @return the most space that compressing that many bytes may take
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * compresses the source bytes into the destination array, which must have at least
+     * {@link #maxCompressedLength(int)} bytes of room after <code>destOff</code>
+     *
+     * @return the number of compressed bytes written
+     */
+    int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff) throws IOException;
+
+    /**
+     * decompresses the source bytes into the destination array
+     *
+     * @param uncompressedLength the exact number of bytes the source decompresses to
+     * @throws IOException if the source is corrupt or doesn't decompress to exactly <code>uncompressedLength</code> bytes
+     */
+    void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int uncompressedLength) throws IOException;
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <P>A preset dictionary for {@link DictionaryDeflateCodec}: bytes that are likely to occur in the messages being compressed,
+ * which the compressor may refer back to as though they had come just before each message. Small messages that share their
+ * field names, enum values and the like with many others compress far better this way.
+ * <P>Each dictionary has an id, written in front of every message compressed with it, so that a dictionary can be retrained
+ * and rolled out under a new id while messages compressed with the old one are still being read.
+ * <P>Dictionaries are usually built with a {@link DictionaryTrainer}, saved with {@link #writeTo(OutputStream)}, and loaded from
+ * a {@link Resource} with {@link #load(Resource)}.
+ *
+ * @author Josh Long
+ * @see DictionaryTrainer
+ */
+public class CompressionDictionary {
+
+    /**
+     * deflate can't refer back further than 32KB, so there's no point in anything larger
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+
+    /**
+     * "OBMD", the first four bytes of a saved dictionary
+     */
+    private static final int MAGIC = 0x4F424D44;
+
+    private final int id;
+
+    private final byte[] bytes;
+
+    public CompressionDictionary(int id, byte[] bytes) {
+        Assert.notNull(bytes, "the dictionary bytes must not be null");
+        Assert.isTrue(bytes.length <= MAX_SIZE, "a dictionary can't be larger than " + MAX_SIZE + " bytes");
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    /**
+     * reads a dictionary saved with {@link #writeTo(OutputStream)}
+     *
+     * @param resource where the dictionary was saved
+     * @return the dictionary
+     */
+    public static CompressionDictionary load(Resource resource) throws IOException {
+        InputStream inputStream = resource.getInputStream();
+        try {
+            DataInputStream dataInputStream = new DataInputStream(inputStream);
+            if (dataInputStream.readInt() != MAGIC) {
+                throw new IOException(resource.getDescription() + " is not a compression dictionary");
+            }
+            int id = dataInputStream.readInt();
+            int length = dataInputStream.readInt();
+            if (length < 0 || length > MAX_SIZE) {
+                throw new IOException("the dictionary in " + resource.getDescription() + " has an invalid length of " + length + " bytes");
+            }
+            byte[] bytes = new byte[length];
+            dataInputStream.readFully(bytes);
+            return new CompressionDictionary(id, bytes);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * saves the dictionary, in the format {@link #load(Resource)} reads. The stream isn't closed
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(MAGIC);
+        dataOutputStream.writeInt(this.id);
+        dataOutputStream.writeInt(this.bytes.length);
+        dataOutputStream.write(this.bytes);
+        dataOutputStream.flush();
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * @return the dictionary bytes. Don't modify them
+     */
+    public byte[] getBytes() {
+        return this.bytes;
+    }
+}
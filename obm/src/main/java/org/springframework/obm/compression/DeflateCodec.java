@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <P>{@link CompressionCodec} backed by the JDK's {@link Deflater} and {@link Inflater} (raw deflate, no zlib or gzip wrapper).
+ * Slower than Snappy or LZ4 but compresses noticeably better, and needs no extra libraries.
+ * <P>Deflaters hold native memory and are costly to create, so each thread keeps its own pair and resets it between messages.
+ *
+ * @author Josh Long
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    public static final int ID = 3;
+
+    private final int level;
+
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(level, true);
+        }
+    };
+
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public DeflateCodec(int level) {
+        Assert.isTrue(level == Deflater.DEFAULT_COMPRESSION || (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION),
+                "invalid compression level " + level);
+        this.level = level;
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // zlib's deflateBound(), plus room for the stored block headers used when the input doesn't compress
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 5 * (length / 16383 + 1);
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff) throws IOException {
+        return deflate(src, srcOff, srcLen, dest, destOff, null);
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int uncompressedLength) throws IOException {
+        inflate(src, srcOff, srcLen, dest, destOff, uncompressedLength, null);
+    }
+
+    /**
+     * deflates the source bytes into the destination array
+     *
+     * @param dictionary the preset dictionary to deflate with, or null
+     * @return the number of compressed bytes written
+     */
+    protected int deflate(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, byte[] dictionary) throws IOException {
+        Deflater deflater = this.deflaters.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(src, srcOff, srcLen);
+        deflater.finish();
+        int written = 0;
+        while (!deflater.finished()) {
+            int count = deflater.deflate(dest, destOff + written, dest.length - destOff - written);
+            if (count == 0 && destOff + written == dest.length) {
+                throw new IOException("the destination is too small for the compressed data");
+            }
+            written += count;
+        }
+        return written;
+    }
+
+    /**
+     * inflates the source bytes into the destination array
+     *
+     * @param dictionary the preset dictionary the bytes were deflated with, or null
+     */
+    protected void inflate(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int uncompressedLength, byte[] dictionary) throws IOException {
+        Inflater inflater = this.inflaters.get();
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(src, srcOff, srcLen);
+        int read = 0;
+        try {
+            while (read < uncompressedLength && !inflater.finished()) {
+                int count = inflater.inflate(dest, destOff + read, uncompressedLength - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("the deflate stream is truncated");
+                }
+                read += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        if (read != uncompressedLength) {
+            throw new IOException("the deflate stream does not decompress to the expected " + uncompressedLength + " bytes");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * <P>{@link DeflateCodec} that deflates with a preset {@link CompressionDictionary}. Every compressed message starts with
+ * the four byte id of the dictionary it was compressed with, and the codec can read messages compressed with any of the dictionaries
+ * it knows, so a new dictionary can be rolled out to the readers before the writers start using it.
+ * <P>Use it with a {@link CompressingMarshaller}:
+ * <pre>
+ * CompressionDictionary dictionary = CompressionDictionary.load(new ClassPathResource("customer-v2.dict"));
+ * CompressingMarshaller&lt;Customer&gt; marshaller = new CompressingMarshaller&lt;Customer&gt;(thriftMarshaller);
+ * marshaller.setCodec(new DictionaryDeflateCodec(dictionary));
+ * </pre>
+ *
+ * @author Josh Long
+ * @see DictionaryTrainer
+ */
+public class DictionaryDeflateCodec extends DeflateCodec {
+
+    public static final int ID = 4;
+
+    private final CompressionDictionary dictionary;
+
+    private final Map<Integer, CompressionDictionary> dictionaries = new HashMap<Integer, CompressionDictionary>();
+
+    public DictionaryDeflateCodec(CompressionDictionary dictionary) {
+        this(dictionary, null);
+    }
+
+    /**
+     * @param dictionary      the dictionary to compress with
+     * @param oldDictionaries other dictionaries that messages may have been compressed with
+     */
+    public DictionaryDeflateCodec(CompressionDictionary dictionary, Collection<CompressionDictionary> oldDictionaries) {
+        this(dictionary, oldDictionaries, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DictionaryDeflateCodec(CompressionDictionary dictionary, Collection<CompressionDictionary> oldDictionaries, int level) {
+        super(level);
+        Assert.notNull(dictionary, "the dictionary must not be null");
+        this.dictionary = dictionary;
+        if (oldDictionaries != null) {
+            for (CompressionDictionary d : oldDictionaries) {
+                this.dictionaries.put(d.getId(), d);
+            }
+        }
+        this.dictionaries.put(dictionary.getId(), dictionary);
+    }
+
+    public CompressionDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate-dictionary";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return 4 + super.maxCompressedLength(length);
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff) throws IOException {
+        int id = this.dictionary.getId();
+        dest[destOff] = (byte) (id >>> 24);
+        dest[destOff + 1] = (byte) (id >>> 16);
+        dest[destOff + 2] = (byte) (id >>> 8);
+        dest[destOff + 3] = (byte) id;
+        return 4 + deflate(src, srcOff, srcLen, dest, destOff + 4, this.dictionary.getBytes());
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int uncompressedLength) throws IOException {
+        if (srcLen < 4) {
+            throw new IOException("the message is too short to hold a dictionary id");
+        }
+        int id = ((src[srcOff] & 0xff) << 24) | ((src[srcOff + 1] & 0xff) << 16) | ((src[srcOff + 2] & 0xff) << 8) | (src[srcOff + 3] & 0xff);
+        CompressionDictionary d = this.dictionaries.get(id);
+        if (d == null) {
+            throw new IOException("the message was compressed with the dictionary " + id + ", which isn't known");
+        }
+        inflate(src, srcOff + 4, srcLen - 4, dest, destOff, uncompressedLength, d.getBytes());
+    }
+}
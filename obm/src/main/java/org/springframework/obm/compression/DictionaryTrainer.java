@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import org.springframework.obm.Marshaller;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <P>Builds a {@link CompressionDictionary} from sample messages. Feed it a few thousand messages representative of the traffic,
+ * marshalled with the same {@link Marshaller} that will be used in production, then {@link #train(int) train} a dictionary and
+ * {@link CompressionDictionary#writeTo(java.io.OutputStream) save} it, to be loaded as a resource by the readers and writers.
+ * <P>The dictionary is made of short segments of the samples, picked for how many different samples share the byte sequences in
+ * them (the approach zstd's COVER trainer takes). The samples are split into as many stretches as the dictionary has room for segments, and
+ * the best segment of each stretch is picked, which keeps the dictionary from filling up with variations on the same few sequences.
+ * The best segments go last, where deflate can refer to them with the shortest distances.
+ * <P>Training keeps all the samples in memory. It isn't thread safe.
+ *
+ * @author Josh Long
+ */
+public class DictionaryTrainer {
+
+    /**
+     * the length of the byte sequences counted across samples
+     */
+    private static final int K = 6;
+
+    private final List<byte[]> samples = new ArrayList<byte[]>();
+
+    private int totalLength = 0;
+
+    private int maxDictionarySize = CompressionDictionary.MAX_SIZE;
+
+    private int segmentLength = 32;
+
+    public void setMaxDictionarySize(int maxDictionarySize) {
+        Assert.isTrue(maxDictionarySize > 0 && maxDictionarySize <= CompressionDictionary.MAX_SIZE,
+                "the dictionary size must be between 1 and " + CompressionDictionary.MAX_SIZE);
+        this.maxDictionarySize = maxDictionarySize;
+    }
+
+    /**
+     * the length of the segments the dictionary is made of. Defaults to 32
+     */
+    public void setSegmentLength(int segmentLength) {
+        Assert.isTrue(segmentLength >= K, "the segment length must be at least " + K);
+        this.segmentLength = segmentLength;
+    }
+
+    public void addSample(byte[] sample) {
+        Assert.notNull(sample, "the sample must not be null");
+        this.samples.add(sample);
+        this.totalLength += sample.length;
+    }
+
+    public <T> void addSample(Marshaller<T> marshaller, T sample) throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        marshaller.marshal(sample, byteArrayOutputStream);
+        addSample(byteArrayOutputStream.toByteArray());
+    }
+
+    public <T> void addSamples(Marshaller<T> marshaller, Iterable<? extends T> samples) throws Exception {
+        for (T sample : samples) {
+            addSample(marshaller, sample);
+        }
+    }
+
+    /**
+     * @param id the id of the new dictionary. Give every dictionary that's trained a new id
+     * @return a dictionary built from the samples added so far
+     * @throws IllegalStateException if the samples have too little in common to build a dictionary from
+     */
+    public CompressionDictionary train(int id) {
+        Map<Long, Integer> frequencies = countSharedSequences();
+        if (frequencies.isEmpty()) {
+            throw new IllegalStateException("the " + this.samples.size() + " samples have nothing in common to build a dictionary from");
+        }
+
+        int stretches = Math.max(1, this.maxDictionarySize / this.segmentLength);
+        int stretchLength = Math.max(this.segmentLength, this.totalLength / stretches);
+
+        List<Segment> segments = new ArrayList<Segment>();
+        int size = 0;
+        int sample = 0, offset = 0;
+        while (sample < this.samples.size() && size < this.maxDictionarySize) {
+            // walk the samples a stretch at a time, keeping the best segment found in each
+            Segment best = null;
+            int remaining = stretchLength;
+            while (remaining > 0 && sample < this.samples.size()) {
+                byte[] bytes = this.samples.get(sample);
+                int end = Math.min(bytes.length, offset + remaining);
+                Segment candidate = bestSegment(bytes, offset, end, frequencies);
+                if (candidate != null && (best == null || candidate.score > best.score)) {
+                    best = candidate;
+                }
+                remaining -= end - offset;
+                offset = end;
+                if (offset >= bytes.length) {
+                    sample++;
+                    offset = 0;
+                }
+            }
+            if (best != null) {
+                int length = Math.min(best.length, this.maxDictionarySize - size);
+                segments.add(new Segment(best.bytes, best.offset, length, best.score));
+                size += length;
+                // what's in the dictionary already no longer counts towards other segments
+                for (int i = best.offset; i + K <= best.offset + best.length; i++) {
+                    frequencies.remove(key(best.bytes, i));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            throw new IllegalStateException("the " + this.samples.size() + " samples have nothing in common to build a dictionary from");
+        }
+
+        Collections.sort(segments, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                return a.score < b.score ? -1 : (a.score == b.score ? 0 : 1);
+            }
+        });
+        byte[] dictionary = new byte[size];
+        int position = 0;
+        for (Segment segment : segments) {
+            System.arraycopy(segment.bytes, segment.offset, dictionary, position, segment.length);
+            position += segment.length;
+        }
+        return new CompressionDictionary(id, dictionary);
+    }
+
+    /**
+     * @return for every K byte sequence found in more than one sample, the number of samples it's found in
+     */
+    private Map<Long, Integer> countSharedSequences() {
+        Map<Long, Integer> frequencies = new HashMap<Long, Integer>();
+        Set<Long> seen = new HashSet<Long>();
+        for (byte[] sample : this.samples) {
+            seen.clear();
+            for (int i = 0; i + K <= sample.length; i++) {
+                Long key = key(sample, i);
+                if (seen.add(key)) {
+                    Integer count = frequencies.get(key);
+                    frequencies.put(key, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        for (Iterator<Integer> iterator = frequencies.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next() < 2) {
+                iterator.remove();
+            }
+        }
+        return frequencies;
+    }
+
+    /**
+     * slides a segment sized window over <code>[start, end)</code>, scoring each position by the frequencies of the distinct
+     * sequences inside the window
+     */
+    private Segment bestSegment(byte[] bytes, int start, int end, Map<Long, Integer> frequencies) {
+        if (end - start < K) {
+            return null;
+        }
+        int length = Math.min(this.segmentLength, end - start);
+        Map<Long, Integer> window = new HashMap<Long, Integer>();
+        long score = 0;
+        Segment best = null;
+        int windowSequences = length - K + 1;
+        for (int i = start; i + K <= end; i++) {
+            score += enter(window, key(bytes, i), frequencies);
+            int first = i - windowSequences + 1;
+            if (first > start) {
+                score -= leave(window, key(bytes, first - 1), frequencies);
+            }
+            if (first >= start && score > 0 && (best == null || score > best.score)) {
+                best = new Segment(bytes, first, length, score);
+            }
+        }
+        return best;
+    }
+
+    private static long enter(Map<Long, Integer> window, Long key, Map<Long, Integer> frequencies) {
+        Integer count = window.get(key);
+        window.put(key, count == null ? 1 : count + 1);
+        Integer frequency;
+        return count == null && (frequency = frequencies.get(key)) != null ? frequency : 0;
+    }
+
+    private static long leave(Map<Long, Integer> window, Long key, Map<Long, Integer> frequencies) {
+        int count = window.get(key);
+        if (count > 1) {
+            window.put(key, count - 1);
+            return 0;
+        }
+        window.remove(key);
+        Integer frequency = frequencies.get(key);
+        return frequency == null ? 0 : frequency;
+    }
+
+    private static Long key(byte[] bytes, int offset) {
+        long key = 0;
+        for (int i = 0; i < K; i++) {
+            key = (key << 8) | (bytes[offset + i] & 0xff);
+        }
+        return key;
+    }
+
+    private static class Segment {
+
+        final byte[] bytes;
+
+        final int offset;
+
+        final int length;
+
+        final long score;
+
+        Segment(byte[] bytes, int offset, int length, long score) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.score = score;
+        }
+    }
+}
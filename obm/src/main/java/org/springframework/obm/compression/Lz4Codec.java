@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+
+/**
+ * <P>{@link CompressionCodec} backed by LZ4 (http://code.google.com/p/lz4), using the fastest implementation of the lz4-java
+ * library that's available (JNI, then <code>sun.misc.Unsafe</code>, then plain Java). Roughly Snappy's ratio, at a lower CPU cost.
+ * <P>The lz4-java library is an optional dependency.
+ *
+ * @author Josh Long
+ */
+public class Lz4Codec implements CompressionCodec {
+
+    public static final int ID = 2;
+
+    private final LZ4Compressor compressor;
+
+    private final LZ4SafeDecompressor decompressor;
+
+    public Lz4Codec() {
+        this(LZ4Factory.fastestInstance());
+    }
+
+    public Lz4Codec(LZ4Factory factory) {
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return this.compressor.maxCompressedLength(length);
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff) throws IOException {
+        try {
+            return this.compressor.compress(src, srcOff, srcLen, dest, destOff, dest.length - destOff);
+        } catch (LZ4Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int uncompressedLength) throws IOException {
+        int length;
+        try {
+            length = this.decompressor.decompress(src, srcOff, srcLen, dest, destOff, uncompressedLength);
+        } catch (LZ4Exception e) {
+            throw new IOException(e);
+        }
+        if (length != uncompressedLength) {
+            throw new IOException("the LZ4 block decompressed to " + length + " bytes, not the expected " + uncompressedLength);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+/**
+ * {@link CompressionCodec} backed by Google's Snappy (through the snappy-java JNI bindings): very fast, with modest compression.
+ *
+ * @author Josh Long
+ */
+public class SnappyCodec implements CompressionCodec {
+
+    public static final int ID = 1;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "snappy";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return Snappy.maxCompressedLength(length);
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff) throws IOException {
+        return Snappy.compress(src, srcOff, srcLen, dest, destOff);
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int uncompressedLength) throws IOException {
+        if (Snappy.uncompressedLength(src, srcOff, srcLen) != uncompressedLength) {
+            throw new IOException("the Snappy block does not decompress to the expected " + uncompressedLength + " bytes");
+        }
+        Snappy.uncompress(src, srcOff, srcLen, dest, destOff);
+    }
+}
@@ -13,24 +13,33 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.springframework.obm.messagepack;
 
 import org.msgpack.MessagePack;
 import org.msgpack.Template;
 import org.msgpack.template.builder.BeansTemplateBuilder;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.obm.TypedCodec;
 import org.springframework.obm.support.AbstractMarshaller;
+import org.springframework.obm.support.AbstractTypedCodec;
 import org.springframework.util.Assert;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
  * Implementation of the marshaler and unmarshaller contracts that delegates to MessagePack for serialization
+ * <p/>
+ * <P>Each class is registered with MessagePack the first time it's seen. Its {@link Template} is built exactly
+ * once, even when several threads see the class at the same time, kept in a concurrent map, and handed straight
+ * to MessagePack's pack and unpack calls, so MessagePack doesn't have to look it up again. The classes registered so
+ * far are available from {@link #getRegisteredClasses()}.
  *
  * @author Josh Long
  */
@@ -40,7 +49,9 @@ public class MessagePackMarshaller<T> extends AbstractMarshaller<T> implements I
 
     private boolean serializeJavaBeanProperties = true;
 
-    private Set<Class<?>> messagePackClasses = new CopyOnWriteArraySet<Class<?>>();
+    private final ConcurrentMap<Class<?>, Registration> registrations = new ConcurrentHashMap<Class<?>, Registration>();
+
+    private final Object registrationMonitor = new Object();
 
     public void setSerializeJavaBeanProperties(boolean serializeJavaBeanProperties) {
         this.serializeJavaBeanProperties = serializeJavaBeanProperties;
@@ -56,10 +67,16 @@ public class MessagePackMarshaller<T> extends AbstractMarshaller<T> implements I
         }
     }
 
+    /**
+     * @return the classes registered with MessagePack by this marshaller so far
+     */
+    public Set<Class<?>> getRegisteredClasses() {
+        return Collections.unmodifiableSet(this.registrations.keySet());
+    }
+
     @Override
     public void marshal(T obj, OutputStream os) throws Exception {
-        Assert.isTrue(messagePackSupports(obj.getClass()), "the class must be registered");
-        MessagePack.pack(os, obj);
+        register(obj.getClass()).pack(os, obj);
     }
 
     @Override
@@ -69,26 +86,111 @@ public class MessagePackMarshaller<T> extends AbstractMarshaller<T> implements I
 
     @Override
     public T unmarshal(Class<T> clazz, InputStream source) throws Exception {
-        Assert.isTrue(messagePackSupports(clazz), "the class must be registered");
-        return MessagePack.unpack(source, clazz);
+        return register(clazz).unpack(source, clazz);
+    }
+
+    /**
+     * a heap buffer that spans its whole backing array is handed to MessagePack as is. Anything else is read
+     * through a stream over the buffer.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T unmarshal(Class<T> clazz, ByteBuffer source) throws Exception {
+        if (source.hasArray() && source.arrayOffset() + source.position() == 0 && source.remaining() == source.array().length) {
+            Registration registration = register(clazz);
+            try {
+                return registration.template == null ?
+                               MessagePack.unpack(source.array(), clazz) :
+                               (T) MessagePack.unpack(source.array(), registration.template);
+            } finally {
+                source.position(source.limit());
+            }
+        }
+        return super.unmarshal(clazz, source);
+    }
+
+    /**
+     * the handle holds on to the class' {@link Template}
+     */
+    @Override
+    public TypedCodec<T> prepare(final Class<T> clazz) throws Exception {
+        final Registration registration = register(clazz);
+        return new AbstractTypedCodec<T>(clazz) {
+            @Override
+            public void encode(T obj, OutputStream os) throws Exception {
+                registration.pack(os, obj);
+            }
+
+            @Override
+            public T decode(InputStream source) throws Exception {
+                return registration.unpack(source, clazz);
+            }
+        };
     }
 
     protected boolean messagePackSupports(Class<?> clazz) {
+        register(clazz);
+        return true;
+    }
+
+    /**
+     * registers the class with MessagePack, unless that's been done already
+     *
+     * @param clazz the class
+     * @return the class' registration
+     */
+    protected Registration register(Class<?> clazz) {
+        Registration registration = this.registrations.get(clazz);
+        if (registration != null) {
+            return registration;
+        }
+        // building a template is expensive and MessagePack.register isn't idempotent, so only one thread gets to do it
+        synchronized (this.registrationMonitor) {
+            registration = this.registrations.get(clazz);
+            if (registration == null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("registering " + clazz.getName() + " with MessagePack");
+                }
+                Template template = null;
+                if (serializeJavaBeanProperties) {
+                    template = beansTemplateBuilder.buildTemplate(clazz);
+                    MessagePack.register(clazz, template);
+                } else {
+                    MessagePack.register(clazz);
+                }
+                registration = new Registration(template);
+                this.registrations.put(clazz, registration);
+            }
+            return registration;
+        }
+    }
+
+    /**
+     * a class' {@link Template}, if this marshaller built it. Classes registered without one are left to MessagePack's own lookup
+     */
+    protected static class Registration {
 
-        if (messagePackClasses.contains(clazz)) {
-            return true;
+        private final Template template;
+
+        Registration(Template template) {
+            this.template = template;
         }
 
-        // otherwise, register it
-        messagePackClasses.add(clazz);
+        public Template getTemplate() {
+            return this.template;
+        }
 
-        if (serializeJavaBeanProperties) {
-            Template template = beansTemplateBuilder.buildTemplate(clazz);
-            MessagePack.register(clazz, template);
-        } else {
-            MessagePack.register(clazz);
+        void pack(OutputStream os, Object obj) throws Exception {
+            if (this.template == null) {
+                MessagePack.pack(os, obj);
+            } else {
+                MessagePack.pack(os, obj, this.template);
+            }
         }
 
-        return true;
+        @SuppressWarnings("unchecked")
+        <X> X unpack(InputStream source, Class<X> clazz) throws Exception {
+            return this.template == null ? MessagePack.unpack(source, clazz) : (X) MessagePack.unpack(source, this.template);
+        }
     }
 }
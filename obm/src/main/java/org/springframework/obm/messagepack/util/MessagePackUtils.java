@@ -20,33 +20,57 @@ package org.springframework.obm.messagepack.util;
 import org.msgpack.MessagePackObject;
 import org.springframework.core.GenericCollectionTypeResolver;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * <P>{@link #remapResult(Object)} replaces the {@link MessagePackObject}s that MessagePack leaves in the collections of
+ * a deserialized object with instances of the collections' element types.
+ * <P>What needs doing for a class (which of its fields can hold a collection, and what the element type of each is) is worked
+ * out once, the first time the class is seen, and cached. Classes without such fields are passed through untouched,
+ * and collections that don't hold any {@link MessagePackObject}s are left as they are.
+ *
  * @author Josh Long
  */
 @SuppressWarnings("unchecked")
 public abstract class MessagePackUtils {
 
-    private static <T> Collection<T> buildReplacementCollection(Collection<T> in) throws Throwable {
+    private static final ConcurrentMap<Class<?>, RemapPlan> remapPlans = new ConcurrentHashMap<Class<?>, RemapPlan>();
 
-        int size = in.size();
-        if (in.getClass().isInterface()) {
+    private static final ConcurrentMap<Class<?>, Constructor<?>> collectionConstructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
 
-            if (in.getClass().equals(Set.class)) {
-                return new HashSet<T>(size);
-            }
-            if (in.getClass().equals(List.class)) {
-                return new ArrayList<T>(size);
-            }
-            if (in.getClass().equals(Queue.class)) {
-                return new ArrayBlockingQueue<T>(size);
+    private static <T> Collection<T> buildReplacementCollection(Collection<T> in) throws Throwable {
+        Class<?> collectionClass = in.getClass();
+        Constructor<?> constructor = collectionConstructors.get(collectionClass);
+        if (constructor == null) {
+            try {
+                constructor = collectionClass.getDeclaredConstructor();
+                if (!constructor.isAccessible()) {
+                    constructor.setAccessible(true);
+                }
+                collectionConstructors.putIfAbsent(collectionClass, constructor);
+            } catch (NoSuchMethodException e) {
+                constructor = null;
             }
-        } else {
-            return in.getClass().newInstance();
+        }
+        if (constructor != null) {
+            return (Collection<T>) constructor.newInstance();
+        }
+
+        // no way to make another one of these (think Collections.unmodifiableList()), so fall back to the closest general purpose type
+        int size = in.size();
+        if (in instanceof Set) {
+            return new LinkedHashSet<T>(size);
+        }
+        if (in instanceof List) {
+            return new ArrayList<T>(size);
+        }
+        if (in instanceof Queue) {
+            return new LinkedList<T>();
         }
         throw new RuntimeException("we couldn't figure out a replacement collection for the input collection type, " + in.getClass().getName());
     }
@@ -59,52 +83,94 @@ public abstract class MessagePackUtils {
         return null;
     }
 
+    private static RemapPlan getRemapPlan(Class<?> clazz) {
+        RemapPlan plan = remapPlans.get(clazz);
+        if (plan == null) {
+            plan = new RemapPlan(clazz);
+            RemapPlan existing = remapPlans.putIfAbsent(clazz, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
 
     public static <T> T remapResult(final T result) throws Throwable {
+        if (result == null) {
+            return null;
+        }
         Class<?> clazzOfT = result.getClass();
 
         if (ReflectionUtils.isUninterestingClass(clazzOfT)) {
             return result;
         }
 
-        org.springframework.util.ReflectionUtils.doWithFields(result.getClass(), new org.springframework.util.ReflectionUtils.FieldCallback() {
-            @Override
-            public void doWith(Field field) throws IllegalArgumentException, IllegalAccessException {
-                try {
-
-                    if (org.springframework.util.ReflectionUtils.isPublicStaticFinal(field) || Modifier.isFinal(field.getModifiers())) {
-                        return;
-                    }
-
-                    if (!field.isAccessible()) {
-                        field.setAccessible(true);
-                    }
-
-                    Object value = field.get(result);
-
-                    if (Collection.class.isAssignableFrom(value.getClass())) {
-
-                        Collection<?> values = (Collection<?>) value;
-                        Collection destination = buildReplacementCollection(values);
-                        Class<?> classOfCollection = GenericCollectionTypeResolver.getCollectionFieldType(field);
-                        for (Object srcObject : values) {
-                            if (srcObject instanceof MessagePackObject) {
-                                destination.add(convertMessagePackObject(srcObject, classOfCollection));
-                            } else {
-                                destination.add(srcObject);
-                            }
+        RemapPlan plan = getRemapPlan(clazzOfT);
+        for (int i = 0; i < plan.fields.length; i++) {
+            Field field = plan.fields[i];
+            Object value = field.get(result);
+            if (value instanceof Collection) {
+                Collection<?> values = (Collection<?>) value;
+                if (containsMessagePackObjects(values)) {
+                    Collection destination = buildReplacementCollection(values);
+                    Class<?> classOfCollection = plan.elementTypes[i];
+                    for (Object srcObject : values) {
+                        if (srcObject instanceof MessagePackObject) {
+                            destination.add(convertMessagePackObject(srcObject, classOfCollection));
+                        } else {
+                            destination.add(srcObject);
                         }
-                        // set the new value in place
-                        field.set(result, destination);
                     }
-                } catch (Throwable thr) {
-                    throw new RuntimeException(thr);
+                    // set the new value in place
+                    field.set(result, destination);
                 }
             }
-        });
+        }
 
         return result;
     }
 
+    private static boolean containsMessagePackObjects(Collection<?> values) {
+        for (Object value : values) {
+            if (value instanceof MessagePackObject) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the fields of a class that may hold a collection, made accessible, and the element type of each
+     */
+    private static class RemapPlan {
+
+        private final Field[] fields;
 
+        private final Class<?>[] elementTypes;
+
+        RemapPlan(Class<?> clazz) {
+            final List<Field> fieldList = new ArrayList<Field>();
+            final List<Class<?>> elementTypeList = new ArrayList<Class<?>>();
+            org.springframework.util.ReflectionUtils.doWithFields(clazz, new org.springframework.util.ReflectionUtils.FieldCallback() {
+                @Override
+                public void doWith(Field field) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || !mayHoldCollection(field.getType())) {
+                        return;
+                    }
+                    if (!field.isAccessible()) {
+                        field.setAccessible(true);
+                    }
+                    fieldList.add(field);
+                    elementTypeList.add(GenericCollectionTypeResolver.getCollectionFieldType(field));
+                }
+            });
+            this.fields = fieldList.toArray(new Field[fieldList.size()]);
+            this.elementTypes = elementTypeList.toArray(new Class<?>[elementTypeList.size()]);
+        }
+
+        private static boolean mayHoldCollection(Class<?> type) {
+            return Collection.class.isAssignableFrom(type) || type.isInterface() || type == Object.class;
+        }
+    }
 }
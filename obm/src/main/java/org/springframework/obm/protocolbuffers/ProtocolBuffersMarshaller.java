@@ -16,22 +16,74 @@
 
 package org.springframework.obm.protocolbuffers;
 
-import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import org.springframework.obm.SizeAwareTypedCodec;
+import org.springframework.obm.TypedCodec;
 import org.springframework.obm.support.AbstractMarshaller;
+import org.springframework.obm.support.AbstractTypedCodec;
+import org.springframework.obm.support.ByteBufferInputStream;
+import org.springframework.obm.support.ByteBufferOutputStream;
+import org.springframework.obm.support.DelimitedIterator;
+import org.springframework.obm.support.LimitedInputStream;
+import org.springframework.obm.support.VarintUtils;
 import org.springframework.util.Assert;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Protocol buffers is one of the most mature serialization libraries out there at the moment.
+ * <P>The default instance of each message class is looked up once and cached; every message is then built from
+ * {@link Message#newBuilderForType()}, without reflection. Messages are encoded straight into a buffer that each
+ * thread reuses, and decoded through a {@link CodedInputStream} that refuses messages larger than the
+ * {@link #setSizeLimit(int) size limit} and resolves extensions from the {@link #setExtensionRegistry(ExtensionRegistry)
+ * extension registry}, if any.
  *
  * @author Josh Long
  */
 public class ProtocolBuffersMarshaller<T> extends AbstractMarshaller<T> {
 
+    /**
+     * encoding buffers larger than this aren't kept for the next message, and larger messages are streamed instead
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> ENCODING_BUFFER = new ThreadLocal<byte[]>();
+
+    private final ConcurrentMap<Class<?>, Message> prototypes = new ConcurrentHashMap<Class<?>, Message>();
+
+    private ExtensionRegistry extensionRegistry = ExtensionRegistry.getEmptyRegistry();
+
+    private int sizeLimit = 64 * 1024 * 1024;
+
+    /**
+     * the extensions to recognize when reading messages. Unknown extensions are kept as unknown fields
+     */
+    public void setExtensionRegistry(ExtensionRegistry extensionRegistry) {
+        Assert.notNull(extensionRegistry, "the extensionRegistry must not be null");
+        this.extensionRegistry = extensionRegistry;
+    }
+
+    /**
+     * the largest message, in bytes, that will be read. Defaults to 64MB, like protocol buffers itself
+     */
+    public void setSizeLimit(int sizeLimit) {
+        Assert.isTrue(sizeLimit > 0, "the size limit must be greater than 0");
+        this.sizeLimit = sizeLimit;
+    }
+
     @Override
     public boolean supports(Class<T> clazz) {
         return Message.class.isAssignableFrom(clazz);
@@ -40,17 +92,190 @@ public class ProtocolBuffersMarshaller<T> extends AbstractMarshaller<T> {
 
     @Override
     public void marshal(T obj, OutputStream os) throws Exception {
+        Assert.isTrue(obj instanceof Message, "the marshaller can only serialize subclasses of " + Message.class.getName());
+        write((Message) obj, os);
+    }
+
+    /**
+     * heap buffers are encoded in place, with no intermediate array. Direct buffers are written through
+     * a {@link CodedOutputStream} that wraps the buffer.
+     */
+    @Override
+    public void marshal(T obj, ByteBuffer buffer) throws Exception {
+        Assert.isTrue(obj instanceof Message, "the marshaller can only serialize subclasses of " + Message.class.getName());
+        Message msg = (Message) obj;
+        if (buffer.hasArray()) {
+            int size = msg.getSerializedSize();
+            if (size > buffer.remaining()) {
+                throw new BufferOverflowException();
+            }
+            CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(buffer.array(), buffer.arrayOffset() + buffer.position(), size);
+            msg.writeTo(codedOutputStream);
+            codedOutputStream.checkNoSpaceLeft();
+            buffer.position(buffer.position() + size);
+        } else {
+            CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(new ByteBufferOutputStream(buffer));
+            msg.writeTo(codedOutputStream);
+            codedOutputStream.flush();
+        }
+    }
+
+    @Override
+    public void marshal(T obj, WritableByteChannel channel) throws Exception {
         Assert.isTrue(obj instanceof Message, "the marshaller can only serialize subclasses of " + Message.class.getName());
         Message msg = (Message) obj;
-        os.write(msg.toByteArray());
+        CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(Channels.newOutputStream(channel), this.channelBufferSize);
+        msg.writeTo(codedOutputStream);
+        codedOutputStream.flush();
     }
 
     @Override
     public T unmarshal(Class<T> clazz, InputStream source) throws Exception {
-        Method newBuilder = clazz.getMethod("newBuilder");
-        Assert.isAssignable(Message.class, clazz, "the marshaller can only unmarshal subclases of " + Message.class.getName());
-        GeneratedMessage.Builder<?> builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(clazz);
-        Message msg = builder.mergeFrom(source).build();
-        return (T) msg;
+        return read(getPrototype(clazz), source);
+    }
+
+    /**
+     * heap buffers are decoded in place, with no intermediate array.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T unmarshal(Class<T> clazz, ByteBuffer source) throws Exception {
+        Message.Builder builder = newBuilder(clazz);
+        try {
+            CodedInputStream codedInputStream = source.hasArray() ?
+                                                        CodedInputStream.newInstance(source.array(), source.arrayOffset() + source.position(), source.remaining()) :
+                                                        CodedInputStream.newInstance(new ByteBufferInputStream(source));
+            codedInputStream.setSizeLimit(this.sizeLimit);
+            builder.mergeFrom(codedInputStream, this.extensionRegistry);
+            codedInputStream.checkLastTagWas(0);
+        } finally {
+            source.position(source.limit());
+        }
+        return (T) builder.build();
+    }
+
+    /**
+     * writes each message with its length as a varint in front, like {@link Message#writeDelimitedTo(OutputStream)}
+     */
+    @Override
+    public void marshalAll(Iterator<? extends T> objects, OutputStream os) throws Exception {
+        while (objects.hasNext()) {
+            T obj = objects.next();
+            Assert.isTrue(obj instanceof Message, "the marshaller can only serialize subclasses of " + Message.class.getName());
+            Message msg = (Message) obj;
+            VarintUtils.writeVarint(msg.getSerializedSize(), os);
+            write(msg, os);
+        }
+    }
+
+    /**
+     * reads each message written as by {@link com.google.protobuf.Message#writeDelimitedTo(OutputStream)}, refusing
+     * lengths beyond the {@link #setSizeLimit(int) size limit}
+     */
+    @Override
+    public Iterator<T> unmarshalAll(Class<T> clazz, InputStream source) throws Exception {
+        final Message prototype = getPrototype(clazz);
+        return new DelimitedIterator<T>(source) {
+
+            @Override
+            protected T read(LimitedInputStream message, int length) throws Exception {
+                checkSize(length);
+                return ProtocolBuffersMarshaller.this.read(prototype, message);
+            }
+        };
+    }
+
+    /**
+     * the returned handle holds on to the type's default instance, and builds each message from it
+     * without any reflection. It's a {@link SizeAwareTypedCodec}, answering with {@link Message#getSerializedSize()}
+     */
+    @Override
+    public TypedCodec<T> prepare(Class<T> clazz) throws Exception {
+        return new MessageCodec(clazz, getPrototype(clazz));
+    }
+
+    protected Message.Builder newBuilder(Class<T> clazz) throws Exception {
+        return getPrototype(clazz).newBuilderForType();
+    }
+
+    /**
+     * @return the default instance of the message class, looked up (reflectively) only the first time
+     */
+    protected Message getPrototype(Class<T> clazz) throws Exception {
+        Message prototype = this.prototypes.get(clazz);
+        if (prototype == null) {
+            Assert.isAssignable(Message.class, clazz, "the marshaller can only unmarshal subclases of " + Message.class.getName());
+            prototype = (Message) clazz.getMethod("getDefaultInstance").invoke(null);
+            this.prototypes.putIfAbsent(clazz, prototype);
+        }
+        return prototype;
+    }
+
+    /**
+     * encodes the message into this thread's buffer, then writes it out in one go. Messages too large to be worth
+     * buffering are streamed through a {@link CodedOutputStream} instead
+     */
+    private void write(Message msg, OutputStream os) throws IOException {
+        int size = msg.getSerializedSize();
+        if (size > MAX_RETAINED_BUFFER_SIZE) {
+            CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(os, this.channelBufferSize);
+            msg.writeTo(codedOutputStream);
+            codedOutputStream.flush();
+            return;
+        }
+        byte[] buffer = ENCODING_BUFFER.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[Math.max(size, 1024)];
+            ENCODING_BUFFER.set(buffer);
+        }
+        CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(buffer, 0, size);
+        msg.writeTo(codedOutputStream);
+        codedOutputStream.checkNoSpaceLeft();
+        os.write(buffer, 0, size);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T read(Message prototype, InputStream source) throws IOException {
+        CodedInputStream codedInputStream = CodedInputStream.newInstance(source);
+        codedInputStream.setSizeLimit(this.sizeLimit);
+        Message.Builder builder = prototype.newBuilderForType().mergeFrom(codedInputStream, this.extensionRegistry);
+        codedInputStream.checkLastTagWas(0);
+        return (T) builder.build();
+    }
+
+    private void checkSize(int length) throws InvalidProtocolBufferException {
+        if (length < 0) {
+            throw new InvalidProtocolBufferException("the message length " + length + " is negative");
+        }
+        if (length > this.sizeLimit) {
+            throw new InvalidProtocolBufferException("the message is " + length + " bytes long, which is more than the limit of " + this.sizeLimit);
+        }
+    }
+
+    private class MessageCodec extends AbstractTypedCodec<T> implements SizeAwareTypedCodec<T> {
+
+        private final Message prototype;
+
+        MessageCodec(Class<T> type, Message prototype) {
+            super(type);
+            this.prototype = prototype;
+        }
+
+        @Override
+        public long getEncodedSize(T obj) throws Exception {
+            Assert.isTrue(obj instanceof Message, "the marshaller can only serialize subclasses of " + Message.class.getName());
+            return ((Message) obj).getSerializedSize();
+        }
+
+        @Override
+        public void encode(T obj, OutputStream os) throws Exception {
+            Assert.isTrue(obj instanceof Message, "the marshaller can only serialize subclasses of " + Message.class.getName());
+            write((Message) obj, os);
+        }
+
+        @Override
+        public T decode(InputStream source) throws Exception {
+            return read(this.prototype, source);
+        }
     }
-}
\ No newline at end of file
+}
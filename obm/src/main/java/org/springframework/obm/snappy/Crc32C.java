@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.snappy;
+
+/**
+ * <P>CRC-32C (Castagnoli), as used by the Snappy framing format to check each chunk.
+ * <P>The JDK only ships the plain CRC-32 ({@link java.util.zip.CRC32}), hence this small table driven implementation.
+ *
+ * @author Josh Long
+ */
+abstract class Crc32C {
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int MASK_DELTA = 0xa282ead8;
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    static int crc(byte[] bytes, int off, int len) {
+        int crc = 0xffffffff;
+        for (int i = off; i < off + len; i++) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ bytes[i]) & 0xff];
+        }
+        return ~crc;
+    }
+
+    /**
+     * the checksum of the bytes, masked the way the framing format requires
+     */
+    static int maskedCrc(byte[] bytes, int off, int len) {
+        int crc = crc(bytes, off, len);
+        return ((crc >>> 15) | (crc << 17)) + MASK_DELTA;
+    }
+}
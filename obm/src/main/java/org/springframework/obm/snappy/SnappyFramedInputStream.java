@@ -0,0 +1,218 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.snappy;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * <P>{@link InputStream} that decompresses a stream written in the Snappy framing format, such as the output of a
+ * {@link SnappyFramedOutputStream}. Chunks are read and decompressed one at a time as they are needed, into working
+ * buffers that are allocated once per stream, and each chunk's CRC-32C is verified.
+ * <P>The format has no end marker, so the stream is read up to the end of the underlying stream, and the framed data
+ * can't be followed by other data.
+ *
+ * @author Josh Long
+ * @see SnappyFramedOutputStream
+ */
+public class SnappyFramedInputStream extends FilterInputStream {
+
+    private final byte[] buffer = new byte[SnappyFramedOutputStream.MAX_CHUNK_SIZE];
+
+    private final byte[] compressed = new byte[Snappy.maxCompressedLength(SnappyFramedOutputStream.MAX_CHUNK_SIZE)];
+
+    private final byte[] header = new byte[SnappyFramedOutputStream.STREAM_IDENTIFIER.length];
+
+    private int position = 0;
+
+    private int available = 0;
+
+    private boolean identified = false;
+
+    private boolean eof = false;
+
+    public SnappyFramedInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * checks whether the bytes start with the identifier that opens every framed stream
+     *
+     * @param bytes  the first bytes of a stream
+     * @param length how many of them are valid
+     * @return whether this looks like a framed stream
+     */
+    public static boolean isFramed(byte[] bytes, int length) {
+        byte[] identifier = SnappyFramedOutputStream.STREAM_IDENTIFIER;
+        if (length < identifier.length) {
+            return false;
+        }
+        for (int i = 0; i < identifier.length; i++) {
+            if (bytes[i] != identifier[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return this.buffer[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, this.available - this.position);
+        System.arraycopy(this.buffer, this.position, bytes, off, count);
+        this.position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int count = (int) Math.min(n - skipped, this.available - this.position);
+            this.position += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.available - this.position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * makes sure there are decompressed bytes to hand out
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        while (this.position == this.available) {
+            if (this.eof || !readChunk()) {
+                this.eof = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean readChunk() throws IOException {
+        if (!this.identified) {
+            readFully(this.header, 0, this.header.length, false);
+            if (!isFramed(this.header, this.header.length)) {
+                throw new IOException("the stream does not start with the Snappy framing format stream identifier");
+            }
+            this.identified = true;
+        }
+
+        int type = in.read();
+        if (type < 0) {
+            return false;
+        }
+        readFully(this.header, 0, 3, true);
+        int length = (this.header[0] & 0xff) | ((this.header[1] & 0xff) << 8) | ((this.header[2] & 0xff) << 16);
+
+        this.position = 0;
+        this.available = 0;
+
+        if (type == SnappyFramedOutputStream.COMPRESSED_DATA || type == SnappyFramedOutputStream.UNCOMPRESSED_DATA) {
+            if (length < 4) {
+                throw new IOException("the chunk is too short to hold a checksum");
+            }
+            readFully(this.header, 0, 4, true);
+            int expectedCrc = (this.header[0] & 0xff) | ((this.header[1] & 0xff) << 8) |
+                                      ((this.header[2] & 0xff) << 16) | ((this.header[3] & 0xff) << 24);
+            int dataLength = length - 4;
+            if (type == SnappyFramedOutputStream.COMPRESSED_DATA) {
+                if (dataLength > this.compressed.length) {
+                    throw new IOException("the compressed chunk is too large: " + dataLength + " bytes");
+                }
+                readFully(this.compressed, 0, dataLength, true);
+                int uncompressedLength = Snappy.uncompressedLength(this.compressed, 0, dataLength);
+                if (uncompressedLength > this.buffer.length) {
+                    throw new IOException("the chunk uncompresses to more than " + this.buffer.length + " bytes");
+                }
+                this.available = Snappy.uncompress(this.compressed, 0, dataLength, this.buffer, 0);
+            } else {
+                if (dataLength > this.buffer.length) {
+                    throw new IOException("the uncompressed chunk is too large: " + dataLength + " bytes");
+                }
+                readFully(this.buffer, 0, dataLength, true);
+                this.available = dataLength;
+            }
+            if (Crc32C.maskedCrc(this.buffer, 0, this.available) != expectedCrc) {
+                throw new IOException("the chunk's checksum does not match its contents");
+            }
+        } else if (type == (SnappyFramedOutputStream.STREAM_IDENTIFIER[0] & 0xff)) {
+            // the identifier may be repeated, for example when framed streams are concatenated
+            if (length != SnappyFramedOutputStream.STREAM_IDENTIFIER.length - 4) {
+                throw new IOException("invalid stream identifier chunk length: " + length);
+            }
+            readFully(this.header, 0, length, true);
+            if (!Arrays.equals(Arrays.copyOfRange(this.header, 0, length),
+                                      Arrays.copyOfRange(SnappyFramedOutputStream.STREAM_IDENTIFIER, 4, SnappyFramedOutputStream.STREAM_IDENTIFIER.length))) {
+                throw new IOException("invalid stream identifier chunk");
+            }
+        } else if (type == SnappyFramedOutputStream.PADDING || type >= 0x80) {
+            skipFully(length);
+        } else {
+            throw new IOException("unsupported, unskippable chunk type " + type);
+        }
+        return true;
+    }
+
+    private void readFully(byte[] bytes, int off, int len, boolean inChunk) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int count = in.read(bytes, off + read, len - read);
+            if (count < 0) {
+                throw new EOFException(inChunk ? "the stream ended in the middle of a chunk" : "the stream is empty");
+            }
+            read += count;
+        }
+    }
+
+    private void skipFully(int len) throws IOException {
+        while (len > 0) {
+            int count = Math.min(len, this.compressed.length);
+            readFully(this.compressed, 0, count, true);
+            len -= count;
+        }
+    }
+}
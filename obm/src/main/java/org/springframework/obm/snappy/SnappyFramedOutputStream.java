@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.snappy;
+
+import org.springframework.util.Assert;
+import org.xerial.snappy.Snappy;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <P>{@link OutputStream} that compresses what's written to it using the Snappy framing format
+ * (http://code.google.com/p/snappy/source/browse/trunk/framing_format.txt): a stream identifier followed by
+ * chunks of at most 64KB of input, each compressed on its own and carrying a CRC-32C of its uncompressed bytes.
+ * <P>Compression happens one chunk at a time, using two working buffers that are allocated once per stream,
+ * so the memory used doesn't grow with the size of what's written. A chunk that doesn't compress well is
+ * stored uncompressed.
+ * <P>{@link #flush()} ends the current chunk. {@link #close()} also closes the underlying stream.
+ *
+ * @author Josh Long
+ * @see SnappyFramedInputStream
+ */
+public class SnappyFramedOutputStream extends FilterOutputStream {
+
+    /**
+     * the stream identifier chunk that opens every framed stream
+     */
+    static final byte[] STREAM_IDENTIFIER = new byte[]{(byte) 0xff, 0x06, 0x00, 0x00, 's', 'N', 'a', 'P', 'p', 'Y'};
+
+    static final int COMPRESSED_DATA = 0x00;
+
+    static final int UNCOMPRESSED_DATA = 0x01;
+
+    static final int PADDING = 0xfe;
+
+    /**
+     * the largest amount of input a single chunk may hold
+     */
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * chunks that don't compress to less than this fraction of their size are stored uncompressed
+     */
+    private static final double MIN_COMPRESSION_RATIO = 0.875;
+
+    private final byte[] buffer;
+
+    private final byte[] compressed;
+
+    private final byte[] header = new byte[8];
+
+    private int position = 0;
+
+    private boolean headerWritten = false;
+
+    private boolean closed = false;
+
+    public SnappyFramedOutputStream(OutputStream out) {
+        this(out, MAX_CHUNK_SIZE);
+    }
+
+    public SnappyFramedOutputStream(OutputStream out, int chunkSize) {
+        super(out);
+        Assert.isTrue(chunkSize > 0 && chunkSize <= MAX_CHUNK_SIZE, "the chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+        this.buffer = new byte[chunkSize];
+        this.compressed = new byte[Snappy.maxCompressedLength(chunkSize)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.position == this.buffer.length) {
+            writeChunk();
+        }
+        this.buffer[this.position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.position == this.buffer.length) {
+                writeChunk();
+            }
+            int count = Math.min(len, this.buffer.length - this.position);
+            System.arraycopy(bytes, off, this.buffer, this.position, count);
+            this.position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        if (!this.headerWritten) {
+            out.write(STREAM_IDENTIFIER);
+            this.headerWritten = true;
+        }
+        if (this.position == 0) {
+            return;
+        }
+        int crc = Crc32C.maskedCrc(this.buffer, 0, this.position);
+        int compressedLength = Snappy.compress(this.buffer, 0, this.position, this.compressed, 0);
+        if (compressedLength < this.position * MIN_COMPRESSION_RATIO) {
+            writeChunkHeader(COMPRESSED_DATA, compressedLength + 4, crc);
+            out.write(this.compressed, 0, compressedLength);
+        } else {
+            writeChunkHeader(UNCOMPRESSED_DATA, this.position + 4, crc);
+            out.write(this.buffer, 0, this.position);
+        }
+        this.position = 0;
+    }
+
+    private void writeChunkHeader(int type, int length, int crc) throws IOException {
+        this.header[0] = (byte) type;
+        this.header[1] = (byte) length;
+        this.header[2] = (byte) (length >>> 8);
+        this.header[3] = (byte) (length >>> 16);
+        this.header[4] = (byte) crc;
+        this.header[5] = (byte) (crc >>> 8);
+        this.header[6] = (byte) (crc >>> 16);
+        this.header[7] = (byte) (crc >>> 24);
+        out.write(this.header, 0, this.header.length);
+    }
+}
@@ -27,6 +27,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 
 /**
  * <P> This marshaller is a wrapping {@link org.springframework.obm.Marshaller}, meant to delegate actual
@@ -37,6 +38,11 @@ import java.io.OutputStream;
  * You should not need to do anything to use this (not even setup <CODE>LD_PATH</CODE> or <CODE>library.path</CODE>, but you
  * should be aware that the native code is there. It has been testd and works correctly in multi-classloader environments like Tomcat
  * </p>
+ * <P> By default the whole message is serialized into memory and compressed as a single block. With {@link #setFramed(boolean) framed}
+ * set, the message is instead streamed through the Snappy framing format (see {@link SnappyFramedOutputStream}) one chunk at a time,
+ * so that the memory used stays bounded by the chunk size no matter how large the message is. Either way, {@link #unmarshal(Class, java.io.InputStream)}
+ * looks at the first bytes of the input and reads both forms.
+ * </p>
  *
  * @author Josh Long
  */
@@ -44,6 +50,8 @@ public class SnappyMarshaller extends AbstractMarshaller {
 
     private Marshaller marshaller;
     private Unmarshaller unmarshaller;
+    private boolean framed = false;
+    private int chunkSize = SnappyFramedOutputStream.MAX_CHUNK_SIZE;
 
     public SnappyMarshaller(Marshaller marshaller) {
         this.marshaller = marshaller;
@@ -69,6 +77,27 @@ public class SnappyMarshaller extends AbstractMarshaller {
         this.unmarshaller = unmarshaller;
     }
 
+    /**
+     * whether to write messages using the streaming Snappy framing format instead of a single compressed block.
+     * Defaults to false, to stay readable by older versions of this marshaller
+     *
+     * @param framed whether to write framed messages
+     */
+    public void setFramed(boolean framed) {
+        this.framed = framed;
+    }
+
+    /**
+     * the amount of uncompressed data compressed at a time in framed mode (at most, and by default, 64KB)
+     *
+     * @param chunkSize the chunk size, in bytes
+     */
+    public void setChunkSize(int chunkSize) {
+        Assert.isTrue(chunkSize > 0 && chunkSize <= SnappyFramedOutputStream.MAX_CHUNK_SIZE,
+                "the chunk size must be between 1 and " + SnappyFramedOutputStream.MAX_CHUNK_SIZE);
+        this.chunkSize = chunkSize;
+    }
+
     @Override
     public boolean supports(Class clazz) {
         return marshaller.supports(clazz) && unmarshaller.supports(clazz);
@@ -76,6 +105,10 @@ public class SnappyMarshaller extends AbstractMarshaller {
 
     @Override
     public void marshal(Object obj, OutputStream os) throws Exception {
+        if (this.framed) {
+            marshalFramed(obj, os);
+            return;
+        }
         ByteArrayOutputStream byteArrayOutputStream = null;
         try {
             byteArrayOutputStream = new ByteArrayOutputStream();
@@ -96,11 +129,40 @@ public class SnappyMarshaller extends AbstractMarshaller {
         }
     }
 
+    /**
+     * streams the delegate's output through the framing format. The target stream is flushed, not closed
+     */
+    protected void marshalFramed(Object obj, OutputStream os) throws Exception {
+        SnappyFramedOutputStream framedOutputStream = new SnappyFramedOutputStream(os, this.chunkSize);
+        try {
+            marshaller.marshal(obj, framedOutputStream);
+            framedOutputStream.flush();
+        } catch (Throwable th) {
+            if (log.isErrorEnabled()) {
+                log.error("could not compress the object " + (null == obj ? "" : obj + ""), th);
+            }
+            throw new RuntimeException(th);
+        }
+    }
+
     @Override
     public Object unmarshal(Class clazz, InputStream source) throws Exception {
+        int identifierLength = SnappyFramedOutputStream.STREAM_IDENTIFIER.length;
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(source, identifierLength);
+        byte[] head = new byte[identifierLength];
+        int read = 0, count;
+        while (read < head.length && (count = pushbackInputStream.read(head, read, head.length - read)) > 0) {
+            read += count;
+        }
+        pushbackInputStream.unread(head, 0, read);
+
+        if (SnappyFramedInputStream.isFramed(head, read)) {
+            return unmarshaller.unmarshal(clazz, new SnappyFramedInputStream(pushbackInputStream));
+        }
+
         ByteArrayInputStream byteArrayInputStream = null;
         try {
-            byte[] bytes = FileCopyUtils.copyToByteArray(source);
+            byte[] bytes = FileCopyUtils.copyToByteArray(pushbackInputStream);
             byte[] ogBytes = Snappy.uncompress(bytes);
             byteArrayInputStream = new ByteArrayInputStream(ogBytes);
             return unmarshaller.unmarshal(clazz, byteArrayInputStream);
@@ -19,10 +19,27 @@ package org.springframework.obm.support;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.obm.Marshaller;
+import org.springframework.obm.TypedCodec;
 import org.springframework.obm.Unmarshaller;
 
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+
 /**
  * Simple base class to make sure we make as many things common and reusable as possible
+ * <p/>
+ * <P>Provides bridges from the {@link ByteBuffer} and {@link WritableByteChannel} variants to the stream based
+ * variants. Subclasses that can work on buffers directly should override them.
+ * <P>Likewise, the sequence methods are implemented on top of the single object methods: each object is marshalled into a
+ * buffer that's reused from one object to the next, so that its length can be written in front of it, and each object is unmarshalled
+ * from a stream limited to its length.
+ * <P>{@link #prepare(Class)} returns a handle that calls back into the marshaller. Subclasses that resolve anything
+ * per type should override it to resolve it up front.
  *
  * @author Josh Long
  */
@@ -31,5 +48,61 @@ abstract public class AbstractMarshaller<T> implements Marshaller<T>, Unmarshall
 
     protected Log log = LogFactory.getLog(getClass());
 
+    /**
+     * the size of the buffer used when bridging {@link #marshal(Object, WritableByteChannel)} to a stream
+     */
+    protected int channelBufferSize = 8 * 1024;
+
+    public void setChannelBufferSize(int channelBufferSize) {
+        this.channelBufferSize = channelBufferSize;
+    }
+
+    @Override
+    public void marshal(T obj, ByteBuffer buffer) throws Exception {
+        marshal(obj, new ByteBufferOutputStream(buffer));
+    }
+
+    @Override
+    public void marshal(T obj, WritableByteChannel channel) throws Exception {
+        OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel), this.channelBufferSize);
+        marshal(obj, outputStream);
+        outputStream.flush();
+    }
+
+    @Override
+    public T unmarshal(Class<T> clazz, ByteBuffer source) throws Exception {
+        ByteBufferInputStream inputStream = new ByteBufferInputStream(source);
+        try {
+            return unmarshal(clazz, inputStream);
+        } finally {
+            source.position(source.limit());
+        }
+    }
+
+    @Override
+    public void marshalAll(Iterator<? extends T> objects, OutputStream os) throws Exception {
+        ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream(512);
+        while (objects.hasNext()) {
+            buffer.reset();
+            marshal(objects.next(), buffer);
+            VarintUtils.writeVarint(buffer.size(), os);
+            os.write(buffer.getBuffer(), 0, buffer.size());
+        }
+    }
+
+    @Override
+    public Iterator<T> unmarshalAll(final Class<T> clazz, InputStream source) throws Exception {
+        return new DelimitedIterator<T>(source) {
+            @Override
+            protected T read(LimitedInputStream record, int length) throws Exception {
+                return unmarshal(clazz, record);
+            }
+        };
+    }
+
+    @Override
+    public TypedCodec<T> prepare(Class<T> clazz) throws Exception {
+        return new DelegatingTypedCodec<T>(clazz, this, this);
+    }
 
 }
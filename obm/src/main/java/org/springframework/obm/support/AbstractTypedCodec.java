@@ -0,0 +1,45 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.support;
+
+import org.springframework.obm.TypedCodec;
+import org.springframework.util.Assert;
+
+/**
+ * Base class for {@link TypedCodec} implementations
+ *
+ * @author Josh Long
+ */
+public abstract class AbstractTypedCodec<T> implements TypedCodec<T> {
+
+    private final Class<T> type;
+
+    protected AbstractTypedCodec(Class<T> type) {
+        Assert.notNull(type, "the type must not be null");
+        this.type = type;
+    }
+
+    @Override
+    public Class<T> getType() {
+        return this.type;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + this.type.getName() + "]";
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.support;
+
+import org.springframework.util.Assert;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link OutputStream} that writes straight into a {@link ByteBuffer}, starting at the buffer's position.
+ * Nothing is buffered or copied on the way; writing past the buffer's limit throws a
+ * {@link java.nio.BufferOverflowException}.
+ *
+ * @author Josh Long
+ * @see ByteBufferInputStream
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferOutputStream(ByteBuffer buffer) {
+        Assert.notNull(buffer, "the buffer must not be null");
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        this.buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) {
+        this.buffer.put(bytes, off, len);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.support;
+
+import org.springframework.obm.Marshaller;
+import org.springframework.obm.Unmarshaller;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link org.springframework.obm.TypedCodec} that simply calls through to a {@link Marshaller} and an {@link Unmarshaller},
+ * for implementations that have no per-type work worth doing up front
+ *
+ * @author Josh Long
+ */
+public class DelegatingTypedCodec<T> extends AbstractTypedCodec<T> {
+
+    private final Marshaller<T> marshaller;
+
+    private final Unmarshaller<T> unmarshaller;
+
+    public DelegatingTypedCodec(Class<T> type, Marshaller<T> marshaller, Unmarshaller<T> unmarshaller) {
+        super(type);
+        this.marshaller = marshaller;
+        this.unmarshaller = unmarshaller;
+    }
+
+    @Override
+    public void encode(T obj, OutputStream os) throws Exception {
+        this.marshaller.marshal(obj, os);
+    }
+
+    @Override
+    public T decode(InputStream source) throws Exception {
+        return this.unmarshaller.unmarshal(getType(), source);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <P>Lazy {@link Iterator} over a stream of length delimited records, each preceded by its length as a varint
+ * (see {@link VarintUtils}). A record is only read when it's asked for, and nothing is kept once it's been handed out, so
+ * iterating over a stream takes the same memory however many records it holds.
+ * <P>A failure to read a record is rethrown from {@link #hasNext()} or {@link #next()} as a {@link RuntimeException}.
+ *
+ * @author Josh Long
+ */
+public abstract class DelimitedIterator<T> implements Iterator<T> {
+
+    /**
+     * the length of the next record isn't known yet
+     */
+    private static final int UNREAD = -2;
+
+    private final InputStream source;
+
+    private int nextLength = UNREAD;
+
+    protected DelimitedIterator(InputStream source) {
+        this.source = source;
+    }
+
+    /**
+     * reads one record. The stream is positioned at the start of the record, and whatever of the record's bytes
+     * this doesn't consume is skipped afterwards
+     *
+     * @param source the stream, limited to the record's bytes
+     * @param length the record's length
+     * @return the record
+     */
+    protected abstract T read(LimitedInputStream source, int length) throws Exception;
+
+    @Override
+    public boolean hasNext() {
+        if (this.nextLength == UNREAD) {
+            try {
+                this.nextLength = VarintUtils.readVarintOrEnd(this.source);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return this.nextLength >= 0;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LimitedInputStream record = new LimitedInputStream(this.source, this.nextLength);
+        int length = this.nextLength;
+        this.nextLength = UNREAD;
+        try {
+            T result = read(record, length);
+            record.skipRemaining();
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("records can't be removed from a stream");
+    }
+}
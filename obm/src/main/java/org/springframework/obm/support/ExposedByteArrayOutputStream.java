@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.support;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * {@link ByteArrayOutputStream} that hands out its internal buffer instead of a copy of it, for callers that
+ * only need to read the first {@link #size()} bytes and want to avoid the copy {@link #toByteArray()} makes.
+ *
+ * @author Josh Long
+ */
+public class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+    public ExposedByteArrayOutputStream() {
+        super();
+    }
+
+    public ExposedByteArrayOutputStream(int size) {
+        super(size);
+    }
+
+    /**
+     * @return the internal buffer, of which only the first {@link #size()} bytes are valid. It's replaced as the
+     *         stream grows, so don't hold on to it across writes
+     */
+    public byte[] getBuffer() {
+        return this.buf;
+    }
+}
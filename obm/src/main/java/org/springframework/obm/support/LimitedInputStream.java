@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.support;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link InputStream} that reads at most a given number of bytes from another stream and then reports the end of the stream,
+ * so that a reader that consumes everything up to the end of its input only consumes one length delimited frame.
+ * Closing it doesn't close the underlying stream.
+ *
+ * @author Josh Long
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+    private int remaining;
+
+    public LimitedInputStream(InputStream in, int limit) {
+        super(in);
+        this.remaining = limit;
+    }
+
+    /**
+     * @return how many bytes can still be read before the limit
+     */
+    public int getRemaining() {
+        return this.remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.remaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b >= 0) {
+            this.remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        if (this.remaining <= 0) {
+            return -1;
+        }
+        int count = in.read(bytes, off, Math.min(len, this.remaining));
+        if (count > 0) {
+            this.remaining -= count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, this.remaining));
+        this.remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return Math.min(in.available(), this.remaining);
+    }
+
+    /**
+     * skips whatever is left up to the limit
+     */
+    public void skipRemaining() throws IOException {
+        while (this.remaining > 0) {
+            if (skip(this.remaining) <= 0 && read() < 0) {
+                throw new EOFException("the stream ended " + this.remaining + " bytes short of the limit");
+            }
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // the underlying stream is not ours to close
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.support;
+
+import org.springframework.obm.Marshaller;
+import org.springframework.obm.TypedCodec;
+import org.springframework.obm.Unmarshaller;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the {@link TypedCodec}s {@link Marshaller#prepare(Class) prepared} by a {@link Marshaller} (for writing) and an
+ * {@link Unmarshaller} (for reading), so that each type is only prepared once. Used by the HTTP and JMS message converters.
+ *
+ * @author Josh Long
+ */
+public class TypedCodecCache {
+
+    private final Marshaller<?> marshaller;
+
+    private final Unmarshaller<?> unmarshaller;
+
+    private final ConcurrentMap<Class<?>, TypedCodec<?>> encoders = new ConcurrentHashMap<Class<?>, TypedCodec<?>>();
+
+    private final ConcurrentMap<Class<?>, TypedCodec<?>> decoders = new ConcurrentHashMap<Class<?>, TypedCodec<?>>();
+
+    public TypedCodecCache(Marshaller<?> marshaller, Unmarshaller<?> unmarshaller) {
+        Assert.notNull(marshaller, "the marshaller must not be null");
+        Assert.notNull(unmarshaller, "the unmarshaller must not be null");
+        this.marshaller = marshaller;
+        this.unmarshaller = unmarshaller;
+    }
+
+    /**
+     * @return the codec the {@link Marshaller} prepared for the type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> TypedCodec<T> getEncoder(Class<T> type) throws Exception {
+        TypedCodec<T> codec = (TypedCodec<T>) this.encoders.get(type);
+        if (codec == null) {
+            codec = ((Marshaller<T>) this.marshaller).prepare(type);
+            TypedCodec<T> existing = (TypedCodec<T>) this.encoders.putIfAbsent(type, codec);
+            if (existing != null) {
+                codec = existing;
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * @return the codec the {@link Unmarshaller} prepared for the type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> TypedCodec<T> getDecoder(Class<T> type) throws Exception {
+        TypedCodec<T> codec = (TypedCodec<T>) this.decoders.get(type);
+        if (codec == null) {
+            codec = ((Unmarshaller<T>) this.unmarshaller).prepare(type);
+            TypedCodec<T> existing = (TypedCodec<T>) this.decoders.putIfAbsent(type, codec);
+            if (existing != null) {
+                codec = existing;
+            }
+        }
+        return codec;
+    }
+}
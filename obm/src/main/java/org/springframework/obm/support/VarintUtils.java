@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.support;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads and writes unsigned base 128 varints, the length prefix Protocol Buffers uses for delimited messages
+ * and that the sequence methods of the {@link org.springframework.obm.Marshaller marshallers} use for every format.
+ *
+ * @author Josh Long
+ */
+public abstract class VarintUtils {
+
+    /**
+     * the longest a 32 bit varint can be
+     */
+    public static final int MAX_VARINT_SIZE = 5;
+
+    public static int computeVarintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void writeVarint(int value, OutputStream outputStream) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            outputStream.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        outputStream.write(value);
+    }
+
+    /**
+     * @return the position just past the varint
+     */
+    public static int writeVarint(int value, byte[] dest, int position) {
+        while ((value & ~0x7f) != 0) {
+            dest[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        dest[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * reads a varint that may be the first thing past the end of the stream. Only lengths are written as varints, so
+     * anything that doesn't fit in a non negative int is malformed
+     *
+     * @return the value, or -1 if (and only if) the stream ended before the varint's first byte
+     * @throws EOFException if the stream ends in the middle of the varint
+     * @throws IOException  if the varint is longer than {@link #MAX_VARINT_SIZE} bytes, or its value is negative
+     */
+    public static int readVarintOrEnd(InputStream inputStream) throws IOException {
+        int b = inputStream.read();
+        if (b < 0) {
+            return -1;
+        }
+        int value = b & 0x7f;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = inputStream.read();
+            if (b < 0) {
+                throw new EOFException("the stream ended in the middle of a varint");
+            }
+            if (shift == 7 * (MAX_VARINT_SIZE - 1) && b > 0x0f) {
+                throw new IOException("malformed varint"); // more than 32 bits, or more than 5 bytes
+            }
+            value |= (b & 0x7f) << shift;
+        }
+        if (value < 0) {
+            throw new IOException("malformed varint");
+        }
+        return value;
+    }
+
+    public static int readVarint(InputStream inputStream) throws IOException {
+        int value = readVarintOrEnd(inputStream);
+        if (value == -1) {
+            throw new EOFException("the stream ended before the varint");
+        }
+        return value;
+    }
+}
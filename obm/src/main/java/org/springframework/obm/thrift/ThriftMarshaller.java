@@ -17,54 +17,101 @@
 package org.springframework.obm.thrift;
 
 import org.apache.thrift.TBase;
-import org.apache.thrift.TDeserializer;
-import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.obm.TypedCodec;
 import org.springframework.obm.support.AbstractMarshaller;
+import org.springframework.obm.support.AbstractTypedCodec;
+import org.springframework.obm.support.DelimitedIterator;
+import org.springframework.obm.support.ExposedByteArrayOutputStream;
+import org.springframework.obm.support.LimitedInputStream;
+import org.springframework.obm.support.VarintUtils;
+import org.springframework.obm.thrift.util.ByteBufferTransport;
+import org.springframework.obm.thrift.util.StreamTransport;
 import org.springframework.oxm.XmlMappingException;
 import org.springframework.util.Assert;
-import org.springframework.util.FileCopyUtils;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * implementation of {@link org.springframework.obm.Marshaller} and {@link org.springframework.obm.Unmarshaller}
  * that supports Apache Thrift (http://thrift.apache.org/).
+ * <p/>
+ * <P>Objects are written straight to the target {@link OutputStream} (or {@link ByteBuffer}) and read straight
+ * from the source, through a transport and protocol pair that each thread builds once and then reuses. This makes
+ * the marshaller safe to share between threads.
+ * <p/>
+ * <P>The wire format is set by the {@link #setProtocolFactory(TProtocolFactory) protocolFactory}, which is
+ * {@link TBinaryProtocol} by default. Use {@link org.apache.thrift.protocol.TCompactProtocol.Factory} for
+ * smaller payloads; both sides must of course agree.
  *
  * @author Josh Long
  */
 public class ThriftMarshaller<T extends TBase> extends AbstractMarshaller<T> implements InitializingBean {
 
-    private TSerializer serializer;
+    private TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
 
-    private TDeserializer deserializer;
+    private int writeBufferSize = 4 * 1024;
 
-    public void setDeserializer(TDeserializer deserializer) {
-        this.deserializer = deserializer;
+    private final ConcurrentMap<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+    private final ThreadLocal<ThriftCodec> codecs = new ThreadLocal<ThriftCodec>() {
+        @Override
+        protected ThriftCodec initialValue() {
+            return new ThriftCodec(protocolFactory, writeBufferSize);
+        }
+    };
+
+    /**
+     * the factory for the protocol used to read and write objects. Must be set before the marshaller is used.
+     *
+     * @param protocolFactory the protocol factory
+     */
+    public void setProtocolFactory(TProtocolFactory protocolFactory) {
+        this.protocolFactory = protocolFactory;
     }
 
-    public void setSerializer(TSerializer serializer) {
-        this.serializer = serializer;
+    /**
+     * the size of the per-thread buffer that collects small writes before they're handed to the target stream
+     *
+     * @param writeBufferSize the size, in bytes
+     */
+    public void setWriteBufferSize(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
     }
 
     @Override
     public boolean supports(Class clazz) {
-        return true;
+        return TBase.class.isAssignableFrom(clazz);
     }
 
     @Override
     public void marshal(T obj, OutputStream os) throws IOException, XmlMappingException {
         Assert.isInstanceOf(TBase.class, obj);
+        ThriftCodec codec = this.codecs.get();
         try {
-            byte[] bytesForObj = this.serializer.serialize(obj);
-            FileCopyUtils.copy(bytesForObj, os);
+            codec.streamTransport.setOutputStream(os);
+            codec.streamProtocol.reset();
+            obj.write(codec.streamProtocol);
+            codec.streamTransport.flush();
         } catch (Throwable e) {
             if (log.isErrorEnabled()) {
-                log.error("something occurred when trying to TSerializer#serialize() the response", e);
+                log.error("something occurred when trying to TBase#write() the response", e);
             }
             throw new RuntimeException(e);
+        } finally {
+            codec.streamTransport.release();
         }
     }
 
@@ -72,31 +119,183 @@ public class ThriftMarshaller<T extends TBase> extends AbstractMarshaller<T> imp
     public T unmarshal(Class<T> clazz, InputStream source) throws IOException, XmlMappingException {
         Assert.isTrue(TBase.class.isAssignableFrom(clazz), "the request payload must be a subclas of TBase");
         try {
-            T obj = clazz.newInstance();
+            return read(getConstructor(clazz), source);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            byte[] bytes = FileCopyUtils.copyToByteArray(source);
+    /**
+     * the returned handle holds on to the type's constructor
+     */
+    @Override
+    public TypedCodec<T> prepare(Class<T> clazz) throws Exception {
+        Assert.isTrue(TBase.class.isAssignableFrom(clazz), "the request payload must be a subclas of TBase");
+        final Constructor<T> constructor = getConstructor(clazz);
+        return new AbstractTypedCodec<T>(clazz) {
+            @Override
+            public void encode(T obj, OutputStream os) throws Exception {
+                marshal(obj, os);
+            }
 
-            this.deserializer.deserialize(obj, bytes);
+            @Override
+            public T decode(InputStream source) throws Exception {
+                return read(constructor, source);
+            }
+        };
+    }
 
+    protected T read(Constructor<T> constructor, InputStream source) {
+        ThriftCodec codec = this.codecs.get();
+        try {
+            T obj = constructor.newInstance();
+            codec.streamTransport.setInputStream(source);
+            codec.streamProtocol.reset();
+            obj.read(codec.streamProtocol);
             return obj;
         } catch (Throwable e) {
             if (log.isErrorEnabled()) {
-                log.error("something occurred when trying to TDeserializer#deserialize() the incoming request", e);
+                log.error("something occurred when trying to TBase#read() the incoming request", e);
             }
             throw new RuntimeException(e);
+        } finally {
+            codec.streamTransport.release();
         }
     }
 
+    @Override
+    public void marshal(T obj, ByteBuffer buffer) throws Exception {
+        Assert.isInstanceOf(TBase.class, obj);
+        ThriftCodec codec = this.codecs.get();
+        try {
+            codec.bufferTransport.setByteBuffer(buffer);
+            codec.bufferProtocol.reset();
+            obj.write(codec.bufferProtocol);
+        } catch (BufferOverflowException e) {
+            throw e;
+        } catch (Throwable e) {
+            if (log.isErrorEnabled()) {
+                log.error("something occurred when trying to TBase#write() the response", e);
+            }
+            throw new RuntimeException(e);
+        }
+    }
 
     @Override
-    public void afterPropertiesSet() throws Exception {
-        if (serializer == null) {
-            this.serializer = new TSerializer();
+    public T unmarshal(Class<T> clazz, ByteBuffer source) throws Exception {
+        Assert.isTrue(TBase.class.isAssignableFrom(clazz), "the request payload must be a subclas of TBase");
+        ThriftCodec codec = this.codecs.get();
+        try {
+            T obj = newInstance(clazz);
+            codec.bufferTransport.setByteBuffer(source);
+            codec.bufferProtocol.reset();
+            obj.read(codec.bufferProtocol);
+            return obj;
+        } catch (Throwable e) {
+            if (log.isErrorEnabled()) {
+                log.error("something occurred when trying to TBase#read() the incoming request", e);
+            }
+            throw new RuntimeException(e);
+        } finally {
+            source.position(source.limit());
         }
+    }
 
-        if (deserializer == null) {
-            this.deserializer = new TDeserializer();
+    /**
+     * one transport and protocol pair is built for the sequence and shared by all of its objects
+     */
+    @Override
+    public void marshalAll(Iterator<? extends T> objects, OutputStream os) throws Exception {
+        ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream(512);
+        StreamTransport transport = new StreamTransport(this.writeBufferSize);
+        transport.setOutputStream(buffer);
+        TProtocol protocol = this.protocolFactory.getProtocol(transport);
+        while (objects.hasNext()) {
+            T obj = objects.next();
+            Assert.isInstanceOf(TBase.class, obj);
+            buffer.reset();
+            protocol.reset();
+            obj.write(protocol);
+            transport.flush();
+            VarintUtils.writeVarint(buffer.size(), os);
+            os.write(buffer.getBuffer(), 0, buffer.size());
         }
     }
-}
 
+    /**
+     * one transport and protocol pair is built for the sequence and shared by all of its objects, which are
+     * read from a buffer that's reused from one object to the next
+     */
+    @Override
+    public Iterator<T> unmarshalAll(final Class<T> clazz, InputStream source) throws Exception {
+        Assert.isTrue(TBase.class.isAssignableFrom(clazz), "the request payload must be a subclas of TBase");
+        final Constructor<T> constructor = getConstructor(clazz);
+        final ByteBufferTransport transport = new ByteBufferTransport();
+        final TProtocol protocol = this.protocolFactory.getProtocol(transport);
+        return new DelimitedIterator<T>(source) {
+
+            private byte[] bytes = new byte[512];
+
+            @Override
+            protected T read(LimitedInputStream record, int length) throws Exception {
+                if (length > this.bytes.length) {
+                    this.bytes = new byte[Math.max(length, this.bytes.length * 2)];
+                }
+                new DataInputStream(record).readFully(this.bytes, 0, length);
+                T obj = constructor.newInstance();
+                transport.setByteBuffer(ByteBuffer.wrap(this.bytes, 0, length));
+                protocol.reset();
+                obj.read(protocol);
+                return obj;
+            }
+        };
+    }
+
+    /**
+     * creates a new, empty instance of the class through its no-arg constructor, which is looked up once per class
+     */
+    protected T newInstance(Class<T> clazz) throws Exception {
+        return getConstructor(clazz).newInstance();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Constructor<T> getConstructor(Class<T> clazz) throws Exception {
+        Constructor<T> constructor = (Constructor<T>) this.constructors.get(clazz);
+        if (constructor == null) {
+            constructor = clazz.getDeclaredConstructor();
+            if (!constructor.isAccessible()) {
+                constructor.setAccessible(true);
+            }
+            this.constructors.putIfAbsent(clazz, constructor);
+        }
+        return constructor;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.protocolFactory, "the 'protocolFactory' can't be null");
+        Assert.isTrue(this.writeBufferSize > 0, "the 'writeBufferSize' must be greater than 0");
+    }
+
+    /**
+     * the transports and protocols owned by a single thread
+     */
+    private static class ThriftCodec {
+
+        private final StreamTransport streamTransport;
+
+        private final TProtocol streamProtocol;
+
+        private final ByteBufferTransport bufferTransport = new ByteBufferTransport();
+
+        private final TProtocol bufferProtocol;
+
+        private ThriftCodec(TProtocolFactory protocolFactory, int writeBufferSize) {
+            this.streamTransport = new StreamTransport(writeBufferSize);
+            this.streamProtocol = protocolFactory.getProtocol(this.streamTransport);
+            this.bufferProtocol = protocolFactory.getProtocol(this.bufferTransport);
+        }
+    }
+}
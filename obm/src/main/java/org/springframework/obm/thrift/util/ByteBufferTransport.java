@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.thrift.util;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.springframework.util.Assert;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link TTransport} that reads from and writes to a {@link ByteBuffer}, starting at the buffer's position.
+ * Heap and direct buffers are both supported, and nothing is copied on the way in or out. Writing past the
+ * buffer's limit throws a {@link java.nio.BufferOverflowException}.
+ *
+ * @author Josh Long
+ */
+public class ByteBufferTransport extends TTransport {
+
+    private ByteBuffer buffer;
+
+    public ByteBufferTransport() {
+    }
+
+    public ByteBufferTransport(ByteBuffer buffer) {
+        setByteBuffer(buffer);
+    }
+
+    /**
+     * points the transport at a new buffer, so that one transport (and protocol) can be reused for many messages
+     *
+     * @param buffer the buffer
+     */
+    public void setByteBuffer(ByteBuffer buffer) {
+        Assert.notNull(buffer, "the buffer must not be null");
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer getByteBuffer() {
+        return this.buffer;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void open() throws TTransportException {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws TTransportException {
+        int count = Math.min(len, this.buffer.remaining());
+        if (len > 0 && count == 0) {
+            throw new TTransportException(TTransportException.END_OF_FILE, "no bytes remaining in the buffer");
+        }
+        this.buffer.get(bytes, off, count);
+        return count;
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws TTransportException {
+        this.buffer.put(bytes, off, len);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.thrift.util;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <P>{@link TTransport} over a pair of streams that can be swapped, so that one transport (and the protocol
+ * built on top of it) can be reused for many messages.
+ * <P>Reads go straight to the {@link InputStream}; nothing is read ahead, so the stream is left positioned just
+ * after the message. Writes are collected in a fixed size buffer (reused from message to message) and
+ * handed to the {@link OutputStream} whenever it fills up and on {@link #flush()}.
+ * <P>Like the protocols, instances are not thread safe.
+ *
+ * @author Josh Long
+ */
+public class StreamTransport extends TTransport {
+
+    private InputStream inputStream;
+
+    private OutputStream outputStream;
+
+    private final byte[] writeBuffer;
+
+    private int writePosition = 0;
+
+    public StreamTransport(int writeBufferSize) {
+        Assert.isTrue(writeBufferSize > 0, "the 'writeBufferSize' must be greater than 0");
+        this.writeBuffer = new byte[writeBufferSize];
+    }
+
+    public void setInputStream(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    public void setOutputStream(OutputStream outputStream) {
+        this.writePosition = 0;
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * forgets the current streams (without closing them)
+     */
+    public void release() {
+        this.inputStream = null;
+        this.outputStream = null;
+        this.writePosition = 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void open() throws TTransportException {
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws TTransportException {
+        Assert.notNull(this.inputStream, "there is no input stream to read from");
+        int count;
+        try {
+            count = this.inputStream.read(bytes, off, len);
+        } catch (IOException e) {
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        }
+        if (count < 0) {
+            throw new TTransportException(TTransportException.END_OF_FILE);
+        }
+        return count;
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws TTransportException {
+        Assert.notNull(this.outputStream, "there is no output stream to write to");
+        if (len > this.writeBuffer.length - this.writePosition) {
+            drain();
+            if (len >= this.writeBuffer.length) {
+                try {
+                    this.outputStream.write(bytes, off, len);
+                } catch (IOException e) {
+                    throw new TTransportException(TTransportException.UNKNOWN, e);
+                }
+                return;
+            }
+        }
+        System.arraycopy(bytes, off, this.writeBuffer, this.writePosition, len);
+        this.writePosition += len;
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        drain();
+        try {
+            this.outputStream.flush();
+        } catch (IOException e) {
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        }
+    }
+
+    private void drain() throws TTransportException {
+        if (this.writePosition == 0) {
+            return;
+        }
+        try {
+            this.outputStream.write(this.writeBuffer, 0, this.writePosition);
+        } catch (IOException e) {
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        } finally {
+            this.writePosition = 0;
+        }
+    }
+}
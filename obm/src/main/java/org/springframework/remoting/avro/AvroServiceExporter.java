@@ -17,6 +17,7 @@ package org.springframework.remoting.avro;
 
 import org.apache.avro.ipc.ResponderRequestHandlerUtils;
 import org.springframework.http.MediaType;
+import org.springframework.remoting.support.AsyncRequestHandlerSupport;
 import org.springframework.util.Assert;
 import org.springframework.web.HttpRequestHandler;
 
@@ -24,6 +25,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * <p/>
@@ -33,6 +36,9 @@ import java.io.IOException;
  * <p/>
  * You do not need a ful {@link org.springframework.web.servlet.DispatcherServlet}, a {@link org.springframework.web.context.support.HttpRequestHandlerServlet}
  * will suffice, although it lacks the mapping support in the {@link org.springframework.web.servlet.DispatcherServlet}.
+ * <p/>
+ * Given an {@link #setAsyncSupport(AsyncRequestHandlerSupport) asyncSupport}, requests are responded to off the
+ * container's thread on a Servlet 3 container.
  *
  * @author Josh Long
  * @see org.springframework.remoting.caucho.HessianServiceExporter
@@ -41,13 +47,40 @@ public class AvroServiceExporter extends AbstractAvroExporter implements HttpReq
 
     private MediaType mediaType = new MediaType("avro", "binary");
 
+    private AsyncRequestHandlerSupport asyncSupport;
+
     public void setMediaType(MediaType mediaType) {
         this.mediaType = mediaType;
     }
 
+    /**
+     * invokes the service and writes the response on the support's executor. Unset by default, in which case requests
+     * are handled on the container's thread
+     */
+    public void setAsyncSupport(AsyncRequestHandlerSupport asyncSupport) {
+        this.asyncSupport = asyncSupport;
+    }
+
     @Override
     public void handleRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         Assert.notNull(this.mediaType, "the 'MEDIA_TYPE' property should not be null");
-        ResponderRequestHandlerUtils.handleRequest(this.mediaType, request, response, getResponder());
+        if (this.asyncSupport == null || !this.asyncSupport.isAsyncSupported(request)) {
+            ResponderRequestHandlerUtils.handleRequest(this.mediaType, request, response, getResponder());
+            return;
+        }
+
+        response.setContentType(this.mediaType.toString());
+        final List<ByteBuffer> requestBufs = ResponderRequestHandlerUtils.readRequest(request);
+        this.asyncSupport.execute(request, response, new AsyncRequestHandlerSupport.AsyncTask<List<ByteBuffer>>() {
+            @Override
+            public List<ByteBuffer> process() throws Exception {
+                return ResponderRequestHandlerUtils.respond(getResponder(), requestBufs);
+            }
+
+            @Override
+            public void writeResponse(List<ByteBuffer> responseBufs, HttpServletResponse response) throws Exception {
+                ResponderRequestHandlerUtils.writeResponse(responseBufs, response);
+            }
+        });
     }
 }
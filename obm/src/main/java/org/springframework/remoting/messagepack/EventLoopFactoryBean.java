@@ -26,6 +26,10 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 /**
+ * Builds an {@link EventLoop}. Unless the executors are provided, the loop comes from the
+ * {@link EventLoopRegistry#getDefaultRegistry() shared registry} and is shared with every other client and
+ * exporter using the same pool sizes; it is then released, rather than shut down, when this bean is destroyed.
+ *
  * @author Josh Long
  */
 public class EventLoopFactoryBean implements FactoryBean<EventLoop>, InitializingBean, DisposableBean {
@@ -34,6 +38,8 @@ public class EventLoopFactoryBean implements FactoryBean<EventLoop>, Initializin
     private ExecutorService ioExecutor;
     private ScheduledExecutorService scheduledExecutorService;
     private EventLoop eventLoop;
+    private EventLoopRegistry eventLoopRegistry = EventLoopRegistry.getDefaultRegistry();
+    private boolean shared = false;
 
     @Override
     public EventLoop getObject() throws Exception {
@@ -63,17 +69,40 @@ public class EventLoopFactoryBean implements FactoryBean<EventLoop>, Initializin
         this.scheduledExecutorService = scheduledExecutorService;
     }
 
-    private int ioThreads = 10;
-    private int workerThreads = 10;
-    private int scheduledThreads = 10;
+    public void setEventLoopRegistry(EventLoopRegistry eventLoopRegistry) {
+        this.eventLoopRegistry = eventLoopRegistry;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setScheduledThreads(int scheduledThreads) {
+        this.scheduledThreads = scheduledThreads;
+    }
+
+    private int ioThreads = EventLoopRegistry.DEFAULT_THREADS;
+    private int workerThreads = EventLoopRegistry.DEFAULT_THREADS;
+    private int scheduledThreads = EventLoopRegistry.DEFAULT_THREADS;
 
     @Override
-    public void afterPropertiesSet() throws Exception {
+    public synchronized void afterPropertiesSet() throws Exception {
 
         if (this.setup) {
             return;
         }
 
+        if (this.workerExecutor == null && this.ioExecutor == null && this.scheduledExecutorService == null) {
+            this.eventLoop = this.eventLoopRegistry.acquire(this.workerThreads, this.ioThreads, this.scheduledThreads);
+            this.shared = true;
+            this.setup = true;
+            return;
+        }
+
         if (this.workerExecutor == null) {
             this.workerExecutor = Executors.newFixedThreadPool(this.workerThreads);
         }
@@ -94,7 +123,15 @@ public class EventLoopFactoryBean implements FactoryBean<EventLoop>, Initializin
 
 
     @Override
-    public void destroy() throws Exception {
-        eventLoop.shutdown();
+    public synchronized void destroy() throws Exception {
+        if (!this.setup) {
+            return;
+        }
+        this.setup = false;
+        if (this.shared) {
+            this.eventLoopRegistry.release(this.eventLoop);
+        } else {
+            this.eventLoop.shutdown();
+        }
     }
 }
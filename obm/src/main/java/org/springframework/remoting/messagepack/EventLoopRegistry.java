@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.messagepack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.msgpack.rpc.loop.EventLoop;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * <P>Hands out {@link EventLoop}s that are shared by every client and exporter asking for the same pool sizes.
+ * <P>Each {@link #acquire(int, int, int)} must be matched by exactly one {@link #release(EventLoop)}. A loop is
+ * started on the first acquire for its configuration and is shut down, along with its thread pools, when the last
+ * user releases it. Acquiring the same configuration after that starts a new loop.
+ * <P>{@link MessagePackProxyFactoryBean}, {@link MessagePackExporter} and {@link EventLoopFactoryBean} all use the
+ * {@link #getDefaultRegistry() default registry} unless they are given a loop (or a registry) explicitly, so that an
+ * application with many client proxies doesn't end up with a set of thread pools for each of them.
+ *
+ * @author Josh Long
+ */
+public class EventLoopRegistry {
+
+    /**
+     * the default size of each of the pools backing a loop: the number of available processors
+     */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final EventLoopRegistry DEFAULT_REGISTRY = new EventLoopRegistry();
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private final Map<Key, SharedEventLoop> loopsByKey = new HashMap<Key, SharedEventLoop>();
+
+    private final Map<EventLoop, SharedEventLoop> loops = new IdentityHashMap<EventLoop, SharedEventLoop>();
+
+    /**
+     * @return the registry shared by everything in this class loader that isn't configured with its own
+     */
+    public static EventLoopRegistry getDefaultRegistry() {
+        return DEFAULT_REGISTRY;
+    }
+
+    /**
+     * acquires the loop whose pools are all {@link #DEFAULT_THREADS} threads large
+     */
+    public EventLoop acquire() {
+        return acquire(DEFAULT_THREADS, DEFAULT_THREADS, DEFAULT_THREADS);
+    }
+
+    /**
+     * acquires the loop for the given pool sizes, starting it if nobody else is using it
+     *
+     * @param workerThreads    the number of threads that run the invocations
+     * @param ioThreads        the number of threads that do the network I/O
+     * @param scheduledThreads the number of threads that run the timers (request timeouts, for example)
+     * @return the loop. Hand it back to {@link #release(EventLoop)} once done with it
+     */
+    public synchronized EventLoop acquire(int workerThreads, int ioThreads, int scheduledThreads) {
+        Assert.isTrue(workerThreads > 0 && ioThreads > 0 && scheduledThreads > 0, "the pool sizes must be positive");
+        Key key = new Key(workerThreads, ioThreads, scheduledThreads);
+        SharedEventLoop shared = loopsByKey.get(key);
+        if (shared == null) {
+            shared = new SharedEventLoop(key);
+            loopsByKey.put(key, shared);
+            loops.put(shared.eventLoop, shared);
+            if (log.isDebugEnabled()) {
+                log.debug("started a shared EventLoop for " + key);
+            }
+        }
+        shared.references++;
+        return shared.eventLoop;
+    }
+
+    /**
+     * gives back a loop obtained from {@link #acquire(int, int, int)}, shutting it down if this was its last user
+     *
+     * @param eventLoop the loop
+     */
+    public void release(EventLoop eventLoop) {
+        SharedEventLoop shared;
+        synchronized (this) {
+            shared = loops.get(eventLoop);
+            Assert.notNull(shared, "the EventLoop was not acquired from this registry, or has already been released by all of its users");
+            if (--shared.references > 0) {
+                return;
+            }
+            loops.remove(eventLoop);
+            loopsByKey.remove(shared.key);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("shutting down the shared EventLoop for " + shared.key);
+        }
+        shared.shutdown();
+    }
+
+    /**
+     * @param eventLoop the loop
+     * @return the number of users currently holding the loop, 0 if it isn't (or is no longer) managed by this registry
+     */
+    public synchronized int getReferenceCount(EventLoop eventLoop) {
+        SharedEventLoop shared = loops.get(eventLoop);
+        return shared == null ? 0 : shared.references;
+    }
+
+    private static class SharedEventLoop {
+
+        private final Key key;
+        private final ExecutorService workerExecutor;
+        private final ExecutorService ioExecutor;
+        private final ScheduledExecutorService scheduledExecutorService;
+        private final EventLoop eventLoop;
+        private int references;
+
+        SharedEventLoop(Key key) {
+            this.key = key;
+            this.workerExecutor = Executors.newFixedThreadPool(key.workerThreads, new CustomizableThreadFactory("msgpack-worker-"));
+            this.ioExecutor = Executors.newFixedThreadPool(key.ioThreads, new CustomizableThreadFactory("msgpack-io-"));
+            this.scheduledExecutorService = Executors.newScheduledThreadPool(key.scheduledThreads, new CustomizableThreadFactory("msgpack-scheduled-"));
+            this.eventLoop = EventLoop.start(this.workerExecutor, this.ioExecutor, this.scheduledExecutorService);
+        }
+
+        void shutdown() {
+            try {
+                this.eventLoop.shutdown();
+            } finally {
+                this.workerExecutor.shutdown();
+                this.ioExecutor.shutdown();
+                this.scheduledExecutorService.shutdown();
+            }
+        }
+    }
+
+    private static class Key {
+
+        private final int workerThreads;
+        private final int ioThreads;
+        private final int scheduledThreads;
+
+        Key(int workerThreads, int ioThreads, int scheduledThreads) {
+            this.workerThreads = workerThreads;
+            this.ioThreads = ioThreads;
+            this.scheduledThreads = scheduledThreads;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return workerThreads == key.workerThreads && ioThreads == key.ioThreads && scheduledThreads == key.scheduledThreads;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * workerThreads + ioThreads) + scheduledThreads;
+        }
+
+        @Override
+        public String toString() {
+            return "workerThreads=" + workerThreads + ", ioThreads=" + ioThreads + ", scheduledThreads=" + scheduledThreads;
+        }
+    }
+}
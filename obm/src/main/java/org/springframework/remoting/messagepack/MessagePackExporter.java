@@ -35,6 +35,10 @@ import java.util.Set;
 
 /**
  * {@link RemoteInvocationBasedExporter} based on the {@link org.msgpack.MessagePack} RPC framework.
+ * <p/>
+ * Unless an {@link #setEventLoop(EventLoop) EventLoop} is provided, the server runs on a loop from the
+ * {@link EventLoopRegistry}, shared with every other client and exporter configured with the same pool sizes,
+ * and releases it when {@link #stop() stopped}.
  *
  * @author Josh Long
  * @see org.springframework.remoting.caucho.HessianExporter
@@ -50,6 +54,11 @@ public class MessagePackExporter extends RemoteInvocationBasedExporter implement
     private int listenPort = 1995;
     private InetSocketAddress address;
     private EventLoop eventLoop;
+    private EventLoopRegistry eventLoopRegistry = EventLoopRegistry.getDefaultRegistry();
+    private boolean sharedEventLoop = false;
+    private int workerThreads = EventLoopRegistry.DEFAULT_THREADS;
+    private int ioThreads = EventLoopRegistry.DEFAULT_THREADS;
+    private int scheduledThreads = EventLoopRegistry.DEFAULT_THREADS;
     private boolean exportServiceParameters = true;
     private boolean serializeJavaBeanProperties = true;
 
@@ -85,6 +94,22 @@ public class MessagePackExporter extends RemoteInvocationBasedExporter implement
         this.eventLoop = eventLoop;
     }
 
+    public void setEventLoopRegistry(EventLoopRegistry eventLoopRegistry) {
+        this.eventLoopRegistry = eventLoopRegistry;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public void setScheduledThreads(int scheduledThreads) {
+        this.scheduledThreads = scheduledThreads;
+    }
+
 
     public void setServer(Server server) {
         this.server = server;
@@ -125,12 +150,10 @@ public class MessagePackExporter extends RemoteInvocationBasedExporter implement
         Assert.notNull(service, "the service target can NOT be null!");
 
         if (eventLoop == null) {
-            EventLoopFactoryBean eventLoopFactoryBean = new EventLoopFactoryBean();
-            eventLoop = eventLoopFactoryBean.getObject();
+            eventLoop = eventLoopRegistry.acquire(this.workerThreads, this.ioThreads, this.scheduledThreads);
+            sharedEventLoop = true;
             if (log.isDebugEnabled()) {
-                log.debug("using EventLoop#defaultEventLoop(). " +
-                                  "Consider using an existing EventLoop," +
-                                  " or using a " + EventLoopFactoryBean.class.getName());
+                log.debug("using a shared EventLoop from the " + EventLoopRegistry.class.getName());
             }
         } else {
             if (log.isDebugEnabled()) {
@@ -194,11 +217,14 @@ public class MessagePackExporter extends RemoteInvocationBasedExporter implement
     }
 
     @Override
-    public void stop() {
+    public synchronized void stop() {
         try {
-            this.eventLoop.shutdown();
-        } finally {
             this.server.close();
+        } finally {
+            if (this.sharedEventLoop) {
+                this.sharedEventLoop = false;
+                this.eventLoopRegistry.release(this.eventLoop);
+            }
         }
     }
 
@@ -25,6 +25,7 @@ import org.msgpack.rpc.config.ClientConfig;
 import org.msgpack.rpc.loop.EventLoop;
 import org.springframework.aop.framework.ProxyFactory;
 import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.obm.messagepack.support.MessagePackRegistrar;
@@ -39,12 +40,16 @@ import java.util.Set;
  * Used to create client side proxies that can communicate with the remote services.
  * <p/>
  * The interface used on the client does <EM>not</EM> need to match the interface exposed on the server.
+ * <p/>
+ * Unless an {@link #setEventLoop(EventLoop) EventLoop} is provided, the client runs on a loop from the
+ * {@link EventLoopRegistry}, shared with every other client and exporter configured with the same pool sizes,
+ * and releases it when this bean is destroyed.
  *
  * @author Josh Long
  * @see org.springframework.remoting.httpinvoker.HttpInvokerProxyFactoryBean
  * @see org.springframework.remoting.rmi.RmiProxyFactoryBean
  */
-public class MessagePackProxyFactoryBean<T> extends RemoteAccessor implements FactoryBean<T>, BeanClassLoaderAware, InitializingBean {
+public class MessagePackProxyFactoryBean<T> extends RemoteAccessor implements FactoryBean<T>, BeanClassLoaderAware, InitializingBean, DisposableBean {
 
     private Log log = LogFactory.getLog(getClass());
     private boolean remapResults = true;
@@ -59,6 +64,11 @@ public class MessagePackProxyFactoryBean<T> extends RemoteAccessor implements Fa
 
     private Client client;
     private EventLoop eventLoop;
+    private EventLoopRegistry eventLoopRegistry = EventLoopRegistry.getDefaultRegistry();
+    private boolean sharedEventLoop = false;
+    private int workerThreads = EventLoopRegistry.DEFAULT_THREADS;
+    private int ioThreads = EventLoopRegistry.DEFAULT_THREADS;
+    private int scheduledThreads = EventLoopRegistry.DEFAULT_THREADS;
     private T proxy;
     private String host = "127.0.0.1";
     private ClassLoader classLoader;
@@ -72,6 +82,29 @@ public class MessagePackProxyFactoryBean<T> extends RemoteAccessor implements Fa
         this.port = port;
     }
 
+    /**
+     * the loop to run the client on. If none is given, one is acquired from the {@link EventLoopRegistry}
+     */
+    public void setEventLoop(EventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    public void setEventLoopRegistry(EventLoopRegistry eventLoopRegistry) {
+        this.eventLoopRegistry = eventLoopRegistry;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public void setScheduledThreads(int scheduledThreads) {
+        this.scheduledThreads = scheduledThreads;
+    }
+
     @Override
     public void setBeanClassLoader(ClassLoader classLoader) {
         this.classLoader = classLoader;
@@ -121,7 +154,8 @@ public class MessagePackProxyFactoryBean<T> extends RemoteAccessor implements Fa
         registrar.afterPropertiesSet();
 
         if (eventLoop == null) {
-            this.eventLoop = new EventLoopFactoryBean().getObject();
+            this.eventLoop = this.eventLoopRegistry.acquire(this.workerThreads, this.ioThreads, this.scheduledThreads);
+            this.sharedEventLoop = true;
         }
         if (clientConfig != null) {
             client = new Client(this.host, this.port, this.clientConfig, this.eventLoop);
@@ -146,6 +180,20 @@ public class MessagePackProxyFactoryBean<T> extends RemoteAccessor implements Fa
 
     }
 
+    @Override
+    public void destroy() throws Exception {
+        try {
+            if (this.client != null) {
+                this.client.close();
+            }
+        } finally {
+            if (this.sharedEventLoop) {
+                this.sharedEventLoop = false;
+                this.eventLoopRegistry.release(this.eventLoop);
+            }
+        }
+    }
+
     /**
      * Should the results be re-built based on heuristics designed to capture the intent of the code
      *
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.support;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <P>Lets an {@link org.springframework.web.HttpRequestHandler} hand the slow part of a request (invoking the service) to an
+ * {@link Executor}, using Servlet 3 asynchronous processing, so that the container's thread goes back to the pool while the
+ * service works. Container thread pools can then be sized for I/O, rather than for the latency of the services.
+ * <P>The request handler reads the request on the container thread, then passes an {@link AsyncTask} to
+ * {@link #execute(HttpServletRequest, HttpServletResponse, AsyncTask)}. The task {@link AsyncTask#process() processes}
+ * the request on the executor, and then {@link AsyncTask#writeResponse(Object, HttpServletResponse) writes} the response,
+ * unless the {@link #setTimeout(long) timeout} has passed by then, in which case the client has already been sent a
+ * <CODE>503</CODE>.
+ * <P>Asynchronous processing needs a Servlet 3 container, and every servlet and filter on the way to the handler has to
+ * be marked <CODE>async-supported</CODE>. When it isn't available, {@link #isAsyncSupported(HttpServletRequest)} says so
+ * and the handler should process the request as it always has.
+ * <P>An instance holds the executor and the {@link #setTimeout(long) timeout}, and keeps no state between requests,
+ * so one bean can be given to several exporters, like
+ * {@link org.springframework.remoting.thrift.ThriftServiceExporter#setAsyncSupport(AsyncRequestHandlerSupport)} and
+ * {@link org.springframework.remoting.avro.AvroServiceExporter#setAsyncSupport(AsyncRequestHandlerSupport)}.
+ *
+ * @author Josh Long
+ */
+public class AsyncRequestHandlerSupport {
+
+    private static final boolean SERVLET_3_PRESENT =
+            ClassUtils.isPresent("javax.servlet.AsyncContext", AsyncRequestHandlerSupport.class.getClassLoader());
+
+    private static final int RUNNING = 0, WRITING = 1, TIMED_OUT = 2;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Executor executor;
+
+    private long timeout = 30 * 1000;
+
+    /**
+     * the work to do for one request, off the container's thread
+     *
+     * @param <T> the result of processing the request
+     */
+    public interface AsyncTask<T> {
+
+        /**
+         * does the slow part of the request, like invoking the service. The response mustn't be touched here
+         */
+        T process() throws Exception;
+
+        /**
+         * writes the result to the response. Only called if the request hasn't timed out
+         */
+        void writeResponse(T result, HttpServletResponse response) throws Exception;
+    }
+
+    public AsyncRequestHandlerSupport(Executor executor) {
+        Assert.notNull(executor, "the executor must not be null");
+        this.executor = executor;
+    }
+
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * how long, in milliseconds, a request may take before the client is sent a <CODE>503</CODE>. Defaults to 30
+     * seconds; 0 or less leaves it to the container
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * @return whether the container and the request support asynchronous processing
+     */
+    public boolean isAsyncSupported(HttpServletRequest request) {
+        if (!SERVLET_3_PRESENT) {
+            return false;
+        }
+        try {
+            return request.isAsyncSupported();
+        } catch (AbstractMethodError e) {
+            // the Servlet 3 API is on the classpath, but the container implements an older version
+            return false;
+        }
+    }
+
+    /**
+     * puts the request into asynchronous mode and runs the task on the executor. Returns straight away
+     */
+    public <T> void execute(HttpServletRequest request, HttpServletResponse response, final AsyncTask<T> task) throws IOException {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        final AtomicInteger state = new AtomicInteger(RUNNING);
+        if (this.timeout > 0) {
+            asyncContext.setTimeout(this.timeout);
+        }
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (state.compareAndSet(RUNNING, TIMED_OUT)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("the request timed out after " + timeout + "ms");
+                    }
+                    sendError(asyncContext, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    T result;
+                    try {
+                        result = task.process();
+                    } catch (Throwable th) {
+                        log.error("could not process the request", th);
+                        if (state.compareAndSet(RUNNING, WRITING)) {
+                            sendError(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        }
+                        return;
+                    }
+                    if (!state.compareAndSet(RUNNING, WRITING)) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("discarding the response to a request that timed out");
+                        }
+                        return;
+                    }
+                    try {
+                        task.writeResponse(result, (HttpServletResponse) asyncContext.getResponse());
+                    } catch (Throwable th) {
+                        log.error("could not write the response", th);
+                    } finally {
+                        asyncContext.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (state.compareAndSet(RUNNING, WRITING)) {
+                log.warn("the executor rejected the request", e);
+                sendError(asyncContext, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+    }
+
+    private void sendError(AsyncContext asyncContext, int status) {
+        try {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            if (!response.isCommitted()) {
+                response.sendError(status);
+            }
+        } catch (IOException e) {
+            log.debug("could not send the error status " + status, e);
+        } finally {
+            asyncContext.complete();
+        }
+    }
+}
@@ -66,4 +66,8 @@ abstract public class AbstractThriftExporter extends RemoteExporter implements I
         this.processor = processor;
     }
 
+    public TProcessor getProcessor() {
+        return this.processor;
+    }
+
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.thrift;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TType;
+import org.springframework.util.Assert;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <P>The server side of {@link MultiplexedProtocol}: reads the service name off the front of each incoming call and
+ * hands the call, with the plain method name, to the {@link TProcessor} registered under that name.
+ * <P>Calls for a service that isn't registered are answered with a {@link TApplicationException}, and the connection
+ * stays usable.
+ *
+ * @author Josh Long
+ * @see MultiplexedThriftExporter
+ */
+public class MultiplexedProcessor implements TProcessor {
+
+    private final Map<String, TProcessor> processors = new ConcurrentHashMap<String, TProcessor>();
+
+    public void registerProcessor(String serviceName, TProcessor processor) {
+        Assert.hasText(serviceName, "the serviceName must not be empty");
+        Assert.notNull(processor, "the processor must not be null");
+        this.processors.put(serviceName, processor);
+    }
+
+    public Map<String, TProcessor> getProcessors() {
+        return this.processors;
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        TMessage message = in.readMessageBegin();
+        int separator = message.name.indexOf(MultiplexedProtocol.SEPARATOR);
+        TProcessor processor = separator < 0 ? null : this.processors.get(message.name.substring(0, separator));
+        if (processor == null) {
+            TProtocolUtil.skip(in, TType.STRUCT);
+            in.readMessageEnd();
+            TApplicationException x = new TApplicationException(TApplicationException.UNKNOWN_METHOD,
+                    "no service is registered for the call '" + message.name + "'");
+            out.writeMessageBegin(new TMessage(message.name, TMessageType.EXCEPTION, message.seqid));
+            x.write(out);
+            out.writeMessageEnd();
+            out.getTransport().flush();
+            return true;
+        }
+        TMessage unwrapped = new TMessage(message.name.substring(separator + MultiplexedProtocol.SEPARATOR.length()), message.type, message.seqid);
+        return processor.process(new ReadMessage(in, unwrapped), out);
+    }
+
+    /**
+     * replays the message header that has already been read, so that the target processor can read it again
+     */
+    private static class ReadMessage extends DelegatingProtocol {
+
+        private final TMessage message;
+
+        ReadMessage(TProtocol protocol, TMessage message) {
+            super(protocol);
+            this.message = message;
+        }
+
+        @Override
+        public TMessage readMessageBegin() throws TException {
+            return this.message;
+        }
+    }
+}
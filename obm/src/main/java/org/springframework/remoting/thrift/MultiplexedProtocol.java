@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.thrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.springframework.util.Assert;
+
+/**
+ * <P>The client side of a {@link MultiplexedThriftExporter}: prefixes the name of every call with the name of the
+ * service it is meant for, and a {@link #SEPARATOR}, so that the server knows which service to route it to.
+ * <P>This is the same convention as the <CODE>TMultiplexedProtocol</CODE> of later Thrift releases, so either side
+ * can talk to the other.
+ *
+ * @author Josh Long
+ * @see ThriftProxyFactoryBean#setServiceName(String)
+ */
+public class MultiplexedProtocol extends DelegatingProtocol {
+
+    public static final String SEPARATOR = ":";
+
+    private final String serviceName;
+
+    public MultiplexedProtocol(TProtocol protocol, String serviceName) {
+        super(protocol);
+        Assert.hasText(serviceName, "the serviceName must not be empty");
+        this.serviceName = serviceName;
+    }
+
+    @Override
+    public void writeMessageBegin(TMessage message) throws TException {
+        if (message.type == TMessageType.CALL || message.type == TMessageType.ONEWAY) {
+            message = new TMessage(this.serviceName + SEPARATOR + message.name, message.type, message.seqid);
+        }
+        super.writeMessageBegin(message);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.thrift;
+
+import org.apache.thrift.TProcessor;
+import org.springframework.obm.thrift.util.ThriftUtil;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <P>Exports several Thrift services on one port, with one server, one set of connections and one pool of worker
+ * threads for all of them. Each call is routed to its service by the name that the client puts in front of the method
+ * name (see {@link MultiplexedProtocol}); clients select the service with
+ * {@link ThriftProxyFactoryBean#setServiceName(String)}.
+ * <P>The {@link #setServices(Map) services} map a service name to one of:
+ * <UL>
+ * <LI>a bean implementing a Thrift generated <CODE>Iface</CODE>,</LI>
+ * <LI>a {@link TProcessor}, or</LI>
+ * <LI>an {@link AbstractThriftExporter} other than a {@link ThriftExporter}, whose processor is used.</LI>
+ * </UL>
+ * <P>A {@link ThriftExporter} bean starts its own server with the context, usually on the same default port as this
+ * one, and so is refused: map the service bean itself instead.
+ * <P>Everything else, the port, the {@link #setNonblocking(boolean) nonblocking mode} and so on, is configured as for a
+ * {@link ThriftExporter}.
+ *
+ * @author Josh Long
+ */
+public class MultiplexedThriftExporter extends ThriftExporter {
+
+    private Map<String, Object> services = new LinkedHashMap<String, Object>();
+
+    public void setServices(Map<String, Object> services) {
+        this.services = services;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notEmpty(this.services, "at least one service is required");
+        MultiplexedProcessor multiplexedProcessor = new MultiplexedProcessor();
+        for (Map.Entry<String, Object> service : this.services.entrySet()) {
+            multiplexedProcessor.registerProcessor(service.getKey(), buildProcessor(service.getKey(), service.getValue()));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("multiplexing the services " + this.services.keySet());
+        }
+        this.processor = multiplexedProcessor;
+    }
+
+    protected TProcessor buildProcessor(String serviceName, Object service) throws Exception {
+        Assert.notNull(service, "the service '" + serviceName + "' must not be null");
+        if (service instanceof TProcessor) {
+            return (TProcessor) service;
+        }
+        Assert.isTrue(!(service instanceof ThriftExporter), "the service '" + serviceName + "' is a " +
+                ThriftExporter.class.getName() + ", which serves itself on its own port; map the service it exports instead");
+        if (service instanceof AbstractThriftExporter) {
+            TProcessor exporterProcessor = ((AbstractThriftExporter) service).getProcessor();
+            Assert.notNull(exporterProcessor, "the exporter for the service '" + serviceName + "' hasn't been initialized");
+            return exporterProcessor;
+        }
+        for (Class<?> iface : ClassUtils.getAllInterfacesForClass(service.getClass())) {
+            if (iface.getName().endsWith(ThriftUtil.IFACE_NAME) && iface.getEnclosingClass() != null) {
+                return ThriftUtil.buildProcessor(iface.getEnclosingClass(), iface, service);
+            }
+        }
+        throw new IllegalArgumentException("the service '" + serviceName + "' (" + service.getClass().getName() +
+                ") is neither a TProcessor, an AbstractThriftExporter nor an implementation of a Thrift service interface");
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.thrift;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClient;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.async.TAsyncMethodCall;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TTransport;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.obm.thrift.util.ThriftUtil;
+import org.springframework.remoting.support.RemoteAccessor;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <P>Builds proxies that call a Thrift RPC service without tying up a thread per call: the calls go through the
+ * <CODE>$AsyncClient</CODE> that Thrift generates for the service, over nonblocking sockets driven by a single
+ * {@link TAsyncClientManager} selector thread.
+ * <P>The {@link #setServiceInterface(Class) service interface} is any interface whose methods have the same names and
+ * parameters as those of the Thrift service. Methods that return a {@link Future} (of the Thrift return type) return
+ * straight away, and the future completes when the response arrives; so one thread can fan out to several services,
+ * or several calls, and wait for all of them at once. Methods that return the Thrift type itself block until the
+ * response arrives, so that the generated <CODE>$Iface</CODE> can be used as well. For example:
+ * <PRE>
+ * public interface AsyncCrm {
+ *     Future&lt;Customer&gt; getCustomerById(int customerId);
+ * }
+ * </PRE>
+ * <P>A Thrift async client can only have one call in flight, so the proxy keeps up to
+ * {@link #setMaxConnections(int) maxConnections} of them, each with its own connection, and queues the calls made
+ * while all of them are busy.
+ * <P>Async clients always speak the framed transport, so the server must be a
+ * {@link ThriftExporter#setNonblocking(boolean) nonblocking} one.
+ *
+ * @author Josh Long
+ * @see ThriftProxyFactoryBean
+ */
+public class ThriftAsyncProxyFactoryBean<T> extends RemoteAccessor implements InitializingBean, DisposableBean, MethodInterceptor, FactoryBean<T> {
+
+    private static final Callable<Object> NO_OP = new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+            return null;
+        }
+    };
+
+    private TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
+
+    private TAsyncClientManager clientManager;
+
+    private boolean ownClientManager = false;
+
+    private Class thriftClass;
+
+    private Constructor asyncClientConstructor;
+
+    private final ConcurrentMap<Method, Method> asyncMethods = new ConcurrentHashMap<Method, Method>();
+
+    private final ConcurrentMap<Class<?>, Method> resultMethods = new ConcurrentHashMap<Class<?>, Method>();
+
+    private final Queue<TAsyncClient> idleClients = new ConcurrentLinkedQueue<TAsyncClient>();
+
+    private final Queue<PendingCall> pendingCalls = new ConcurrentLinkedQueue<PendingCall>();
+
+    private final ConcurrentMap<TAsyncClient, TNonblockingTransport> transports = new ConcurrentHashMap<TAsyncClient, TNonblockingTransport>();
+
+    private final Set<PendingCall> activeCalls = Collections.newSetFromMap(new ConcurrentHashMap<PendingCall, Boolean>());
+
+    private int clientCount = 0;
+
+    private volatile boolean destroyed = false;
+
+    private Object serviceProxy;
+
+    private String host = "127.0.0.1";
+
+    private int port = ThriftUtil.DEFAULT_PORT;
+
+    private String serviceName;
+
+    private int maxConnections = 8;
+
+    private long timeout = 0;
+
+    public void setProtocolFactory(TProtocolFactory protocolFactory) {
+        this.protocolFactory = protocolFactory;
+    }
+
+    /**
+     * the manager (and so the selector thread) to run the calls on, to share one between several proxies. If none is
+     * given, this proxy starts (and, when destroyed, stops) its own
+     */
+    public void setClientManager(TAsyncClientManager clientManager) {
+        this.clientManager = clientManager;
+    }
+
+    /**
+     * the class generated by the Thrift compiler for the service, e.g., {@code Crm.class}
+     */
+    public void setThriftClass(Class thriftClass) {
+        this.thriftClass = thriftClass;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * the name of the service to call on a {@link MultiplexedThriftExporter}. Leave it unset for a plain exporter
+     */
+    public void setServiceName(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * the most calls in flight at a time (each needs a connection of its own). Defaults to 8
+     */
+    public void setMaxConnections(int maxConnections) {
+        Assert.isTrue(maxConnections > 0, "maxConnections must be greater than 0");
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * how long, in milliseconds, to wait for each response before failing the call. Defaults to 0, no timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public T getObject() {
+        return (T) this.serviceProxy;
+    }
+
+    public Class<?> getObjectType() {
+        return getServiceInterface();
+    }
+
+    public boolean isSingleton() {
+        return true;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(getServiceInterface(), "Property 'serviceInterface' is required");
+        if (this.thriftClass == null && getServiceInterface().getEnclosingClass() != null) {
+            this.thriftClass = getServiceInterface().getEnclosingClass(); // the service interface is the $Iface
+        }
+        Assert.notNull(this.thriftClass, "Property 'thriftClass' is required");
+        Assert.notNull(this.host, "Property 'host' is required");
+        Assert.isTrue(this.port > 0, "Property 'port' is required and must be greater than 0");
+
+        Class asyncClientClass = ThriftUtil.getThriftServiceInnerClassOrNull(this.thriftClass, "$AsyncClient", false);
+        Assert.notNull(asyncClientClass, "no $AsyncClient was found in " + this.thriftClass.getName());
+        this.asyncClientConstructor = ClassUtils.getConstructorIfAvailable(asyncClientClass,
+                TProtocolFactory.class, TAsyncClientManager.class, TNonblockingTransport.class);
+        Assert.notNull(this.asyncClientConstructor, "the $AsyncClient has no (TProtocolFactory, TAsyncClientManager, TNonblockingTransport) constructor");
+
+        for (Method method : getServiceInterface().getMethods()) {
+            this.asyncMethods.put(method, findAsyncMethod(asyncClientClass, method));
+        }
+
+        if (this.serviceName != null) {
+            final TProtocolFactory plainProtocolFactory = this.protocolFactory;
+            this.protocolFactory = new TProtocolFactory() {
+                @Override
+                public TProtocol getProtocol(TTransport trans) {
+                    return new MultiplexedProtocol(plainProtocolFactory.getProtocol(trans), serviceName);
+                }
+            };
+        }
+
+        if (this.clientManager == null) {
+            this.clientManager = new TAsyncClientManager();
+            this.ownClientManager = true;
+        }
+
+        this.serviceProxy = new ProxyFactory(getServiceInterface(), this).getProxy(getBeanClassLoader());
+    }
+
+    private static Method findAsyncMethod(Class asyncClientClass, Method method) {
+        Class<?>[] parameterTypes = Arrays.copyOf(method.getParameterTypes(), method.getParameterTypes().length + 1);
+        parameterTypes[parameterTypes.length - 1] = AsyncMethodCallback.class;
+        Method asyncMethod = ReflectionUtils.findMethod(asyncClientClass, method.getName(), parameterTypes);
+        Assert.notNull(asyncMethod, "the Thrift service has no method matching " + method.toGenericString());
+        return asyncMethod;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        Method asyncMethod = this.asyncMethods.get(method);
+        if (asyncMethod == null) { // Object methods, like toString()
+            return ReflectionUtils.invokeMethod(method, this, invocation.getArguments());
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("invoking " + invocation.toString() + " on the async client proxy");
+        }
+
+        PendingCall call = new PendingCall(asyncMethod, invocation.getArguments());
+        this.pendingCalls.add(call);
+        if (this.destroyed) {
+            failPendingCalls(); // in case destroy() drained the queue before the call was added
+        } else {
+            dispatch();
+        }
+
+        if (Future.class.isAssignableFrom(method.getReturnType())) {
+            return call;
+        }
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * starts as many pending calls as there are idle clients (opening new ones up to the maximum). Called when a call
+     * is made and when one completes, from the selector thread. A call that can't get a client because one can't be
+     * opened fails, rather than being left in the queue
+     */
+    private void dispatch() {
+        PendingCall call;
+        while (!this.destroyed && (call = this.pendingCalls.peek()) != null) {
+            TAsyncClient client;
+            try {
+                client = borrowClient();
+            } catch (RuntimeException e) {
+                if (this.pendingCalls.remove(call)) {
+                    call.fail(e);
+                }
+                continue;
+            }
+            if (client == null) {
+                return; // the next call to complete will pick it up
+            }
+            if (!this.pendingCalls.remove(call)) {
+                this.idleClients.add(client); // another thread started it
+                continue;
+            }
+            call.start(client);
+        }
+    }
+
+    private TAsyncClient borrowClient() {
+        TAsyncClient client = this.idleClients.poll();
+        if (client != null) {
+            return client;
+        }
+        synchronized (this) {
+            if (this.clientCount >= this.maxConnections) {
+                return null;
+            }
+            this.clientCount++;
+        }
+        try {
+            TNonblockingTransport transport = openTransport();
+            client = (TAsyncClient) this.asyncClientConstructor.newInstance(this.protocolFactory, this.clientManager, transport);
+            client.setTimeout(this.timeout);
+            this.transports.put(client, transport);
+            return client;
+        } catch (Exception e) {
+            synchronized (this) {
+                this.clientCount--;
+            }
+            throw new RuntimeException("could not open a Thrift async client", e);
+        }
+    }
+
+    /**
+     * @return a new connection to the service, for a new client
+     */
+    protected TNonblockingTransport openTransport() throws IOException {
+        return new TNonblockingSocket(this.host, this.port);
+    }
+
+    private void releaseClient(TAsyncClient client) {
+        if (client.hasError()) { // its transport has been closed
+            this.transports.remove(client);
+            synchronized (this) {
+                this.clientCount--;
+            }
+        } else {
+            this.idleClients.add(client);
+        }
+        dispatch();
+    }
+
+    private Object getResult(TAsyncMethodCall call) throws Throwable {
+        Method getResult = this.resultMethods.get(call.getClass());
+        if (getResult == null) {
+            getResult = ReflectionUtils.findMethod(call.getClass(), "getResult");
+            this.resultMethods.putIfAbsent(call.getClass(), getResult);
+        }
+        try {
+            return getResult.invoke(call);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * closes the connections, failing the calls still waiting for a client or for a response
+     */
+    @Override
+    public void destroy() throws Exception {
+        this.destroyed = true;
+        if (this.ownClientManager) {
+            this.clientManager.stop();
+        }
+        for (TNonblockingTransport transport : this.transports.values()) {
+            transport.close();
+        }
+        this.transports.clear();
+        failPendingCalls();
+        for (PendingCall call : this.activeCalls) {
+            call.fail(new IllegalStateException("the proxy was destroyed before the response arrived"));
+        }
+    }
+
+    private void failPendingCalls() {
+        PendingCall call;
+        while ((call = this.pendingCalls.poll()) != null) {
+            call.fail(new IllegalStateException("the proxy has been destroyed"));
+        }
+    }
+
+    /**
+     * a call waiting for a client, then for its response
+     */
+    private class PendingCall extends FutureTask<Object> implements AsyncMethodCallback<TAsyncMethodCall> {
+
+        private final Method asyncMethod;
+        private final Object[] arguments;
+        private TAsyncClient client;
+
+        PendingCall(Method asyncMethod, Object[] arguments) {
+            super(NO_OP);
+            this.asyncMethod = asyncMethod;
+            this.arguments = arguments;
+        }
+
+        void start(TAsyncClient client) {
+            this.client = client;
+            activeCalls.add(this);
+            Object[] args = Arrays.copyOf(this.arguments, this.arguments.length + 1);
+            args[args.length - 1] = this;
+            try {
+                this.asyncMethod.invoke(client, args);
+            } catch (Throwable e) {
+                Throwable cause = e instanceof InvocationTargetException ? ((InvocationTargetException) e).getTargetException() : e;
+                setException(cause);
+                activeCalls.remove(this);
+                releaseClient(client);
+            }
+        }
+
+        void fail(Throwable cause) {
+            setException(cause);
+            activeCalls.remove(this);
+        }
+
+        @Override
+        public void onComplete(TAsyncMethodCall response) {
+            try {
+                set(getResult(response));
+            } catch (Throwable e) {
+                setException(e);
+            } finally {
+                activeCalls.remove(this);
+                releaseClient(this.client);
+            }
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            setException(exception);
+            activeCalls.remove(this);
+            releaseClient(this.client);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.thrift;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.thrift.transport.TTransport;
+import org.springframework.remoting.RemoteConnectFailureException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <P>A bounded pool of open Thrift connections, each one a {@link TTransport} and the generated <CODE>$Client</CODE>
+ * talking over it. Generated clients aren't thread safe, so each invocation {@link #borrow() borrows} a client for
+ * itself and {@link #release(PooledClient, boolean) gives it back} afterwards.
+ * <P>At most {@link #setMaxTotal(int) maxTotal} clients exist at a time; callers beyond that wait up to
+ * {@link #setMaxWait(long) maxWait} milliseconds for one to be released. Idle clients are kept most recently used first,
+ * and a background thread closes those that have been idle for longer than
+ * {@link #setMinEvictableIdleTime(long) minEvictableIdleTime}, while topping the pool back up to
+ * {@link #setMinIdle(int) minIdle} connections.
+ *
+ * @author Josh Long
+ * @see ThriftProxyFactoryBean#setPooled(boolean)
+ */
+public class ThriftClientPool {
+
+    /**
+     * opens the connections of a {@link ThriftClientPool}
+     */
+    public static interface ClientFactory {
+
+        /**
+         * @return a client over a transport that is already open
+         */
+        PooledClient create() throws Exception;
+    }
+
+    /**
+     * a client and the transport it talks over
+     */
+    public static class PooledClient {
+
+        private final TTransport transport;
+        private final Object client;
+        private final Socket socket;
+        private volatile long lastReturned = System.currentTimeMillis();
+
+        public PooledClient(TTransport transport, Object client) {
+            this(transport, client, null);
+        }
+
+        /**
+         * @param socket the socket under the transport, if there is one, so that the pool can tell whether the server has
+         *               closed the connection
+         */
+        public PooledClient(TTransport transport, Object client, Socket socket) {
+            this.transport = transport;
+            this.client = client;
+            this.socket = socket;
+        }
+
+        public TTransport getTransport() {
+            return transport;
+        }
+
+        public Object getClient() {
+            return client;
+        }
+    }
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private final ClientFactory clientFactory;
+
+    private final LinkedBlockingDeque<PooledClient> idle = new LinkedBlockingDeque<PooledClient>();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicLong borrowCount = new AtomicLong();
+
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+    private Semaphore permits;
+
+    private ScheduledExecutorService evictor;
+
+    private volatile boolean closed = false;
+
+    private int maxTotal = 8;
+
+    private int minIdle = 0;
+
+    private long maxWait = 30 * 1000;
+
+    private long minEvictableIdleTime = 60 * 1000;
+
+    private long timeBetweenEvictionRuns = 30 * 1000;
+
+    private boolean testOnBorrow = true;
+
+    private long testIdleTime = 1000;
+
+    public ThriftClientPool(ClientFactory clientFactory) {
+        Assert.notNull(clientFactory, "the clientFactory must not be null");
+        this.clientFactory = clientFactory;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        Assert.isTrue(maxTotal > 0, "maxTotal must be greater than 0");
+        this.maxTotal = maxTotal;
+    }
+
+    public void setMinIdle(int minIdle) {
+        Assert.isTrue(minIdle >= 0, "minIdle must not be negative");
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * how long, in milliseconds, {@link #borrow()} waits for a client when all of them are in use. Defaults to 30 seconds
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * how long, in milliseconds, a client may sit idle before it is closed. Defaults to a minute
+     */
+    public void setMinEvictableIdleTime(long minEvictableIdleTime) {
+        this.minEvictableIdleTime = minEvictableIdleTime;
+    }
+
+    /**
+     * how often, in milliseconds, idle clients are checked for eviction. Zero or less disables eviction (and the
+     * topping up to {@link #setMinIdle(int) minIdle}). Defaults to 30 seconds
+     */
+    public void setTimeBetweenEvictionRuns(long timeBetweenEvictionRuns) {
+        this.timeBetweenEvictionRuns = timeBetweenEvictionRuns;
+    }
+
+    /**
+     * whether to check that an idle client's connection is still usable before handing it out: that its transport is
+     * open and, once it has been idle for {@link #setTestIdleTime(long) testIdleTime}, that the server hasn't closed
+     * its end (after an idle timeout or a restart, say). Defaults to true
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * how long, in milliseconds, a client must have been idle before borrowing it reads from its socket to find out
+     * whether the server has closed the connection. The read waits a millisecond on a live connection, so clients
+     * handed straight back out, as they are under load, only have their transport checked. Defaults to a second
+     */
+    public void setTestIdleTime(long testIdleTime) {
+        this.testIdleTime = testIdleTime;
+    }
+
+    /**
+     * opens the first {@link #setMinIdle(int) minIdle} connections and starts the evictor
+     */
+    public void start() throws Exception {
+        Assert.isTrue(this.minIdle <= this.maxTotal, "minIdle must not be greater than maxTotal");
+        this.permits = new Semaphore(this.maxTotal, true);
+        while (this.idle.size() < this.minIdle) {
+            this.idle.offerFirst(this.clientFactory.create());
+        }
+        if (this.timeBetweenEvictionRuns > 0) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("thrift-pool-evictor-");
+            threadFactory.setDaemon(true);
+            this.evictor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evict();
+                }
+            }, this.timeBetweenEvictionRuns, this.timeBetweenEvictionRuns, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return a client for the exclusive use of the caller, who must {@link #release(PooledClient, boolean) release} it
+     * @throws RemoteConnectFailureException if no client became available in time, or a new one couldn't be opened
+     */
+    public PooledClient borrow() {
+        Assert.state(!this.closed, "the pool is closed");
+        long start = System.nanoTime();
+        try {
+            if (!this.permits.tryAcquire(this.maxWait, TimeUnit.MILLISECONDS)) {
+                throw new RemoteConnectFailureException("no Thrift client became available within " + this.maxWait + "ms (" + this.maxTotal + " in use)", null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteConnectFailureException("interrupted while waiting for a Thrift client", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledClient pooledClient;
+            while ((pooledClient = this.idle.pollFirst()) != null) {
+                if (!this.testOnBorrow || isAlive(pooledClient)) {
+                    break;
+                }
+                destroy(pooledClient);
+            }
+            if (pooledClient == null) {
+                pooledClient = this.clientFactory.create();
+            }
+            this.active.incrementAndGet();
+            return pooledClient;
+        } catch (Exception e) {
+            this.permits.release();
+            throw new RemoteConnectFailureException("could not open a Thrift client", e);
+        }
+    }
+
+    /**
+     * hands a client back to the pool
+     *
+     * @param pooledClient the client
+     * @param broken       whether the connection should be closed rather than reused, because the last call left it
+     *                     in an unknown state
+     */
+    public void release(PooledClient pooledClient, boolean broken) {
+        this.active.decrementAndGet();
+        try {
+            if (broken || this.closed) {
+                destroy(pooledClient);
+            } else {
+                pooledClient.lastReturned = System.currentTimeMillis();
+                this.idle.offerFirst(pooledClient);
+            }
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * closes the idle clients and stops the evictor. Clients still in use are closed as they are released
+     */
+    public void close() {
+        this.closed = true;
+        if (this.evictor != null) {
+            this.evictor.shutdownNow();
+        }
+        PooledClient pooledClient;
+        while ((pooledClient = this.idle.pollFirst()) != null) {
+            destroy(pooledClient);
+        }
+    }
+
+    protected void evict() {
+        long cutoff = System.currentTimeMillis() - this.minEvictableIdleTime;
+        // the least recently used clients are at the end of the deque
+        Iterator<PooledClient> leastRecentlyUsed = this.idle.descendingIterator();
+        while (leastRecentlyUsed.hasNext() && this.idle.size() > this.minIdle) {
+            PooledClient pooledClient = leastRecentlyUsed.next();
+            if (pooledClient.lastReturned < cutoff && this.idle.remove(pooledClient)) {
+                destroy(pooledClient);
+            }
+        }
+        try {
+            while (!this.closed && this.idle.size() < this.minIdle && this.idle.size() + this.active.get() < this.maxTotal) {
+                this.idle.offerLast(this.clientFactory.create());
+            }
+        } catch (Exception e) {
+            if (log.isWarnEnabled()) {
+                log.warn("could not open an idle Thrift client", e);
+            }
+        }
+    }
+
+    /**
+     * a socket stays connected after the server closes its end, so the socket of a client that has been idle for a
+     * while is read from, waiting as little as possible: a closed connection reads the end of the stream straight
+     * away, while a live one has nothing to read between calls
+     */
+    private boolean isAlive(PooledClient pooledClient) {
+        if (!pooledClient.transport.isOpen()) {
+            return false;
+        }
+        Socket socket = pooledClient.socket;
+        if (socket == null || System.currentTimeMillis() - pooledClient.lastReturned < this.testIdleTime) {
+            return true;
+        }
+        try {
+            int timeout = socket.getSoTimeout();
+            try {
+                socket.setSoTimeout(1);
+                socket.getInputStream().read(); // the end of the stream, or bytes no call asked for
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("a pooled Thrift connection is no longer usable", e);
+            }
+            return false;
+        }
+    }
+
+    private void destroy(PooledClient pooledClient) {
+        try {
+            pooledClient.transport.close();
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("could not close a pooled Thrift transport", e);
+            }
+        }
+    }
+
+    private void recordWait(long nanos) {
+        this.borrowCount.incrementAndGet();
+        this.borrowWaitNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = this.maxBorrowWaitNanos.get()) && !this.maxBorrowWaitNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return the number of clients currently borrowed
+     */
+    public int getActiveCount() {
+        return this.active.get();
+    }
+
+    /**
+     * @return the number of open clients waiting to be borrowed
+     */
+    public int getIdleCount() {
+        return this.idle.size();
+    }
+
+    /**
+     * @return the number of successful {@link #borrow() borrows} so far
+     */
+    public long getBorrowCount() {
+        return this.borrowCount.get();
+    }
+
+    /**
+     * @return the average time callers spent waiting for a client, in milliseconds
+     */
+    public double getMeanBorrowWaitTime() {
+        long count = this.borrowCount.get();
+        return count == 0 ? 0 : (this.borrowWaitNanos.get() / (double) count) / 1000000d;
+    }
+
+    /**
+     * @return the longest time a caller spent waiting for a client, in milliseconds
+     */
+    public double getMaxBorrowWaitTime() {
+        return this.maxBorrowWaitNanos.get() / 1000000d;
+    }
+}
@@ -17,19 +17,35 @@
 
 package org.springframework.remoting.thrift;
 
+import org.apache.thrift.server.THsHaServer;
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TNonblockingServerTransport;
 import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TServerTransport;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.obm.thrift.util.ThriftUtil;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <P> Exports Thrift based RPC services. This implementation will expose the Thrift based POJO on the
  * {@link #port} specified (or, alternatively, the {@link #address})
+ * <P> By default, connections are served by a {@link TThreadPoolServer}, which dedicates a thread to each connection.
+ * With {@link #setNonblocking(boolean) nonblocking} set, a {@link THsHaServer} is used instead: a selector thread
+ * accepts and reads from every connection, and only complete requests are handed to a bounded pool of
+ * {@link #setWorkerThreads(int) worker threads}, so that idle connections cost no threads at all. Nonblocking servers
+ * speak the framed transport, so clients must use a {@link TFramedTransport} (see
+ * {@link ThriftProxyFactoryBean#setFramed(boolean)}).
+ * <P> Either way, the server runs on its own thread: {@link #start()} returns as soon as the server is listening.
  *
  * @author Josh Long
  * @see org.springframework.remoting.caucho.HessianExporter
@@ -42,10 +58,24 @@ public class ThriftExporter extends AbstractThriftExporter implements SmartLifec
 
     private TServer tServer;
 
+    private Thread serverThread;
+
+    private boolean serverBuilt = false;
+
     private int port = ThriftUtil.DEFAULT_PORT;
 
     private InetSocketAddress address;
 
+    private boolean nonblocking = false;
+
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+    private int workerQueueCapacity = 1024;
+
+    private long maxReadBufferBytes = Long.MAX_VALUE;
+
+    private long startupTimeout = 10 * 1000;
+
     public void setTransport(TServerTransport transport) {
         this.transport = transport;
     }
@@ -64,6 +94,48 @@ public class ThriftExporter extends AbstractThriftExporter implements SmartLifec
         this.address = address;
     }
 
+    /**
+     * whether to serve connections from a selector thread and a bounded worker pool ({@link THsHaServer}) rather than
+     * with a thread per connection ({@link TThreadPoolServer}). Clients must then use the framed transport
+     *
+     * @param nonblocking whether to use the nonblocking server
+     */
+    public void setNonblocking(boolean nonblocking) {
+        this.nonblocking = nonblocking;
+    }
+
+    /**
+     * the number of threads invoking the service in nonblocking mode. Defaults to twice the number of processors
+     */
+    public void setWorkerThreads(int workerThreads) {
+        Assert.isTrue(workerThreads > 0, "the number of worker threads must be greater than 0");
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * the number of requests that may wait for a worker thread in nonblocking mode. Beyond that, the connections
+     * sending further requests are closed. Defaults to 1024
+     */
+    public void setWorkerQueueCapacity(int workerQueueCapacity) {
+        Assert.isTrue(workerQueueCapacity > 0, "the worker queue capacity must be greater than 0");
+        this.workerQueueCapacity = workerQueueCapacity;
+    }
+
+    /**
+     * the most memory that the nonblocking server may use to buffer incoming requests, across all connections
+     */
+    public void setMaxReadBufferBytes(long maxReadBufferBytes) {
+        Assert.isTrue(maxReadBufferBytes > 0, "the maximum read buffer size must be greater than 0");
+        this.maxReadBufferBytes = maxReadBufferBytes;
+    }
+
+    /**
+     * how long {@link #start()} waits for the server to start listening, in milliseconds. Defaults to 10 seconds
+     */
+    public void setStartupTimeout(long startupTimeout) {
+        this.startupTimeout = startupTimeout;
+    }
+
     @Override
     public boolean isAutoStartup() {
         return true;
@@ -80,46 +152,119 @@ public class ThriftExporter extends AbstractThriftExporter implements SmartLifec
     }
 
     @Override
-    public void start() {
-
-        this.running = true;
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
         try {
 
             if (logger.isDebugEnabled()) {
                 logger.debug("starting " + ThriftExporter.class.getName() + ". This exporter's only been tested on Thrift 0.7. Your mileage may vary with other versions");
             }
 
-            TServerTransport serverTransport = this.transport;
-            if (null == serverTransport) { // ie, no transport specified
-                if (this.address != null) {
-                    serverTransport = new TServerSocket(this.address);
-                } else {
-                    serverTransport = new TServerSocket(this.port);
-                }
+            if (null == this.tServer) {
+                this.tServer = this.nonblocking ? buildNonblockingServer() : buildThreadPoolServer();
+                this.serverBuilt = true;
             }
 
-            TThreadPoolServer.Args args = new TThreadPoolServer.Args(serverTransport);
-            args.processor(processor);
+            final TServer server = this.tServer;
+            this.serverThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    server.serve();
+                }
+            }, "thrift-exporter-" + (this.address != null ? this.address.getPort() : this.port));
+            this.serverThread.start();
 
-            if (logger.isDebugEnabled()) {
-                logger.debug("starting to listen on " + serverTransport.toString());
+            awaitServing();
+            this.running = true;
+
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected TServer buildThreadPoolServer() throws Exception {
+        TServerTransport serverTransport = this.transport;
+        if (null == serverTransport) { // ie, no transport specified
+            if (this.address != null) {
+                serverTransport = new TServerSocket(this.address);
+            } else {
+                serverTransport = new TServerSocket(this.port);
             }
+        }
 
-            if (null == this.tServer) {
-                tServer = new TThreadPoolServer(args);
+        TThreadPoolServer.Args args = new TThreadPoolServer.Args(serverTransport);
+        args.processor(processor);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("starting to listen on " + serverTransport.toString());
+        }
+        return new TThreadPoolServer(args);
+    }
+
+    protected TServer buildNonblockingServer() throws Exception {
+        TNonblockingServerTransport serverTransport;
+        if (null == this.transport) {
+            if (this.address != null) {
+                serverTransport = new TNonblockingServerSocket(this.address);
+            } else {
+                serverTransport = new TNonblockingServerSocket(this.port);
             }
-            tServer.serve();
+        } else {
+            Assert.isInstanceOf(TNonblockingServerTransport.class, this.transport,
+                    "the nonblocking server requires a " + TNonblockingServerTransport.class.getName());
+            serverTransport = (TNonblockingServerTransport) this.transport;
+        }
 
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        ExecutorService workers = new ThreadPoolExecutor(this.workerThreads, this.workerThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(this.workerQueueCapacity), new CustomizableThreadFactory("thrift-worker-"));
+
+        THsHaServer.Args args = new THsHaServer.Args(serverTransport);
+        args.processor(processor);
+        args.transportFactory(new TFramedTransport.Factory());
+        args.executorService(workers);
+        args.maxReadBufferBytes = this.maxReadBufferBytes;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("starting to listen on " + serverTransport.toString() + " with " + this.workerThreads + " worker threads");
+        }
+        return new THsHaServer(args);
+    }
+
+    /**
+     * waits for the server thread to report that it's listening. A server that stops before that (because it couldn't
+     * bind, for example) fails the startup
+     */
+    private void awaitServing() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + this.startupTimeout;
+        while (!this.tServer.isServing()) {
+            if (!this.serverThread.isAlive()) {
+                throw new IllegalStateException("the Thrift server stopped before it started listening");
+            }
+            if (System.currentTimeMillis() > deadline) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("the Thrift server hasn't reported that it is listening after " + this.startupTimeout + "ms; carrying on");
+                }
+                return;
+            }
+            Thread.sleep(10);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("the Thrift server is listening");
         }
     }
 
     @Override
-    public void stop() {
+    public synchronized void stop() {
         if (null != this.tServer) {
             tServer.stop();
         }
+        this.serverThread = null; // it finishes draining the open connections in the background
+        if (this.serverBuilt) { // a stopped server can't be restarted, so the next start() builds a new one
+            this.tServer = null;
+            this.serverBuilt = false;
+        }
         this.running = false;
     }
 
@@ -18,12 +18,16 @@ package org.springframework.remoting.thrift;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.obm.thrift.util.ThriftUtil;
@@ -32,6 +36,7 @@ import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 /**
@@ -39,11 +44,17 @@ import java.lang.reflect.Method;
  * <p/>
  * <P>Thrift clients will by default
  * use the Thrift binary protocol unless the {@link #protocolFactory} is overridden.
+ * <P>Clients of a {@link ThriftExporter#setNonblocking(boolean) nonblocking} exporter must set {@link #setFramed(boolean) framed}.
+ * <P>By default, every call goes through a single connection, one call at a time. With {@link #setPooled(boolean) pooled}
+ * set, each call instead borrows a connection from a {@link ThriftClientPool}, so that concurrent callers each get
+ * their own. Pooled proxies build their connections from the {@link #setHost(String) host} and
+ * {@link #setPort(int) port}; a {@link #setTransport(TTransport) transport} or {@link #setProtocol(TProtocol) protocol}
+ * can't be shared between connections and so isn't allowed.
  *
  * @author Josh Long
  * @see org.springframework.remoting.caucho.HessianProxyFactoryBean
  */
-public class ThriftProxyFactoryBean<T> extends RemoteAccessor implements InitializingBean, MethodInterceptor, FactoryBean<T> {
+public class ThriftProxyFactoryBean<T> extends RemoteAccessor implements InitializingBean, DisposableBean, MethodInterceptor, FactoryBean<T> {
 
     // default protocol will be binary
     private TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
@@ -64,6 +75,28 @@ public class ThriftProxyFactoryBean<T> extends RemoteAccessor implements Initial
 
     private int port = ThriftUtil.DEFAULT_PORT;
 
+    private boolean framed = false;
+
+    private String serviceName;
+
+    private boolean pooled = false;
+
+    private ThriftClientPool pool;
+
+    private int maxTotal = 8;
+
+    private int minIdle = 0;
+
+    private long maxWait = 30 * 1000;
+
+    private long minEvictableIdleTime = 60 * 1000;
+
+    private long timeBetweenEvictionRuns = 30 * 1000;
+
+    private boolean testOnBorrow = true;
+
+    private long testIdleTime = 1000;
+
     public void setProtocolFactory(TProtocolFactory inProtocolFactory) {
         this.protocolFactory = inProtocolFactory;
     }
@@ -84,6 +117,87 @@ public class ThriftProxyFactoryBean<T> extends RemoteAccessor implements Initial
         this.host = host;
     }
 
+    /**
+     * whether to wrap the socket built from the {@link #setHost(String) host} and {@link #setPort(int) port}
+     * in a {@link TFramedTransport}, as nonblocking servers require
+     */
+    public void setFramed(boolean framed) {
+        this.framed = framed;
+    }
+
+    /**
+     * the name of the service to call on a {@link MultiplexedThriftExporter}. Leave it unset for a plain exporter
+     */
+    public void setServiceName(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * whether to borrow a connection from a pool for each call, instead of sending every call through one connection
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * @see ThriftClientPool#setMaxTotal(int)
+     */
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    /**
+     * the number of connections opened at startup, and kept open when idle
+     *
+     * @see ThriftClientPool#setMinIdle(int)
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * @see ThriftClientPool#setMaxWait(long)
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @see ThriftClientPool#setMinEvictableIdleTime(long)
+     */
+    public void setMinEvictableIdleTime(long minEvictableIdleTime) {
+        this.minEvictableIdleTime = minEvictableIdleTime;
+    }
+
+    /**
+     * @see ThriftClientPool#setTimeBetweenEvictionRuns(long)
+     */
+    public void setTimeBetweenEvictionRuns(long timeBetweenEvictionRuns) {
+        this.timeBetweenEvictionRuns = timeBetweenEvictionRuns;
+    }
+
+    /**
+     * @see ThriftClientPool#setTestOnBorrow(boolean)
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * @see ThriftClientPool#setTestIdleTime(long)
+     */
+    public void setTestIdleTime(long testIdleTime) {
+        this.testIdleTime = testIdleTime;
+    }
+
+    /**
+     * @return the connection pool, or null if this proxy isn't {@link #setPooled(boolean) pooled}. Use it to monitor
+     *         the number of active connections and the time callers spend waiting for one
+     */
+    public ThriftClientPool getPool() {
+        return this.pool;
+    }
+
     @Override
     public void setServiceInterface(Class serviceInterface) {
         super.setServiceInterface(ThriftUtil.buildServiceInterface(serviceInterface));
@@ -111,7 +225,25 @@ public class ThriftProxyFactoryBean<T> extends RemoteAccessor implements Initial
             logger.debug("invoking " + invocation.toString() + " on the client proxy");
         }
 
-        return method.invoke(this.client, invocation.getArguments());
+        if (this.pool == null) {
+            return method.invoke(this.client, invocation.getArguments());
+        }
+
+        ThriftClientPool.PooledClient pooledClient = this.pool.borrow();
+        boolean broken = true;
+        try {
+            Object result = method.invoke(pooledClient.getClient(), invocation.getArguments());
+            broken = false;
+            return result;
+        } catch (InvocationTargetException e) {
+            Throwable target = e.getTargetException();
+            // exceptions declared in the IDL (which are TBase instances) and application errors reported by the
+            // server leave the connection usable. Anything else may have left a half read response behind
+            broken = !(target instanceof TBase || target instanceof TApplicationException);
+            throw target;
+        } finally {
+            this.pool.release(pooledClient, broken);
+        }
     }
 
     @Override
@@ -119,15 +251,6 @@ public class ThriftProxyFactoryBean<T> extends RemoteAccessor implements Initial
         if (getServiceInterface() == null) {
             throw new IllegalArgumentException("Property 'serviceInterface' is required");
         }
-        if (this.transport == null) {
-            Assert.notNull(this.host, "Property 'host' is required");
-            Assert.isTrue(this.port > 0, "Property 'port' is required and must be greater than 0");
-            this.transport = new TSocket(this.host, this.port);
-        }
-
-        if (this.protocol == null) {
-            this.protocol = this.protocolFactory.getProtocol(this.transport);
-        }
 
         try {
             Class thriftClass = getServiceInterface().getEnclosingClass();
@@ -136,17 +259,90 @@ public class ThriftProxyFactoryBean<T> extends RemoteAccessor implements Initial
             Class clientClass = ThriftUtil.getThriftServiceInnerClassOrNull(thriftClass, "$Client", false);
             Assert.notNull(clientClass, "the client class must not be null ");
 
-            Constructor constructor = ClassUtils.getConstructorIfAvailable(clientClass, TProtocol.class);
+            final Constructor constructor = ClassUtils.getConstructorIfAvailable(clientClass, TProtocol.class);
+
+            if (this.pooled) {
+                Assert.isNull(this.transport, "a pooled proxy opens its own transports; set the host and port instead");
+                Assert.isNull(this.protocol, "a pooled proxy builds its own protocols; set the protocolFactory instead");
+                this.pool = buildPool(constructor);
+            } else {
+                if (this.transport == null) {
+                    this.transport = buildTransport();
+                }
+                if (this.protocol == null) {
+                    this.protocol = this.protocolFactory.getProtocol(this.transport);
+                }
+                if (this.serviceName != null) {
+                    this.protocol = new MultiplexedProtocol(this.protocol, this.serviceName);
+                }
+                this.client = constructor.newInstance(this.protocol);
+                Assert.notNull(this.client, "the Thrift RPC client was not correctly created. Aborting.");
+            }
 
-            this.client = constructor.newInstance(this.protocol);
-
-            Assert.notNull(this.client, "the Thrift RPC client was not correctly created. Aborting.");
             this.serviceProxy = new ProxyFactory(getServiceInterface(), this).getProxy(getBeanClassLoader());
-            this.transport.open();
+
+            if (this.pool != null) {
+                this.pool.start();
+            } else {
+                this.transport.open();
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    protected TTransport buildTransport() {
+        return buildTransport(buildSocket());
+    }
+
+    /**
+     * @return an unopened socket to the {@link #setHost(String) host} and {@link #setPort(int) port}
+     */
+    protected TSocket buildSocket() {
+        Assert.notNull(this.host, "Property 'host' is required");
+        Assert.isTrue(this.port > 0, "Property 'port' is required and must be greater than 0");
+        return new TSocket(this.host, this.port);
+    }
+
+    /**
+     * @return the transport to talk over the socket with: the socket itself, or a {@link TFramedTransport} around it
+     */
+    protected TTransport buildTransport(TSocket socket) {
+        return this.framed ? new TFramedTransport(socket) : socket;
+    }
+
+    protected ThriftClientPool buildPool(final Constructor clientConstructor) {
+        ThriftClientPool clientPool = new ThriftClientPool(new ThriftClientPool.ClientFactory() {
+            @Override
+            public ThriftClientPool.PooledClient create() throws Exception {
+                TSocket socket = buildSocket();
+                TTransport tTransport = buildTransport(socket);
+                TProtocol tProtocol = protocolFactory.getProtocol(tTransport);
+                if (serviceName != null) {
+                    tProtocol = new MultiplexedProtocol(tProtocol, serviceName);
+                }
+                Object tClient = clientConstructor.newInstance(tProtocol);
+                tTransport.open();
+                return new ThriftClientPool.PooledClient(tTransport, tClient, socket.getSocket());
+            }
+        });
+        clientPool.setMaxTotal(this.maxTotal);
+        clientPool.setMinIdle(this.minIdle);
+        clientPool.setMaxWait(this.maxWait);
+        clientPool.setMinEvictableIdleTime(this.minEvictableIdleTime);
+        clientPool.setTimeBetweenEvictionRuns(this.timeBetweenEvictionRuns);
+        clientPool.setTestOnBorrow(this.testOnBorrow);
+        clientPool.setTestIdleTime(this.testIdleTime);
+        return clientPool;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.pool != null) {
+            this.pool.close();
+        } else if (this.transport != null) {
+            this.transport.close();
+        }
+    }
 
 }
@@ -18,25 +18,35 @@ package org.springframework.remoting.thrift;
 
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.transport.TIOStreamTransport;
 import org.apache.thrift.transport.TTransport;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.http.MediaType;
+import org.springframework.obm.support.ExposedByteArrayOutputStream;
+import org.springframework.remoting.support.AsyncRequestHandlerSupport;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 import org.springframework.web.HttpRequestHandler;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * <p/>
@@ -56,6 +66,17 @@ import java.util.Map;
  * <P>The class provides the ability to register a (<EM>static</EM>) list of headers that
  * to be written on to the response.
  * <p/>
+ * <P>The protocol is chosen per request, from the request's <CODE>Content-Type</CODE>: out of the box,
+ * {@link #BINARY}, {@link #COMPACT} and {@link #JSON} select the matching Thrift protocol (see
+ * {@link #setProtocolFactories(Map)}), and anything else gets the {@link #protocolFactory}. The response is
+ * written in the same protocol, with the same content type unless a {@link #setMediaType(MediaType) media type} is
+ * set.
+ * <P>Responses are serialized into a (per thread, reused) buffer first, so that they go out in one write with a
+ * <CODE>Content-Length</CODE>. Responses of at least {@link #setGzipThreshold(int) gzipThreshold} bytes are
+ * gzipped for clients that accept it, and gzipped requests are understood.
+ * <P>Given an {@link #setAsyncSupport(AsyncRequestHandlerSupport) asyncSupport}, requests are processed off the
+ * container's thread on a Servlet 3 container.
+ * <p/>
  * <P>Simple configuration using Java configuration might look like: </P>
  * <p/>
  * <CODE>
@@ -78,12 +99,41 @@ import java.util.Map;
  */
 public class ThriftServiceExporter extends AbstractThriftExporter implements InitializingBean, HttpRequestHandler {
 
+    public static final String BINARY = "application/vnd.apache.thrift.binary";
+
+    public static final String COMPACT = "application/vnd.apache.thrift.compact";
+
+    public static final String JSON = "application/vnd.apache.thrift.json";
+
+    private static final String GZIP = "gzip";
+
+    /**
+     * buffers larger than this aren't kept for the next request, so one large response doesn't pin its memory
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ExposedByteArrayOutputStream> RESPONSE_BUFFER = new ThreadLocal<ExposedByteArrayOutputStream>();
+
+    private static final ThreadLocal<ExposedByteArrayOutputStream> GZIP_BUFFER = new ThreadLocal<ExposedByteArrayOutputStream>();
+
     private TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
 
+    private final Map<MediaType, TProtocolFactory> protocolFactories = new LinkedHashMap<MediaType, TProtocolFactory>();
+
+    private int gzipThreshold = 1024;
+
+    {
+        this.protocolFactories.put(MediaType.parseMediaType(BINARY), new TBinaryProtocol.Factory());
+        this.protocolFactories.put(MediaType.parseMediaType(COMPACT), new TCompactProtocol.Factory());
+        this.protocolFactories.put(MediaType.parseMediaType(JSON), new TJSONProtocol.Factory());
+    }
+
     private final Collection<Map.Entry<String, String>> customHeaders = new ArrayList<Map.Entry<String, String>>();
 
     private MediaType mediaType;
 
+    private AsyncRequestHandlerSupport asyncSupport;
+
     public void setProtocolFactory(TProtocolFactory inProtocolFactory) {
         this.protocolFactory = inProtocolFactory;
     }
@@ -92,6 +142,34 @@ public class ThriftServiceExporter extends AbstractThriftExporter implements Ini
         this.mediaType = mediaType;
     }
 
+    /**
+     * the protocols to offer, keyed by the request <CODE>Content-Type</CODE> that selects them. Replaces the
+     * defaults ({@link #BINARY}, {@link #COMPACT} and {@link #JSON})
+     *
+     * @param protocolFactories the protocol factories, by media type
+     */
+    public void setProtocolFactories(Map<String, TProtocolFactory> protocolFactories) {
+        this.protocolFactories.clear();
+        for (Map.Entry<String, TProtocolFactory> entry : protocolFactories.entrySet()) {
+            this.protocolFactories.put(MediaType.parseMediaType(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * the smallest response, in bytes, to gzip for clients that accept it. Defaults to 1024; a negative value disables gzip
+     */
+    public void setGzipThreshold(int gzipThreshold) {
+        this.gzipThreshold = gzipThreshold;
+    }
+
+    /**
+     * processes each request and writes its response on the support's executor. Unset by default, in which case
+     * requests are handled on the container's thread
+     */
+    public void setAsyncSupport(AsyncRequestHandlerSupport asyncSupport) {
+        this.asyncSupport = asyncSupport;
+    }
+
     public void addCustomHeader(String k, String v) {
         Map<String, String> header = new HashMap<String, String>();
         header.put(k, v);
@@ -110,28 +188,163 @@ public class ThriftServiceExporter extends AbstractThriftExporter implements Ini
     }
 
     @Override
-    public void handleRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    public void handleRequest(final HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        MediaType requestType = null;
+        TProtocolFactory requestProtocolFactory = this.protocolFactory;
+        MediaType contentType = getContentType(request);
+        if (null != contentType) {
+            for (Map.Entry<MediaType, TProtocolFactory> entry : this.protocolFactories.entrySet()) {
+                if (entry.getKey().includes(contentType)) {
+                    requestType = entry.getKey();
+                    requestProtocolFactory = entry.getValue();
+                    break;
+                }
+            }
+        }
+
+        if (null != mediaType) {
+            response.setContentType(mediaType.toString());
+        } else if (null != requestType) {
+            response.setContentType(requestType.toString());
+        }
+
+        if (null != this.customHeaders) {
+            for (Map.Entry<String, String> header : this.customHeaders) {
+                response.addHeader(header.getKey(), header.getValue());
+            }
+        }
+
+        InputStream in = new BufferedInputStream(request.getInputStream());
+        if (GZIP.equalsIgnoreCase(request.getHeader("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+
+        if (this.asyncSupport != null && this.asyncSupport.isAsyncSupported(request)) {
+            handleRequestAsync(request, response, requestProtocolFactory, in);
+            return;
+        }
+
+        ExposedByteArrayOutputStream buffer = borrowBuffer(RESPONSE_BUFFER);
         try {
+            process(requestProtocolFactory, in, buffer);
+            writeResponse(request, response, buffer);
+        } catch (TException te) {
+            throw new ServletException(te);
+        } finally {
+            returnBuffer(RESPONSE_BUFFER, buffer);
+        }
+    }
 
-            if (null != mediaType) {
-                response.setContentType(mediaType.toString());
+    /**
+     * reads the whole request on the container thread, then processes it and writes the response on the
+     * {@link #setAsyncSupport(AsyncRequestHandlerSupport) asyncSupport}'s executor
+     */
+    private void handleRequestAsync(final HttpServletRequest request, HttpServletResponse response,
+                                    final TProtocolFactory requestProtocolFactory, InputStream in) throws IOException {
+        final ExposedByteArrayOutputStream requestBody = new ExposedByteArrayOutputStream(Math.max(request.getContentLength(), 4096));
+        byte[] chunk = new byte[4096];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            requestBody.write(chunk, 0, read);
+        }
+
+        this.asyncSupport.execute(request, response, new AsyncRequestHandlerSupport.AsyncTask<ExposedByteArrayOutputStream>() {
+            @Override
+            public ExposedByteArrayOutputStream process() throws Exception {
+                ExposedByteArrayOutputStream buffer = borrowBuffer(RESPONSE_BUFFER);
+                try {
+                    ThriftServiceExporter.this.process(requestProtocolFactory,
+                            new ByteArrayInputStream(requestBody.getBuffer(), 0, requestBody.size()), buffer);
+                } catch (Exception e) {
+                    returnBuffer(RESPONSE_BUFFER, buffer);
+                    throw e;
+                }
+                return buffer;
             }
 
-            if (null != this.customHeaders) {
-                for (Map.Entry<String, String> header : this.customHeaders) {
-                    response.addHeader(header.getKey(), header.getValue());
+            @Override
+            public void writeResponse(ExposedByteArrayOutputStream buffer, HttpServletResponse response) throws Exception {
+                try {
+                    ThriftServiceExporter.this.writeResponse(request, response, buffer);
+                } finally {
+                    returnBuffer(RESPONSE_BUFFER, buffer);
                 }
             }
-            InputStream in = request.getInputStream();
-            OutputStream out = response.getOutputStream();
-
-            // this is not pluggable from this end
-            TTransport transport = new TIOStreamTransport(in, out);
-            TProtocol protocol = protocolFactory.getProtocol(transport);
-            processor.process(protocol, protocol);
-            out.flush();
-        } catch (TException te) {
-            throw new ServletException(te);
+        });
+    }
+
+    private void process(TProtocolFactory requestProtocolFactory, InputStream in, OutputStream out) throws TException {
+        TTransport transport = new TIOStreamTransport(in, out);
+        TProtocol protocol = requestProtocolFactory.getProtocol(transport);
+        processor.process(protocol, protocol);
+    }
+
+    private void writeResponse(HttpServletRequest request, HttpServletResponse response, ExposedByteArrayOutputStream buffer) throws IOException {
+        ExposedByteArrayOutputStream body = buffer;
+        if (this.gzipThreshold >= 0 && buffer.size() >= this.gzipThreshold && acceptsGzip(request)) {
+            body = borrowBuffer(GZIP_BUFFER);
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(body);
+            gzipOutputStream.write(buffer.getBuffer(), 0, buffer.size());
+            gzipOutputStream.finish();
+            response.setHeader("Content-Encoding", GZIP);
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+
+        response.setContentLength(body.size());
+        OutputStream out = response.getOutputStream();
+        out.write(body.getBuffer(), 0, body.size());
+        out.flush();
+
+        if (body != buffer) {
+            returnBuffer(GZIP_BUFFER, body);
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (!StringUtils.hasText(acceptEncoding)) {
+            return false;
+        }
+        for (String coding : StringUtils.commaDelimitedListToStringArray(acceptEncoding)) {
+            String[] parts = StringUtils.trimAllWhitespace(coding).split(";");
+            if (GZIP.equalsIgnoreCase(parts[0]) || "*".equals(parts[0])) {
+                return !(parts.length > 1 && parts[1].matches("q=0(\\.0*)?"));
+            }
+        }
+        return false;
+    }
+
+    private static ExposedByteArrayOutputStream borrowBuffer(ThreadLocal<ExposedByteArrayOutputStream> pool) {
+        ExposedByteArrayOutputStream buffer = pool.get();
+        if (buffer == null) {
+            return new ExposedByteArrayOutputStream(4096);
+        }
+        pool.set(null); // in case the same thread comes back in before this request is done
+        buffer.reset();
+        return buffer;
+    }
+
+    private static void returnBuffer(ThreadLocal<ExposedByteArrayOutputStream> pool, ExposedByteArrayOutputStream buffer) {
+        if (buffer.getBuffer().length <= MAX_RETAINED_BUFFER_SIZE) {
+            pool.set(buffer);
+        }
+    }
+
+    /**
+     * @return the request's content type, or null if it has none or it can't be parsed, in which case the default
+     *         {@link #setProtocolFactory(TProtocolFactory) protocol} is used
+     */
+    private MediaType getContentType(HttpServletRequest request) {
+        if (!StringUtils.hasText(request.getContentType())) {
+            return null;
+        }
+        try {
+            return MediaType.parseMediaType(request.getContentType());
+        } catch (IllegalArgumentException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("ignoring the malformed Content-Type '" + request.getContentType() + "'", e);
+            }
+            return null;
         }
     }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.http.converter.obm;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.obm.support.BaseMarshallingHttpMessageConverterTest;
+import org.springframework.obm.protocolbuffers.ProtocolBuffersMarshaller;
+import org.springframework.obm.protocolbuffers.crm.Crm;
+import org.springframework.obm.snappy.SnappyMarshaller;
+import org.springframework.obm.thrift.ThriftMarshaller;
+import org.springframework.obm.thrift.crm.Customer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Tests the {@link NegotiatingMarshallingHttpMessageConverter} with a table of Thrift and Protocol Buffers marshallers
+ *
+ * @author Josh Long
+ */
+public class NegotiatingMarshallingHttpMessageConverterTest extends BaseMarshallingHttpMessageConverterTest {
+
+    private Customer thriftCustomer = new Customer("Josh", "Long", "josh@email.com", 242);
+
+    private Crm.Customer protobufCustomer = Crm.Customer.newBuilder().setEmail("email@email.com").setFirstName("josh").setLastName("long").build();
+
+    private ThriftMarshaller thriftMarshaller;
+
+    private ProtocolBuffersMarshaller protocolBuffersMarshaller;
+
+    private NegotiatingMarshallingHttpMessageConverter converter;
+
+    @Before
+    public void before() throws Throwable {
+        thriftMarshaller = Mockito.spy(new ThriftMarshaller());
+        thriftMarshaller.afterPropertiesSet();
+        protocolBuffersMarshaller = Mockito.spy(new ProtocolBuffersMarshaller());
+
+        converter = new NegotiatingMarshallingHttpMessageConverter();
+        converter.addMarshaller(NegotiatingMarshallingHttpMessageConverter.PROTOBUF, protocolBuffersMarshaller);
+        converter.addMarshaller(NegotiatingMarshallingHttpMessageConverter.THRIFT, thriftMarshaller);
+        converter.afterPropertiesSet();
+        setHttpMessageConverter(converter);
+    }
+
+    @Test
+    public void testEachFormatRoundTrips() throws Throwable {
+        setMarshaller(thriftMarshaller);
+        setUnmarshaller(thriftMarshaller);
+        setMediaType(NegotiatingMarshallingHttpMessageConverter.THRIFT);
+        doTestHttpWriting(Customer.class, thriftCustomer);
+
+        setMarshaller(protocolBuffersMarshaller);
+        setUnmarshaller(protocolBuffersMarshaller);
+        setMediaType(NegotiatingMarshallingHttpMessageConverter.PROTOBUF);
+        doTestHttpWriting(Crm.Customer.class, protobufCustomer);
+    }
+
+    @Test
+    public void testSnappyVariants() throws Throwable {
+        MediaType thriftSnappy = NegotiatingMarshallingHttpMessageConverter.getSnappyVariant(NegotiatingMarshallingHttpMessageConverter.THRIFT);
+        Assert.assertTrue(converter.getSupportedMediaTypes().contains(thriftSnappy));
+        Assert.assertTrue(converter.canWrite(Customer.class, thriftSnappy));
+
+        setMarshaller(thriftMarshaller);
+        setUnmarshaller(thriftMarshaller);
+        setMediaType(thriftSnappy);
+        byte[] body = doWrite(thriftCustomer, Mockito.mock(HttpHeaders.class));
+        Assert.assertEquals(thriftCustomer, new SnappyMarshaller(thriftMarshaller).unmarshal(Customer.class, new ByteArrayInputStream(body)));
+        doTestHttpWriting(Customer.class, thriftCustomer);
+
+        converter.setSnappyVariants(false);
+        Assert.assertFalse(converter.canWrite(Customer.class, thriftSnappy));
+    }
+
+    @Test
+    public void testNegotiation() throws Throwable {
+        Assert.assertTrue(converter.canWrite(Crm.Customer.class, NegotiatingMarshallingHttpMessageConverter.PROTOBUF));
+        Assert.assertFalse(converter.canWrite(Crm.Customer.class, NegotiatingMarshallingHttpMessageConverter.THRIFT));
+        Assert.assertFalse(converter.canRead(Customer.class, NegotiatingMarshallingHttpMessageConverter.PROTOBUF));
+        Assert.assertTrue(converter.canRead(Customer.class, MediaType.parseMediaType("application/x-thrift;q=0.8")));
+        Assert.assertFalse(converter.canWrite(String.class, MediaType.ALL));
+        Assert.assertFalse(converter.canWrite(Customer.class, MediaType.APPLICATION_JSON));
+        // collections are only claimed when streaming them is switched on
+        Assert.assertFalse(converter.canWrite(java.util.ArrayList.class, MediaType.ALL));
+        Assert.assertFalse(converter.supports(java.util.ArrayList.class));
+        converter.setStreamCollections(true);
+        converter.setStreamElementTypes(Crm.Customer.class);
+        Assert.assertTrue(converter.canWrite(java.util.ArrayList.class, NegotiatingMarshallingHttpMessageConverter.THRIFT));
+        Assert.assertTrue(converter.canRead(java.util.Iterator.class, NegotiatingMarshallingHttpMessageConverter.PROTOBUF));
+
+        // with no particular media type asked for, the first registered one that handles the class is used
+        HttpHeaders headers = new HttpHeaders();
+        setMediaType(MediaType.ALL);
+        setMarshaller(thriftMarshaller);
+        setUnmarshaller(thriftMarshaller);
+        converter.write(thriftCustomer, MediaType.ALL, new MockServerHttpResponse(headers));
+        Assert.assertEquals(NegotiatingMarshallingHttpMessageConverter.THRIFT, headers.getContentType());
+    }
+
+    @Test
+    public void testDecisionsAreCached() throws Throwable {
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(converter.canWrite(Customer.class, NegotiatingMarshallingHttpMessageConverter.THRIFT));
+            Assert.assertFalse(converter.canWrite(Customer.class, NegotiatingMarshallingHttpMessageConverter.PROTOBUF));
+        }
+        Mockito.verify(thriftMarshaller, Mockito.times(1)).supports(Customer.class);
+        Mockito.verify(protocolBuffersMarshaller, Mockito.times(1)).supports(Customer.class);
+        Mockito.verify(thriftMarshaller, Mockito.times(1)).prepare(Customer.class);
+    }
+
+    private static class MockServerHttpResponse implements org.springframework.http.server.ServerHttpResponse {
+
+        private final HttpHeaders headers;
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        MockServerHttpResponse(HttpHeaders headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public void setStatusCode(org.springframework.http.HttpStatus status) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public java.io.OutputStream getBody() {
+            return this.body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return this.headers;
+        }
+    }
+}
@@ -4,10 +4,23 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.Assert;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.obm.support.BaseMarshallingHttpMessageConverterTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.obm.Unmarshaller;
 import org.springframework.obm.protocolbuffers.ProtocolBuffersMarshaller;
 import org.springframework.obm.protocolbuffers.crm.Crm;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
 
 /**
  * Simple test of the Google Protocols marshaller with {@link org.springframework.http.converter.HttpMessageConverter}
@@ -41,5 +54,83 @@ public class ProtocolBuffersMessageConverterTest extends BaseMarshallingHttpMess
     public void testHttpReading() throws Throwable {
         doTestHttpWriting(customer.getClass(), this.customer);
     }
-}
 
+    @Test
+    public void testContentLengthIsExact() throws Throwable {
+        HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+        byte[] body = doWrite(this.customer, headers);
+        Assert.assertEquals(this.customer.getSerializedSize(), body.length);
+        Mockito.verify(headers).setContentLength(body.length);
+    }
+
+    @Test
+    public void testClientRequestsKeepTheirContentLength() throws Throwable {
+        // a RestTemplate call made while handling a request that accepts gzip isn't a response to that request
+        marshallingHttpMessageConverter.setCompressionThreshold(0);
+        MockHttpServletRequest serverRequest = new MockHttpServletRequest();
+        serverRequest.addHeader("Accept-Encoding", "gzip");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(serverRequest));
+        try {
+            HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+            Mockito.when(headers.getContentType()).thenReturn(MEDIA_TYPE);
+            Mockito.when(headers.getContentLength()).thenReturn(-1L);
+            HttpOutputMessage request = Mockito.mock(HttpOutputMessage.class);
+            Mockito.when(request.getHeaders()).thenReturn(headers);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            Mockito.when(request.getBody()).thenReturn(body);
+            marshallingHttpMessageConverter.write(this.customer, MEDIA_TYPE, request);
+
+            Mockito.verify(headers, Mockito.never()).set(Mockito.eq("Content-Encoding"), Mockito.anyString());
+            Mockito.verify(headers).setContentLength(this.customer.getSerializedSize());
+            Assert.assertEquals(this.customer.getSerializedSize(), body.size());
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    @Test
+    public void testStreamedBodies() throws Throwable {
+        marshallingHttpMessageConverter.setSupportedMediaTypes(Arrays.asList(MEDIA_TYPE));
+        marshallingHttpMessageConverter.setStreamCollections(true);
+        marshallingHttpMessageConverter.setStreamElementTypes(Crm.Customer.class);
+        final int count = 1000;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Iterator<Crm.Customer> customers = new Iterator<Crm.Customer>() {
+            private int produced;
+
+            @Override
+            public boolean hasNext() {
+                return produced < count;
+            }
+
+            @Override
+            public Crm.Customer next() {
+                // the first element is on its way before the second one is produced
+                Assert.assertTrue(produced == 0 || body.size() > 0);
+                return customer.toBuilder().setEmail("customer" + (produced++) + "@email.com").build();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        HttpHeaders headers = doWrite(customers, body);
+        Assert.assertEquals(Crm.Customer.class.getName(),
+                headers.getContentType().getParameter(MarshallingHttpMessageConverter.ELEMENT_TYPE_PARAMETER));
+
+        // the frames are the ones Marshaller#marshalAll writes
+        Iterator<Crm.Customer> unmarshalled = ((Unmarshaller<Crm.Customer>) unmarshaller).unmarshalAll(Crm.Customer.class, new ByteArrayInputStream(body.toByteArray()));
+        Assert.assertEquals("customer0@email.com", unmarshalled.next().getEmail());
+
+        ByteArrayInputStream in = new ByteArrayInputStream(body.toByteArray());
+        Iterator<?> read = (Iterator<?>) doRead(Iterator.class, headers, in);
+        Assert.assertEquals("customer0@email.com", ((Crm.Customer) read.next()).getEmail());
+        Assert.assertTrue("elements are decoded lazily", in.available() > body.size() / 2);
+        int i = 1;
+        while (read.hasNext()) {
+            Assert.assertEquals("customer" + (i++) + "@email.com", ((Crm.Customer) read.next()).getEmail());
+        }
+        Assert.assertEquals(count, i);
+    }
+}
@@ -19,20 +19,31 @@ package org.springframework.http.converter.obm;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.mortbay.jetty.Server;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.obm.support.BaseMarshallingHttpMessageConverterTest;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.obm.Marshaller;
+import org.springframework.obm.Unmarshaller;
 import org.springframework.obm.thrift.ThriftCrmService;
 import org.springframework.obm.thrift.ThriftMarshaller;
 import org.springframework.obm.thrift.crm.Customer;
+import org.springframework.obm.thrift.crm.User;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.http.RestIntegrationTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -41,9 +52,19 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
 import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Josh Long
@@ -68,11 +89,254 @@ public class ThriftHttpMessageConverterTest extends BaseMarshallingHttpMessageCo
         setHttpMessageConverter(converter);
     }
 
+    @After
+    public void after() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
     @Test
     public void testHttpReading() throws Throwable {
         doTestHttpWriting(customer.getClass(), customer);
     }
 
+    private void acceptEncoding(String acceptEncoding) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Accept-Encoding", acceptEncoding);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    private void doTestEncoding(String acceptEncoding, ContentCoding expected) throws Throwable {
+        marshallingHttpMessageConverter.setCompressionThreshold(0);
+        acceptEncoding(acceptEncoding);
+        HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+        byte[] body = doWrite(customer, headers);
+        Mockito.verify(headers).set("Content-Encoding", expected.getName());
+        Mockito.verify(headers).add("Vary", "Accept-Encoding");
+        Mockito.verify(headers, Mockito.never()).setContentLength(Mockito.anyLong());
+
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.setContentType(MEDIA_TYPE);
+        requestHeaders.set("Content-Encoding", expected.getName());
+        doTestHttpReading(customer.getClass(), customer, new ByteArrayInputStream(body), requestHeaders);
+    }
+
+    @Test
+    public void testResponsesAreCompressedWithTheAcceptedEncoding() throws Throwable {
+        doTestEncoding("gzip, deflate", new GzipContentCoding());
+        before();
+        doTestEncoding("gzip;q=0.5, snappy", new SnappyContentCoding());
+        before();
+        doTestEncoding("identity, *;q=0.1", new GzipContentCoding());
+        before();
+        doTestEncoding("gzip;q=0, lz4", new Lz4ContentCoding());
+    }
+
+    @Test
+    public void testSmallResponsesAreNotCompressed() throws Throwable {
+        acceptEncoding("gzip");
+        HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+        byte[] body = doWrite(customer, headers);
+        Mockito.verify(headers, Mockito.never()).set(Mockito.eq("Content-Encoding"), Mockito.anyString());
+        Mockito.verify(headers).setContentLength(body.length);
+        doTestHttpReading(customer.getClass(), customer, new ByteArrayInputStream(body), new HttpHeaders());
+    }
+
+    @Test
+    public void testUnknownRequestEncodingsAreRejected() throws Throwable {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        OutputStream out = new GzipContentCoding().encode(body);
+        marshaller.marshal(customer, out);
+        out.close();
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.set("Content-Encoding", "gzip");
+        marshallingHttpMessageConverter.setContentCodings(Arrays.<ContentCoding>asList(new SnappyContentCoding()));
+        try {
+            doTestHttpReading(customer.getClass(), customer, new ByteArrayInputStream(body.toByteArray()), requestHeaders);
+            Assert.fail("gzip is no longer a supported encoding");
+        } catch (HttpMessageNotReadableException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBufferedBodiesHaveAContentLength() throws Throwable {
+        marshallingHttpMessageConverter.setBuffered(true);
+        HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+        byte[] body = doWrite(customer, headers);
+        Mockito.verify(headers).setContentLength(body.length);
+        doTestHttpWriting(customer.getClass(), customer);
+    }
+
+    @Test
+    public void testLargeBodiesAreStreamed() throws Throwable {
+        marshallingHttpMessageConverter.setBuffered(true);
+        marshallingHttpMessageConverter.setMaxBufferSize(8);
+        HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+        doWrite(customer, headers);
+        Mockito.verify(headers, Mockito.never()).setContentLength(Mockito.anyLong());
+        doTestHttpWriting(customer.getClass(), customer);
+    }
+
+    @Test
+    public void testStreamedBodies() throws Throwable {
+        marshallingHttpMessageConverter.setStreamCollections(true);
+        marshallingHttpMessageConverter.setStreamElementTypes(Customer.class);
+        List<Customer> customers = new ArrayList<Customer>();
+        for (int i = 0; i < 500; i++) {
+            customers.add(new Customer("Josh", "Long", "josh@email.com", i));
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpHeaders headers = doWrite(customers, body);
+        Assert.assertEquals(-1, headers.getContentLength());
+
+        Iterable<?> read = (Iterable<?>) doRead(Iterable.class, headers, new ByteArrayInputStream(body.toByteArray()));
+        Iterator<Customer> expected = customers.iterator();
+        for (Object customer : read) {
+            Assert.assertEquals(expected.next(), customer);
+        }
+        Assert.assertFalse(expected.hasNext());
+
+        // without the element type, there's no telling what's in the stream
+        HttpHeaders plain = new HttpHeaders();
+        plain.setContentType(MEDIA_TYPE);
+        try {
+            doRead(Iterator.class, plain, new ByteArrayInputStream(body.toByteArray()));
+            Assert.fail("the element type is required");
+        } catch (HttpMessageNotReadableException e) {
+            // expected
+        }
+        Assert.assertFalse(marshallingHttpMessageConverter.canRead(List.class, MEDIA_TYPE));
+    }
+
+    @Test
+    public void testOnlyConfiguredElementTypesAreRead() throws Throwable {
+        marshallingHttpMessageConverter.setStreamCollections(true);
+        marshallingHttpMessageConverter.setStreamElementTypes(Customer.class);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        doWrite(Arrays.asList(customer), body);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(new MediaType(MEDIA_TYPE.getType(), MEDIA_TYPE.getSubtype(),
+                Collections.singletonMap(MarshallingHttpMessageConverter.ELEMENT_TYPE_PARAMETER, User.class.getName())));
+        Assert.assertTrue("the marshaller could read it, if asked", marshaller.supports(User.class));
+        try {
+            doRead(Iterator.class, headers, new ByteArrayInputStream(body.toByteArray()));
+            Assert.fail("the element type isn't one of the configured ones");
+        } catch (HttpMessageNotReadableException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCollectionsAreOnlyStreamedWhenSwitchedOn() throws Throwable {
+        // a List<String> meant for another converter mustn't be claimed
+        Assert.assertFalse(marshallingHttpMessageConverter.canWrite(ArrayList.class, MediaType.ALL));
+        Assert.assertFalse(marshallingHttpMessageConverter.canRead(Iterator.class, MEDIA_TYPE));
+        marshallingHttpMessageConverter.setStreamCollections(true);
+        Assert.assertTrue(marshallingHttpMessageConverter.canWrite(ArrayList.class, MEDIA_TYPE));
+        // there's nothing a stream could be read as yet
+        Assert.assertFalse(marshallingHttpMessageConverter.canRead(Iterator.class, MEDIA_TYPE));
+        marshallingHttpMessageConverter.setStreamElementTypes(Customer.class);
+        Assert.assertTrue(marshallingHttpMessageConverter.canRead(Iterator.class, MEDIA_TYPE));
+    }
+
+    @Test
+    public void testEmptyStreamedBodies() throws Throwable {
+        marshallingHttpMessageConverter.setStreamCollections(true);
+        marshallingHttpMessageConverter.setStreamElementTypes(Customer.class);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpHeaders headers = doWrite(new ArrayList<Customer>(), body);
+        Assert.assertEquals(0, body.size());
+        Assert.assertNull(headers.getContentType().getParameter(MarshallingHttpMessageConverter.ELEMENT_TYPE_PARAMETER));
+
+        Iterable<?> iterable = (Iterable<?>) doRead(Iterable.class, headers, new ByteArrayInputStream(body.toByteArray()));
+        Assert.assertFalse(iterable.iterator().hasNext());
+        Iterator<?> iterator = (Iterator<?>) doRead(Iterator.class, headers, new ByteArrayInputStream(body.toByteArray()));
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testNullElementsAreSkipped() throws Throwable {
+        marshallingHttpMessageConverter.setStreamCollections(true);
+        marshallingHttpMessageConverter.setStreamElementTypes(Customer.class);
+        Customer second = new Customer("Josh", "Long", "josh@email.com", 2);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpHeaders headers = doWrite(Arrays.asList(null, customer, null, second, null), body);
+        Assert.assertEquals(Customer.class.getName(),
+                headers.getContentType().getParameter(MarshallingHttpMessageConverter.ELEMENT_TYPE_PARAMETER));
+
+        Iterator<?> read = (Iterator<?>) doRead(Iterator.class, headers, new ByteArrayInputStream(body.toByteArray()));
+        Assert.assertEquals(customer, read.next());
+        Assert.assertEquals(second, read.next());
+        Assert.assertFalse(read.hasNext());
+
+        body = new ByteArrayOutputStream();
+        headers = doWrite(Arrays.asList(null, null), body);
+        Assert.assertEquals(0, body.size());
+        Assert.assertNull(headers.getContentType().getParameter(MarshallingHttpMessageConverter.ELEMENT_TYPE_PARAMETER));
+    }
+
+    /**
+     * writes a stream for a client that accepts the encoding, checking that the first element can be read from what's
+     * on the wire before the second one is produced
+     *
+     * @return the headers of the response
+     */
+    private HttpHeaders doTestStreamIsFlushed(String acceptEncoding, final ContentCoding expected) throws Throwable {
+        acceptEncoding(acceptEncoding);
+        marshallingHttpMessageConverter.setStreamCollections(true);
+        marshallingHttpMessageConverter.setStreamElementTypes(Customer.class);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Iterator<Customer> customers = new Iterator<Customer>() {
+            private int produced;
+
+            @Override
+            public boolean hasNext() {
+                return produced < 100;
+            }
+
+            @Override
+            public Customer next() {
+                if (produced == 1) {
+                    try {
+                        InputStream onTheWire = new ByteArrayInputStream(body.toByteArray());
+                        if (expected != null) {
+                            onTheWire = expected.decode(onTheWire);
+                        }
+                        Iterator<?> sent = ((Unmarshaller<Customer>) unmarshaller).unmarshalAll(Customer.class, onTheWire);
+                        Assert.assertEquals(0, ((Customer) sent.next()).getId());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return new Customer("Josh", "Long", "josh@email.com", produced++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        HttpHeaders headers = doWrite(customers, body);
+        Assert.assertEquals(expected == null ? null : expected.getName(), headers.getFirst("Content-Encoding"));
+
+        Iterator<?> read = (Iterator<?>) doRead(Iterator.class, headers, new ByteArrayInputStream(body.toByteArray()));
+        int i = 0;
+        while (read.hasNext()) {
+            Assert.assertEquals(i++, ((Customer) read.next()).getId());
+        }
+        Assert.assertEquals(100, i);
+        return headers;
+    }
+
+    @Test
+    public void testStreamedBodiesReachTheClientAsTheyAreProduced() throws Throwable {
+        // gzip can't be flushed, so the stream goes out as it is
+        doTestStreamIsFlushed("gzip", null);
+        doTestStreamIsFlushed("gzip;q=0.5, lz4", new Lz4ContentCoding());
+        doTestStreamIsFlushed("snappy", new SnappyContentCoding());
+    }
+
     @Test
     public void testSimpleIntegration() throws Throwable {
         RestIntegrationTestUtils.startServiceAndConnect(MyService.class, new RestIntegrationTestUtils.ServerExecutionCallback() {
@@ -96,6 +360,34 @@ public class ThriftHttpMessageConverterTest extends BaseMarshallingHttpMessageCo
         });
     }
 
+    @Test
+    public void testStreamedResponsesAreConsumedAsTheyArrive() throws Throwable {
+        final CountDownLatch firstCustomerSeen = new CountDownLatch(1);
+        CrmRestController.firstCustomerSeen = firstCustomerSeen;
+        final List<Integer> ids = new ArrayList<Integer>();
+        RestIntegrationTestUtils.startServiceAndConnect(StreamingService.class, new RestIntegrationTestUtils.ServerExecutionCallback() {
+            @Override
+            public void doWithServer(RestTemplate clientRestTemplate, Server server) throws Throwable {
+                MarshallingHttpMessageConverter converter = (MarshallingHttpMessageConverter) clientRestTemplate.getMessageConverters().get(0);
+                StreamedElementsResponseExtractor<Customer> extractor = new StreamedElementsResponseExtractor<Customer>(converter, Customer.class,
+                        new StreamedElementsResponseExtractor.ElementCallback<Customer>() {
+                            @Override
+                            public void doWithElement(Customer customer) {
+                                ids.add(customer.getId());
+                                firstCustomerSeen.countDown();
+                            }
+                        });
+                Integer count = clientRestTemplate.execute("http://localhost:8080/ws/customers", HttpMethod.GET, null, extractor);
+                Assert.assertEquals(Integer.valueOf(CrmRestController.STREAMED_CUSTOMERS), count);
+            }
+        });
+        Assert.assertFalse("the server had to wait for the client to see the first customer", CrmRestController.waitedInVain);
+        Assert.assertEquals(CrmRestController.STREAMED_CUSTOMERS, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Assert.assertEquals(Integer.valueOf(i), ids.get(i));
+        }
+    }
+
     @Configuration
     @EnableWebMvc
     static public class MyService extends RestIntegrationTestUtils.AbstractRestServiceConfiguration {
@@ -121,6 +413,21 @@ public class ThriftHttpMessageConverterTest extends BaseMarshallingHttpMessageCo
     }
 
 
+    @Configuration
+    @EnableWebMvc
+    static public class StreamingService extends MyService {
+
+        @Bean
+        @Override
+        public HttpMessageConverter messageConverter() {
+            MarshallingHttpMessageConverter converter = new MarshallingHttpMessageConverter(marshaller());
+            converter.setSupportedMediaTypes(Arrays.asList(getMediaType()));
+            converter.setStreamCollections(true);
+            converter.setStreamElementTypes(Customer.class);
+            return converter;
+        }
+    }
+
     @Controller
     @RequestMapping(value = "/ws/")
     public static class CrmRestController {
@@ -132,6 +439,45 @@ public class ThriftHttpMessageConverterTest extends BaseMarshallingHttpMessageCo
         public Customer customer(@PathVariable("id") int id) {
             return crmService.getCustomerById(id);
         }
+
+        static final int STREAMED_CUSTOMERS = 50;
+
+        static volatile CountDownLatch firstCustomerSeen;
+
+        static volatile boolean waitedInVain;
+
+        /**
+         * holds back the rest of the customers until the client has seen the first one
+         */
+        @RequestMapping(value = "/customers", method = RequestMethod.GET)
+        @ResponseBody
+        public Iterator<Customer> customers() {
+            return new Iterator<Customer>() {
+                private int produced;
+
+                @Override
+                public boolean hasNext() {
+                    return produced < STREAMED_CUSTOMERS;
+                }
+
+                @Override
+                public Customer next() {
+                    if (produced == 1) {
+                        try {
+                            waitedInVain = !firstCustomerSeen.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return crmService.getCustomerById(produced++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
     }
 }
 
@@ -22,12 +22,14 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
 import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.http.converter.obm.MarshallingHttpMessageConverter;
 import org.springframework.obm.BaseMarshallerTest;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Tests the {@link org.springframework.http.converter.obm.MarshallingHttpMessageConverter}
@@ -76,15 +78,62 @@ public class BaseMarshallingHttpMessageConverterTest extends BaseMarshallerTest
         doTestHttpReading(clazz, output, new ByteArrayInputStream(bytesWritten));
     }
 
+    /**
+     * writes the object through the converter as a server response, with headers that report no <CODE>Content-Length</CODE> yet
+     *
+     * @return the body that was written
+     */
+    protected byte[] doWrite(Object output, HttpHeaders headers) throws Throwable {
+        setup();
+        ServerHttpResponse httpOutputMessage = Mockito.mock(ServerHttpResponse.class);
+        Mockito.when(httpOutputMessage.getHeaders()).thenReturn(headers);
+        Mockito.when(headers.getContentType()).thenReturn(this.mediaType);
+        Mockito.when(headers.getContentLength()).thenReturn(-1L);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        Mockito.when(httpOutputMessage.getBody()).thenReturn(byteArrayOutputStream);
+        marshallingHttpMessageConverter.write(output, this.mediaType, httpOutputMessage);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * writes the object through the converter as a server response, into the given stream
+     *
+     * @return the headers of the response
+     */
+    protected HttpHeaders doWrite(Object output, OutputStream body) throws Throwable {
+        setup();
+        HttpHeaders headers = new HttpHeaders();
+        ServerHttpResponse httpOutputMessage = Mockito.mock(ServerHttpResponse.class);
+        Mockito.when(httpOutputMessage.getHeaders()).thenReturn(headers);
+        Mockito.when(httpOutputMessage.getBody()).thenReturn(body);
+        marshallingHttpMessageConverter.write(output, this.mediaType, httpOutputMessage);
+        return headers;
+    }
+
+    /**
+     * @return what the converter reads from the body, given the headers
+     */
+    protected Object doRead(Class<?> clazz, HttpHeaders headers, InputStream body) throws Throwable {
+        HttpInputMessage inputMessage = Mockito.mock(HttpInputMessage.class);
+        Mockito.when(inputMessage.getHeaders()).thenReturn(headers);
+        Mockito.when(inputMessage.getBody()).thenReturn(body);
+        Assert.assertTrue(marshallingHttpMessageConverter.canRead(clazz, headers.getContentType()));
+        return marshallingHttpMessageConverter.read((Class) clazz, inputMessage);
+    }
+
     private void doTestHttpReading(Class<?> clazz, Object output, InputStream inputStream) throws Throwable {
+        HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+        Mockito.when(headers.getContentType()).thenReturn(this.mediaType);
+        doTestHttpReading(clazz, output, inputStream, headers);
+    }
+
+    protected void doTestHttpReading(Class<?> clazz, Object output, InputStream inputStream, HttpHeaders headers) throws Throwable {
         setup();
         Assert.assertNotNull("object to output can't be null", output);
         Assert.assertTrue("the thriftMarshaller must be able to read this class ",
                                  marshallingHttpMessageConverter.supports(clazz) &&
                                          this.unmarshaller.supports(clazz));
-        HttpHeaders headers = Mockito.mock(HttpHeaders.class);
         HttpInputMessage inputMessage = Mockito.mock(HttpInputMessage.class);
-        Mockito.when(headers.getContentType()).thenReturn(this.mediaType);
         Mockito.when(inputMessage.getHeaders()).thenReturn(headers);
         Mockito.when(inputMessage.getBody()).thenReturn(inputStream);
         Object result = marshallingHttpMessageConverter.read(clazz, inputMessage);
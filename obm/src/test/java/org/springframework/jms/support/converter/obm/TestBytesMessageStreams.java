@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.jms.support.converter.obm;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.obm.thrift.ThriftMarshaller;
+import org.springframework.obm.thrift.crm.Customer;
+
+import javax.jms.BytesMessage;
+import javax.jms.Session;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the {@link BytesMessageOutputStream} and {@link BytesMessageInputStream} against a mock {@link BytesMessage}
+ * whose body is kept in memory.
+ *
+ * @author Josh Long
+ */
+public class TestBytesMessageStreams {
+
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private BytesMessage message;
+
+    @Before
+    public void before() throws Throwable {
+        message = mock(BytesMessage.class);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                body.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+                return null;
+            }
+        }).when(message).writeBytes(any(byte[].class), anyInt(), anyInt());
+    }
+
+    private void readBodyFrom(final byte[] bytes) throws Throwable {
+        final ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        when(message.readBytes(any(byte[].class), anyInt())).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                return in.read((byte[]) args[0], 0, (Integer) args[1]);
+            }
+        });
+    }
+
+    @Test
+    public void testStreamsRoundTripInChunks() throws Throwable {
+        byte[] input = new byte[100 * 1024 + 17];
+        new Random(42).nextBytes(input);
+
+        BytesMessageOutputStream out = new BytesMessageOutputStream(message, 1024);
+        out.write(input, 0, 10);
+        out.write(input[10]);
+        out.write(input, 11, 5000);
+        out.write(input, 5011, input.length - 5011);
+        out.close();
+        Assert.assertArrayEquals(input, body.toByteArray());
+        verify(message, never()).writeBytes(any(byte[].class));
+
+        readBodyFrom(input);
+        BytesMessageInputStream in = new BytesMessageInputStream(message, 1024);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        result.write(in.read());
+        byte[] buffer = new byte[3000];
+        int read;
+        while ((read = in.read(buffer, 1, buffer.length - 1)) != -1) {
+            result.write(buffer, 1, read);
+        }
+        Assert.assertEquals(-1, in.read());
+        Assert.assertArrayEquals(input, result.toByteArray());
+    }
+
+    @Test
+    public void testConverterStreamsThroughTheMessage() throws Throwable {
+        ThriftMarshaller<Customer> marshaller = new ThriftMarshaller<Customer>();
+        marshaller.afterPropertiesSet();
+        MarshallingMessageConverter converter = new MarshallingMessageConverter(Customer.class, marshaller);
+        converter.setChunkSize(16);
+
+        Session session = mock(Session.class);
+        when(session.createBytesMessage()).thenReturn(message);
+
+        Customer customer = new Customer("Josh", "Long", "josh@email.com", 242);
+        Assert.assertSame(message, converter.toMessage(customer, session));
+        verify(message, never()).writeBytes(any(byte[].class));
+
+        readBodyFrom(body.toByteArray());
+        Assert.assertEquals(customer, converter.fromMessage(message));
+        verify(message, never()).getBodyLength();
+    }
+}
@@ -20,6 +20,10 @@ import junit.framework.Assert;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * @author Josh Long
@@ -54,5 +58,45 @@ abstract public class BaseMarshallerTest<T> {
         ByteArrayInputStream arrayInputStream = new ByteArrayInputStream(bytesWritten);
         T output = unmarshaller.unmarshal(cl, arrayInputStream);
         Assert.assertEquals(output, input);
+
+        doTestByteBufferMarshalling(cl, input, ByteBuffer.allocate(bytesWritten.length + 64));
+        doTestByteBufferMarshalling(cl, input, ByteBuffer.allocateDirect(bytesWritten.length + 64));
+        doTestSequenceMarshalling(cl, Arrays.asList(input, input, input));
+        doTestTypedCodec(cl, input);
+    }
+
+    protected void doTestTypedCodec(Class<T> cl, T input) throws Exception {
+        TypedCodec<T> encoder = marshaller.prepare(cl);
+        TypedCodec<T> decoder = unmarshaller.prepare(cl);
+        Assert.assertEquals(cl, encoder.getType());
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream();
+            encoder.encode(input, arrayOutputStream);
+            Assert.assertEquals(input, decoder.decode(new ByteArrayInputStream(arrayOutputStream.toByteArray())));
+            // what the handles write and read is what the marshallers write and read
+            Assert.assertEquals(input, unmarshaller.unmarshal(cl, new ByteArrayInputStream(arrayOutputStream.toByteArray())));
+        }
+    }
+
+    protected void doTestSequenceMarshalling(Class<T> cl, List<T> inputs) throws Exception {
+        ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream();
+        marshaller.marshalAll(inputs.iterator(), arrayOutputStream);
+        marshaller.marshalAll(inputs.subList(0, 0).iterator(), arrayOutputStream);
+
+        Iterator<T> outputs = unmarshaller.unmarshalAll(cl, new ByteArrayInputStream(arrayOutputStream.toByteArray()));
+        for (T input : inputs) {
+            Assert.assertTrue(outputs.hasNext());
+            Assert.assertEquals(input, outputs.next());
+        }
+        Assert.assertFalse(outputs.hasNext());
+    }
+
+    protected void doTestByteBufferMarshalling(Class<T> cl, T input, ByteBuffer buffer) throws Exception {
+        marshaller.marshal(input, buffer);
+        buffer.flip();
+        T output = unmarshaller.unmarshal(cl, buffer);
+        Assert.assertEquals(output, input);
+        Assert.assertFalse(buffer.hasRemaining());
     }
 }
@@ -1,15 +1,18 @@
 package org.springframework.obm.avro;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.obm.BaseMarshallerTest;
 import org.springframework.obm.avro.crm.Customer;
+import org.springframework.obm.avro.support.DatumBinding;
 
 /**
  * @author Josh Long
  */
 public class TestAvroMarshaller extends BaseMarshallerTest<Customer> {
     private Customer customer = new Customer();
+    private AvroMarshaller<Customer> avroMarshaller;
 
     @Before
     public void before() throws Throwable {
@@ -21,6 +24,7 @@ public class TestAvroMarshaller extends BaseMarshallerTest<Customer> {
         customer.email = "josh@emai.com";
 
         AvroMarshaller<Customer> am = new AvroMarshaller<Customer>();
+        avroMarshaller = am;
         setMarshaller(am);
         setUnmarshaller(am);
     }
@@ -29,4 +33,12 @@ public class TestAvroMarshaller extends BaseMarshallerTest<Customer> {
     public void testMarshalling() throws Throwable {
         doTestMarshalling(Customer.class, this.customer);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBindingIsCached() throws Throwable {
+        DatumBinding<Customer> binding = avroMarshaller.getBinding(Customer.class);
+        Assert.assertTrue(binding.isSupported());
+        Assert.assertTrue("generated classes should use the specific reader and writer", binding.isSpecific());
+        Assert.assertSame(binding, avroMarshaller.getBinding(Customer.class));
+    }
+}
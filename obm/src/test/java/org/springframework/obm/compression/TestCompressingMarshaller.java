@@ -0,0 +1,197 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.obm.BaseMarshallerTest;
+import org.springframework.obm.snappy.SnappyMarshaller;
+import org.springframework.obm.thrift.ThriftMarshaller;
+import org.springframework.obm.thrift.crm.Customer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Tests the {@link CompressingMarshaller} with each of the {@link CompressionCodec}s.
+ *
+ * @author Josh Long
+ */
+public class TestCompressingMarshaller extends BaseMarshallerTest<Customer> {
+
+    private Customer customer = new Customer("Josh", "Long", "josh@email.com", 242);
+
+    private ThriftMarshaller<Customer> thriftMarshaller;
+
+    @Before
+    public void before() throws Throwable {
+        thriftMarshaller = new ThriftMarshaller<Customer>();
+        thriftMarshaller.afterPropertiesSet();
+    }
+
+    private CompressingMarshaller<Customer> compressingMarshaller(CompressionCodec codec) {
+        CompressingMarshaller<Customer> compressingMarshaller = new CompressingMarshaller<Customer>(thriftMarshaller);
+        if (codec != null) {
+            compressingMarshaller.setCodec(codec);
+        }
+        setMarshaller(compressingMarshaller);
+        setUnmarshaller(compressingMarshaller);
+        return compressingMarshaller;
+    }
+
+    private byte[] marshal(CompressingMarshaller<Customer> compressingMarshaller, Customer c) throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        compressingMarshaller.marshal(c, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Test
+    public void testSnappy() throws Throwable {
+        Assert.assertTrue(compressingMarshaller(null).getCodec() instanceof SnappyCodec);
+        doTestMarshalling(Customer.class, customer);
+    }
+
+    @Test
+    public void testLz4() throws Throwable {
+        compressingMarshaller(new Lz4Codec());
+        doTestMarshalling(Customer.class, customer);
+    }
+
+    @Test
+    public void testDeflate() throws Throwable {
+        compressingMarshaller(new DeflateCodec());
+        doTestMarshalling(Customer.class, customer);
+    }
+
+    @Test
+    public void testCodecIsDetectedOnRead() throws Throwable {
+        Customer compressible = new Customer(repeat("Josh", 100), repeat("Long", 100), "josh@email.com", 242);
+        CompressingMarshaller<Customer> reader = compressingMarshaller(new SnappyCodec());
+        for (CompressionCodec codec : new CompressionCodec[]{new SnappyCodec(), new Lz4Codec(), new DeflateCodec()}) {
+            byte[] bytes = marshal(compressingMarshaller(codec), compressible);
+            Assert.assertEquals(codec.getId(), bytes[2]);
+            Assert.assertEquals(compressible, reader.unmarshal(Customer.class, new ByteArrayInputStream(bytes)));
+        }
+    }
+
+    @Test
+    public void testMessagesCanBeReadBackToBack() throws Throwable {
+        Customer other = new Customer("Mario", "Gray", "mario@email.com", 31);
+        CompressingMarshaller<Customer> lz4 = compressingMarshaller(new Lz4Codec());
+        CompressingMarshaller<Customer> deflate = compressingMarshaller(new DeflateCodec());
+
+        ByteArrayInputStream stream = new ByteArrayInputStream(concat(marshal(lz4, customer), marshal(deflate, other)));
+        Assert.assertEquals(customer, deflate.unmarshal(Customer.class, stream));
+        Assert.assertEquals(other, deflate.unmarshal(Customer.class, stream));
+        Assert.assertEquals(-1, stream.read());
+    }
+
+    @Test
+    public void testReadsSnappyMarshallerOutput() throws Throwable {
+        SnappyMarshaller snappyMarshaller = new SnappyMarshaller(thriftMarshaller);
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        snappyMarshaller.marshal(customer, legacy);
+
+        CompressingMarshaller<Customer> compressingMarshaller = compressingMarshaller(new DeflateCodec());
+        Assert.assertEquals(customer, compressingMarshaller.unmarshal(Customer.class, new ByteArrayInputStream(legacy.toByteArray())));
+
+        compressingMarshaller.setLegacySnappyFallback(false);
+        try {
+            compressingMarshaller.unmarshal(Customer.class, new ByteArrayInputStream(legacy.toByteArray()));
+            Assert.fail("a message without a header should have been rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOversizedMessagesAreRejected() throws Throwable {
+        CompressingMarshaller<Customer> compressingMarshaller = compressingMarshaller(new SnappyCodec());
+        byte[] bytes = marshal(compressingMarshaller, customer);
+        compressingMarshaller.setMaxMessageSize(8);
+        compressingMarshaller.unmarshal(Customer.class, new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testSmallMessagesAreStored() throws Throwable {
+        CompressingMarshaller<Customer> compressingMarshaller = compressingMarshaller(new SnappyCodec());
+        compressingMarshaller.setCompressionThreshold(1024);
+        byte[] bytes = marshal(compressingMarshaller, customer);
+        Assert.assertEquals(CompressingMarshaller.STORED, bytes[2]);
+        Assert.assertEquals(customer, compressingMarshaller.unmarshal(Customer.class, new ByteArrayInputStream(bytes)));
+        Assert.assertEquals(1, compressingMarshaller.getStoredCount());
+        Assert.assertEquals(0, compressingMarshaller.getCompressedCount());
+        doTestMarshalling(Customer.class, customer);
+    }
+
+    @Test
+    public void testCompressibleMessagesAreCompressed() throws Throwable {
+        CompressingMarshaller<Customer> compressingMarshaller = compressingMarshaller(new SnappyCodec());
+        compressingMarshaller.setMinCompressionRatio(1.5);
+        Customer compressible = new Customer(repeat("Josh", 100), repeat("Long", 100), "josh@email.com", 242);
+        for (int i = 0; i < 20; i++) {
+            byte[] bytes = marshal(compressingMarshaller, compressible);
+            Assert.assertEquals(SnappyCodec.ID, bytes[2]);
+        }
+        Assert.assertEquals(20, compressingMarshaller.getCompressedCount());
+        Assert.assertTrue(compressingMarshaller.getBytesSaved() > 20 * 500);
+        Assert.assertTrue(compressingMarshaller.getCompressionRatio(Customer.class) > 1.5);
+    }
+
+    @Test
+    public void testIncompressibleClassesAreSkipped() throws Throwable {
+        CompressingMarshaller<Customer> compressingMarshaller = compressingMarshaller(new SnappyCodec());
+        compressingMarshaller.setMinCompressionRatio(1.2);
+        compressingMarshaller.setProbeInterval(50);
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            Customer incompressible = new Customer(randomText(random, 200), randomText(random, 200), "josh@email.com", i);
+            byte[] bytes = marshal(compressingMarshaller, incompressible);
+            Assert.assertEquals(CompressingMarshaller.STORED, bytes[2]);
+            Assert.assertEquals(incompressible, compressingMarshaller.unmarshal(Customer.class, new ByteArrayInputStream(bytes)));
+        }
+        Assert.assertEquals(100, compressingMarshaller.getStoredCount());
+        Assert.assertEquals(0, compressingMarshaller.getBytesSaved());
+        Assert.assertTrue(compressingMarshaller.getCompressionRatio(Customer.class) < 1.2);
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('!' + random.nextInt(94));
+        }
+        return new String(chars);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.compression;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.obm.BaseMarshallerTest;
+import org.springframework.obm.thrift.ThriftMarshaller;
+import org.springframework.obm.thrift.crm.Customer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests training a {@link CompressionDictionary} and compressing with it.
+ *
+ * @author Josh Long
+ */
+public class TestDictionaryCompression extends BaseMarshallerTest<Customer> {
+
+    private static final String[] FIRST_NAMES = {"Josh", "Mario", "Mark", "Oleg", "Chris", "Dave", "Juergen", "Arjen"};
+
+    private static final String[] LAST_NAMES = {"Long", "Gray", "Fisher", "Zhurakousky", "Beams", "Syer", "Hoeller", "Poutsma"};
+
+    private ThriftMarshaller<Customer> thriftMarshaller;
+
+    @Before
+    public void before() throws Throwable {
+        thriftMarshaller = new ThriftMarshaller<Customer>();
+        thriftMarshaller.afterPropertiesSet();
+    }
+
+    private List<Customer> customers(int offset, int count) {
+        List<Customer> customers = new ArrayList<Customer>();
+        for (int i = offset; i < offset + count; i++) {
+            String firstName = FIRST_NAMES[i % FIRST_NAMES.length], lastName = LAST_NAMES[(i / 3) % LAST_NAMES.length];
+            customers.add(new Customer(firstName, lastName, firstName.toLowerCase() + "." + lastName.toLowerCase() + "@springsource.com", i));
+        }
+        return customers;
+    }
+
+    private CompressionDictionary train(int id) throws Exception {
+        DictionaryTrainer trainer = new DictionaryTrainer();
+        trainer.setMaxDictionarySize(4 * 1024);
+        trainer.addSamples(thriftMarshaller, customers(0, 500));
+        return trainer.train(id);
+    }
+
+    private int compressedSize(CompressionCodec codec) throws Exception {
+        CompressingMarshaller<Customer> compressingMarshaller = new CompressingMarshaller<Customer>(thriftMarshaller);
+        compressingMarshaller.setCodec(codec);
+        int size = 0;
+        for (Customer customer : customers(1000, 100)) {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            compressingMarshaller.marshal(customer, byteArrayOutputStream);
+            size += byteArrayOutputStream.size();
+        }
+        return size;
+    }
+
+    @Test
+    public void testDictionaryCompression() throws Throwable {
+        CompressionDictionary dictionary = train(1);
+        Assert.assertTrue(dictionary.getBytes().length > 0);
+        Assert.assertTrue(dictionary.getBytes().length <= 4 * 1024);
+
+        CompressingMarshaller<Customer> compressingMarshaller = new CompressingMarshaller<Customer>(thriftMarshaller);
+        compressingMarshaller.setCodec(new DictionaryDeflateCodec(dictionary));
+        setMarshaller(compressingMarshaller);
+        setUnmarshaller(compressingMarshaller);
+        for (Customer customer : customers(1000, 10)) {
+            doTestMarshalling(Customer.class, customer);
+        }
+        Assert.assertTrue(compressingMarshaller.getCompressedCount() > 0);
+    }
+
+    @Test
+    public void testDictionaryBeatsPlainDeflate() throws Throwable {
+        int withDictionary = compressedSize(new DictionaryDeflateCodec(train(1)));
+        int withoutDictionary = compressedSize(new DeflateCodec());
+        Assert.assertTrue(withDictionary + " bytes with the dictionary, " + withoutDictionary + " without", withDictionary * 3 < withoutDictionary * 2);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Throwable {
+        CompressionDictionary dictionary = train(42);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        dictionary.writeTo(byteArrayOutputStream);
+        CompressionDictionary loaded = CompressionDictionary.load(new ByteArrayResource(byteArrayOutputStream.toByteArray()));
+        Assert.assertEquals(42, loaded.getId());
+        Assert.assertTrue(Arrays.equals(dictionary.getBytes(), loaded.getBytes()));
+    }
+
+    @Test
+    public void testReadersPickTheMatchingDictionary() throws Throwable {
+        CompressionDictionary first = train(1), second = new CompressionDictionary(2, "firstNamelastNameemail@springsource.com".getBytes("UTF-8"));
+        Customer customer = customers(7, 1).get(0);
+
+        CompressingMarshaller<Customer> writer = new CompressingMarshaller<Customer>(thriftMarshaller);
+        writer.setCodec(new DictionaryDeflateCodec(first));
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        writer.marshal(customer, byteArrayOutputStream);
+        byte[] bytes = byteArrayOutputStream.toByteArray();
+
+        CompressingMarshaller<Customer> reader = new CompressingMarshaller<Customer>(thriftMarshaller);
+        reader.setCodec(new DictionaryDeflateCodec(second, Arrays.asList(first)));
+        Assert.assertEquals(customer, reader.unmarshal(Customer.class, new ByteArrayInputStream(bytes)));
+
+        CompressingMarshaller<Customer> uninformedReader = new CompressingMarshaller<Customer>(thriftMarshaller);
+        uninformedReader.setCodec(new DictionaryDeflateCodec(second));
+        try {
+            uninformedReader.unmarshal(Customer.class, new ByteArrayInputStream(bytes));
+            Assert.fail("the message was compressed with a dictionary the reader doesn't know");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -1,9 +1,21 @@
 package org.springframework.obm.messagepack;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.obm.BaseMarshallerTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * Test of the {@link MessagePackMarshaller}
  *
@@ -30,4 +42,35 @@ public class TestMessagePackMarshaller extends BaseMarshallerTest<Cat> {
     public void testMarshalling() throws Throwable {
         doTestMarshalling(Cat.class, this.cat);
     }
+
+    @Test
+    public void testClassesAreRegisteredOnce() throws Throwable {
+        final MessagePackMarshaller<Cat> messagePackMarshaller = new MessagePackMarshaller<Cat>();
+        messagePackMarshaller.afterPropertiesSet();
+        Assert.assertTrue(messagePackMarshaller.getRegisteredClasses().isEmpty());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                        messagePackMarshaller.marshal(cat, outputStream);
+                        return cat.equals(messagePackMarshaller.unmarshal(Cat.class, new ByteArrayInputStream(outputStream.toByteArray())));
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(Collections.<Class<?>>singleton(Cat.class), messagePackMarshaller.getRegisteredClasses());
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.obm.messagepack.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.msgpack.MessagePack;
+import org.msgpack.MessagePackObject;
+import org.springframework.obm.messagepack.Cat;
+import org.springframework.obm.messagepack.MessagePackMarshaller;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests {@link MessagePackUtils#remapResult(Object)}
+ *
+ * @author Josh Long
+ */
+public class TestMessagePackUtils {
+
+    public static class Owner {
+        private String name = "Josh";
+        private List<Cat> cats;
+        private Set<Cat> adoptedCats;
+        private final List<Cat> formerCats = new ArrayList<Cat>();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRemapResult() throws Throwable {
+        Cat cat = new Cat();
+        cat.setId(4);
+        cat.setName("Felix");
+
+        MessagePackMarshaller<Cat> marshaller = new MessagePackMarshaller<Cat>();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        marshaller.marshal(cat, outputStream);
+        MessagePackObject messagePackObject = MessagePack.unpack(outputStream.toByteArray());
+
+        Owner owner = new Owner();
+        owner.cats = new ArrayList(Arrays.asList(messagePackObject, cat));
+
+        Assert.assertSame(owner, MessagePackUtils.remapResult(owner));
+        Assert.assertEquals(Arrays.asList(cat, cat), owner.cats);
+        Assert.assertTrue(owner.cats.get(0) instanceof Cat);
+        Assert.assertNull(owner.adoptedCats);
+        Assert.assertEquals("Josh", owner.name);
+
+        // a collection with nothing to convert is left alone
+        List<Cat> cats = owner.cats;
+        MessagePackUtils.remapResult(owner);
+        Assert.assertSame(cats, owner.cats);
+    }
+
+    @Test
+    public void testUninterestingResults() throws Throwable {
+        Assert.assertNull(MessagePackUtils.remapResult(null));
+        Assert.assertEquals("Felix", MessagePackUtils.remapResult("Felix"));
+    }
+}
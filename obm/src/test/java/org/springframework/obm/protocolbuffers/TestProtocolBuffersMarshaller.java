@@ -1,12 +1,19 @@
 package org.springframework.obm.protocolbuffers;
 
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.obm.BaseMarshallerTest;
 import org.springframework.obm.protocolbuffers.crm.Crm;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
 /**
  * @author Josh Long
  */
@@ -34,4 +41,66 @@ public class TestProtocolBuffersMarshaller extends BaseMarshallerTest<Crm.Custom
     public void testMarshalling() throws Throwable {
         doTestMarshalling(Crm.Customer.class, this.customer);
     }
+
+    @Test
+    public void testSequencesAreCompatibleWithDelimitedMessages() throws Throwable {
+        ProtocolBuffersMarshaller<Crm.Customer> marshaller = new ProtocolBuffersMarshaller<Crm.Customer>();
+
+        ByteArrayOutputStream delimited = new ByteArrayOutputStream();
+        customer.writeDelimitedTo(delimited);
+        customer.writeDelimitedTo(delimited);
+        Iterator<Crm.Customer> customers = marshaller.unmarshalAll(Crm.Customer.class, new ByteArrayInputStream(delimited.toByteArray()));
+        Assert.assertEquals(customer, customers.next());
+        Assert.assertEquals(customer, customers.next());
+        Assert.assertFalse(customers.hasNext());
+
+        ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+        marshaller.marshalAll(Arrays.asList(customer, customer).iterator(), sequence);
+        Assert.assertArrayEquals(delimited.toByteArray(), sequence.toByteArray());
+    }
+
+    @Test
+    public void testSizeLimitIsEnforced() throws Throwable {
+        ProtocolBuffersMarshaller<Crm.Customer> marshaller = new ProtocolBuffersMarshaller<Crm.Customer>();
+        marshaller.setSizeLimit(customer.getSerializedSize() - 1);
+
+        try {
+            marshaller.unmarshal(Crm.Customer.class, new ByteArrayInputStream(customer.toByteArray()));
+            Assert.fail("a message larger than the size limit must be refused");
+        } catch (InvalidProtocolBufferException e) {
+            // expected
+        }
+
+        ByteArrayOutputStream delimited = new ByteArrayOutputStream();
+        customer.writeDelimitedTo(delimited);
+        try {
+            marshaller.unmarshalAll(Crm.Customer.class, new ByteArrayInputStream(delimited.toByteArray())).next();
+            Assert.fail("a message larger than the size limit must be refused");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidProtocolBufferException);
+        }
+    }
+
+    @Test
+    public void testCorruptLengthsAreRefused() throws Throwable {
+        ProtocolBuffersMarshaller<Crm.Customer> marshaller = new ProtocolBuffersMarshaller<Crm.Customer>();
+        byte[][] corruptLengths = {
+                {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f}, // -1, which used to look like the end
+                {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08}, // Integer.MIN_VALUE
+                {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f}  // more than 32 bits
+        };
+        for (byte[] corruptLength : corruptLengths) {
+            ByteArrayOutputStream delimited = new ByteArrayOutputStream();
+            customer.writeDelimitedTo(delimited);
+            delimited.write(corruptLength);
+            Iterator<Crm.Customer> customers = marshaller.unmarshalAll(Crm.Customer.class, new ByteArrayInputStream(delimited.toByteArray()));
+            Assert.assertEquals(customer, customers.next());
+            try {
+                customers.hasNext();
+                Assert.fail("a corrupt length mustn't end the sequence quietly");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
 }
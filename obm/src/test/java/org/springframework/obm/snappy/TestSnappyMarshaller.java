@@ -16,12 +16,18 @@
 
 package org.springframework.obm.snappy;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.obm.BaseMarshallerTest;
 import org.springframework.obm.thrift.ThriftMarshaller;
 import org.springframework.obm.thrift.crm.Customer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
 /**
  * Snappy is a compression Marshaller that wraps other Marshallers.
  *
@@ -31,13 +37,15 @@ public class TestSnappyMarshaller extends BaseMarshallerTest<Customer> {
 
     private Customer customer = new Customer("Josh", "Long", "josh@email.com", 242);
 
+    private ThriftMarshaller<Customer> thriftMarshaller;
+
     @Before
     public void before() throws Throwable {
 
-        ThriftMarshaller<Customer> marshaller = new ThriftMarshaller<Customer>();
-        marshaller.afterPropertiesSet();
+        thriftMarshaller = new ThriftMarshaller<Customer>();
+        thriftMarshaller.afterPropertiesSet();
 
-        SnappyMarshaller snappyMarshaller = new SnappyMarshaller(marshaller);
+        SnappyMarshaller snappyMarshaller = new SnappyMarshaller(thriftMarshaller);
 
         setMarshaller(snappyMarshaller);
         setUnmarshaller(snappyMarshaller);
@@ -47,5 +55,69 @@ public class TestSnappyMarshaller extends BaseMarshallerTest<Customer> {
     public void testMarshaller() throws Throwable {
         doTestMarshalling(Customer.class, customer);
     }
-}
 
+    @Test
+    public void testFramedMarshaller() throws Throwable {
+        SnappyMarshaller snappyMarshaller = new SnappyMarshaller(thriftMarshaller);
+        snappyMarshaller.setFramed(true);
+        snappyMarshaller.setChunkSize(16); // forces the message across several chunks
+        setMarshaller(snappyMarshaller);
+        setUnmarshaller(snappyMarshaller);
+        doTestMarshalling(Customer.class, customer);
+    }
+
+    @Test
+    public void testBlockAndFramedAreInterchangeable() throws Throwable {
+        SnappyMarshaller blockMarshaller = new SnappyMarshaller(thriftMarshaller);
+        SnappyMarshaller framedMarshaller = new SnappyMarshaller(thriftMarshaller);
+        framedMarshaller.setFramed(true);
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        blockMarshaller.marshal(customer, block);
+        Assert.assertEquals(customer, framedMarshaller.unmarshal(Customer.class, new ByteArrayInputStream(block.toByteArray())));
+
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        framedMarshaller.marshal(customer, framed);
+        Assert.assertEquals(customer, blockMarshaller.unmarshal(Customer.class, new ByteArrayInputStream(framed.toByteArray())));
+    }
+
+    @Test
+    public void testFramedStreams() throws Throwable {
+        byte[] input = new byte[300 * 1024];
+        Random random = new Random(42);
+        for (int i = 0; i < input.length; i++) {
+            // a mix of compressible and incompressible stretches, to get both kinds of chunk
+            input[i] = (byte) ((i / 4096) % 2 == 0 ? i % 7 : random.nextInt());
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        SnappyFramedOutputStream out = new SnappyFramedOutputStream(compressed);
+        out.write(input, 0, 1000);
+        out.write(input[1000]);
+        out.write(input, 1001, input.length - 1001);
+        out.close();
+
+        SnappyFramedInputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[5000];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            uncompressed.write(buffer, 0, read);
+        }
+        Assert.assertArrayEquals(input, uncompressed.toByteArray());
+    }
+
+    @Test
+    public void testCorruptStreamIdentifierChunkIsRefused() throws Throwable {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(SnappyFramedOutputStream.STREAM_IDENTIFIER);
+        compressed.write(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, 0x00}); // a repeated identifier, 65535 bytes long
+        SnappyFramedInputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        try {
+            in.read();
+            Assert.fail("the identifier chunk is too long");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -16,11 +16,25 @@
 package org.springframework.obm.thrift;
 
 
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.obm.BaseMarshallerTest;
 import org.springframework.obm.thrift.crm.Customer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * @author Josh Long
  */
@@ -42,5 +56,113 @@ public class TestThriftMarshaller extends BaseMarshallerTest<Customer> {
     public void testMarshaller() throws Throwable {
         doTestMarshalling(Customer.class, customer);
     }
-}
 
+    @Test
+    public void testCompactProtocol() throws Throwable {
+        ThriftMarshaller<Customer> compactMarshaller = new ThriftMarshaller<Customer>();
+        compactMarshaller.setProtocolFactory(new TCompactProtocol.Factory());
+        compactMarshaller.afterPropertiesSet();
+
+        setMarshaller(compactMarshaller);
+        setUnmarshaller(compactMarshaller);
+        doTestMarshalling(Customer.class, customer);
+    }
+
+    @Test
+    public void testConcurrentUse() throws Throwable {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; i++) {
+                final int thread = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int j = 0; j < 1000; j++) {
+                            Customer in = new Customer("Josh", "Long", "josh" + j + "@email.com", thread);
+                            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                            marshaller.marshal(in, outputStream);
+                            Customer out = unmarshaller.unmarshal(Customer.class, new ByteArrayInputStream(outputStream.toByteArray()));
+                            if (!in.equals(out)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLazySequence() throws Throwable {
+        final int count = 100000;
+        Iterator<Customer> customers = new Iterator<Customer>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < count;
+            }
+
+            @Override
+            public Customer next() {
+                return new Customer("Josh", "Long", "josh@email.com", i++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        marshaller.marshalAll(customers, outputStream);
+
+        final int[] bytesRead = new int[1];
+        FilterInputStream countingStream = new FilterInputStream(new ByteArrayInputStream(outputStream.toByteArray())) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                bytesRead[0] += b < 0 ? 0 : 1;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                bytesRead[0] += Math.max(read, 0);
+                return read;
+            }
+        };
+
+        Iterator<Customer> results = unmarshaller.unmarshalAll(Customer.class, countingStream);
+        Assert.assertEquals(0, results.next().getId());
+        Assert.assertTrue("only the first record should have been read", bytesRead[0] < 100);
+        int read = 1;
+        while (results.hasNext()) {
+            Assert.assertEquals(read++, results.next().getId());
+        }
+        Assert.assertEquals(count, read);
+        Assert.assertEquals(outputStream.size(), bytesRead[0]);
+    }
+
+    @Test
+    public void testCorruptLengthsAreRefused() throws Throwable {
+        ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+        marshaller.marshalAll(java.util.Arrays.asList(customer).iterator(), sequence);
+        sequence.write(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f}); // -1
+        Iterator<Customer> customers = unmarshaller.unmarshalAll(Customer.class, new ByteArrayInputStream(sequence.toByteArray()));
+        Assert.assertEquals(customer, customers.next());
+        try {
+            customers.hasNext();
+            Assert.fail("a corrupt length mustn't end the sequence quietly");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.avro;
+
+import org.apache.avro.ipc.Transceiver;
+import org.apache.avro.ipc.specific.SpecificRequestor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.obm.avro.crm.Crm;
+import org.springframework.obm.avro.crm.Customer;
+import org.springframework.remoting.support.AsyncRequestHandlerSupport;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Josh Long
+ */
+public class TestAvroServiceExporter {
+
+    @Test
+    public void testRequestIsHandledAsynchronously() throws Throwable {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        AvroServiceExporter exporter = new AvroServiceExporter();
+        exporter.setService(new TestServiceExportAndConsumption.MyCrm());
+        exporter.setServiceInterface(Crm.class);
+        exporter.setAsyncSupport(new AsyncRequestHandlerSupport(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }));
+
+        ExporterTransceiver transceiver = new ExporterTransceiver(exporter, tasks);
+        Crm client = SpecificRequestor.getClient(Crm.class, transceiver);
+        Customer customer = client.createCustomer("Josh", "Long", "josh@email.com");
+
+        Assert.assertEquals("Josh", customer.firstName.toString());
+        Assert.assertEquals("josh@email.com", customer.email.toString());
+        Assert.assertEquals("each call must be handled on the executor", transceiver.calls, tasks.size());
+    }
+
+    /**
+     * hands each call straight to the exporter, as a Servlet 3 container would, with Avro's HTTP framing: every buffer
+     * preceded by its length, and a zero length at the end
+     */
+    private static class ExporterTransceiver extends Transceiver {
+
+        private final AvroServiceExporter exporter;
+
+        private final List<Runnable> tasks;
+
+        private ByteArrayOutputStream responseBody;
+
+        private int calls;
+
+        ExporterTransceiver(AvroServiceExporter exporter, List<Runnable> tasks) {
+            this.exporter = exporter;
+            this.tasks = tasks;
+        }
+
+        @Override
+        public String getRemoteName() {
+            return "exporter";
+        }
+
+        @Override
+        public void writeBuffers(List<ByteBuffer> buffers) throws IOException {
+            ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(requestBody);
+            for (ByteBuffer buffer : buffers) {
+                out.writeInt(buffer.remaining());
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            out.writeInt(0);
+
+            this.responseBody = new ByteArrayOutputStream();
+            try {
+                HttpServletResponse response = mockResponse(this.responseBody);
+                AsyncContext asyncContext = mock(AsyncContext.class);
+                this.exporter.handleRequest(mockAsyncRequest(requestBody.toByteArray(), response, asyncContext), response);
+                this.calls++;
+
+                Assert.assertEquals("the service must be invoked on the executor", this.calls, this.tasks.size());
+                verify(response, never()).getOutputStream();
+                this.tasks.get(this.calls - 1).run();
+
+                verify(asyncContext).complete();
+                verify(response).setContentLength(this.responseBody.size());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public List<ByteBuffer> readBuffers() throws IOException {
+            List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(this.responseBody.toByteArray()));
+            int length;
+            while ((length = in.readInt()) != 0) {
+                byte[] buffer = new byte[length];
+                in.readFully(buffer);
+                buffers.add(ByteBuffer.wrap(buffer));
+            }
+            return buffers;
+        }
+    }
+
+    private static HttpServletRequest mockAsyncRequest(byte[] body, HttpServletResponse response, AsyncContext asyncContext) throws Exception {
+        final ByteArrayInputStream in = new ByteArrayInputStream(body);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContentLength()).thenReturn(body.length);
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+        });
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(asyncContext.getResponse()).thenReturn(response);
+        return request;
+    }
+
+    private static HttpServletResponse mockResponse(final ByteArrayOutputStream body) throws Exception {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        });
+        return response;
+    }
+}
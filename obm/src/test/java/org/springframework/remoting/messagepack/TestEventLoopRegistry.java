@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.remoting.messagepack;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.msgpack.rpc.loop.EventLoop;
+
+/**
+ * @author Josh Long
+ */
+public class TestEventLoopRegistry {
+
+    private EventLoopRegistry registry = new EventLoopRegistry();
+
+    @Test
+    public void testSameConfigurationSharesOneLoop() throws Throwable {
+        EventLoop first = registry.acquire(2, 2, 1);
+        EventLoop second = registry.acquire(2, 2, 1);
+        EventLoop other = registry.acquire(1, 1, 1);
+
+        Assert.assertSame(first, second);
+        Assert.assertNotSame(first, other);
+        Assert.assertEquals(2, registry.getReferenceCount(first));
+        Assert.assertEquals(1, registry.getReferenceCount(other));
+
+        registry.release(other);
+        registry.release(first);
+        registry.release(second);
+    }
+
+    @Test
+    public void testLoopIsShutDownByItsLastUser() throws Throwable {
+        EventLoop first = registry.acquire(2, 2, 1);
+        EventLoop second = registry.acquire(2, 2, 1);
+
+        registry.release(first);
+        Assert.assertEquals(1, registry.getReferenceCount(second));
+
+        registry.release(second);
+        Assert.assertEquals(0, registry.getReferenceCount(second));
+
+        EventLoop third = registry.acquire(2, 2, 1);
+        Assert.assertNotSame("a released loop must not be handed out again", second, third);
+        registry.release(third);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleasingTooOftenFails() throws Throwable {
+        EventLoop loop = registry.acquire(1, 1, 1);
+        registry.release(loop);
+        registry.release(loop);
+    }
+
+    @Test
+    public void testFactoryBeansShareTheRegistryLoop() throws Throwable {
+        EventLoopFactoryBean one = new EventLoopFactoryBean();
+        one.setEventLoopRegistry(registry);
+        EventLoopFactoryBean two = new EventLoopFactoryBean();
+        two.setEventLoopRegistry(registry);
+
+        EventLoop loop = one.getObject();
+        Assert.assertSame(loop, two.getObject());
+        Assert.assertEquals(2, registry.getReferenceCount(loop));
+
+        one.destroy();
+        two.destroy();
+        Assert.assertEquals(0, registry.getReferenceCount(loop));
+    }
+}
@@ -19,20 +19,41 @@ package org.springframework.remoting.thrift;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TTransport;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.springframework.obm.thrift.crm.Crm;
 import org.springframework.obm.thrift.crm.Customer;
+import org.springframework.obm.thrift.crm.User;
+import org.springframework.obm.thrift.crm.UserManager;
+import org.springframework.obm.thrift.util.ThriftUtil;
 import org.springframework.util.ClassUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * a strange, but working, test case that launches the thrift service in a background thread and then shuts it down afterwards which lets us
@@ -81,6 +102,390 @@ public class TestThriftExporter {
         Assert.assertEquals(customer.getEmail(), email);
     }
 
+    @Test
+    public void testNonblockingServer() throws Throwable {
+        ThriftExporter exporter = new ThriftExporter();
+        exporter.setService(new CustomCrmService());
+        exporter.setServiceInterface(Crm.class);
+        exporter.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        exporter.setNonblocking(true);
+        exporter.setWorkerThreads(2);
+        exporter.setPort(ThriftUtil.DEFAULT_PORT + 1);
+        exporter.afterPropertiesSet();
+        exporter.start(); // returns once the server is listening
+        try {
+            Assert.assertTrue(exporter.isRunning());
+
+            List<Crm.Iface> clients = new ArrayList<Crm.Iface>();
+            for (int i = 0; i < 20; i++) { // more connections than worker threads
+                ThriftProxyFactoryBean<Crm.Iface> client = new ThriftProxyFactoryBean<Crm.Iface>();
+                client.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+                client.setServiceInterface(Crm.Iface.class);
+                client.setPort(ThriftUtil.DEFAULT_PORT + 1);
+                client.setFramed(true);
+                client.afterPropertiesSet();
+                clients.add(client.getObject());
+            }
+            for (int i = 0; i < clients.size(); i++) {
+                Assert.assertEquals(i, clients.get(i).getCustomerById(i).getId());
+            }
+        } finally {
+            exporter.stop();
+        }
+        Assert.assertFalse(exporter.isRunning());
+    }
+
+    @Test
+    public void testPooledClients() throws Throwable {
+        final ThriftProxyFactoryBean<Crm.Iface> proxyFactoryBean = new ThriftProxyFactoryBean<Crm.Iface>();
+        proxyFactoryBean.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        proxyFactoryBean.setServiceInterface(Crm.Iface.class);
+        proxyFactoryBean.setPooled(true);
+        proxyFactoryBean.setMinIdle(2);
+        proxyFactoryBean.setMaxTotal(4);
+        proxyFactoryBean.afterPropertiesSet();
+        try {
+            final ThriftClientPool pool = proxyFactoryBean.getPool();
+            Assert.assertEquals("the minimum number of connections is opened up front", 2, pool.getIdleCount());
+
+            final Crm.Iface pooledClient = proxyFactoryBean.getObject();
+            ExecutorService callers = Executors.newFixedThreadPool(8);
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 200; i++) {
+                final int id = i;
+                results.add(callers.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        Assert.assertTrue(pool.getActiveCount() <= 4);
+                        return pooledClient.getCustomerById(id).getId();
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(i, (int) results.get(i).get());
+            }
+            callers.shutdown();
+
+            Assert.assertEquals(0, pool.getActiveCount());
+            Assert.assertTrue(pool.getIdleCount() <= 4);
+            Assert.assertEquals(200, pool.getBorrowCount());
+        } finally {
+            proxyFactoryBean.destroy();
+        }
+    }
+
+    private ThriftExporter startExporter(int port) throws Exception {
+        ThriftExporter exporter = new ThriftExporter();
+        exporter.setService(new CustomCrmService());
+        exporter.setServiceInterface(Crm.class);
+        exporter.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        exporter.setPort(port);
+        exporter.afterPropertiesSet();
+        exporter.start();
+        return exporter;
+    }
+
+    @Test
+    public void testPooledClientsSurviveAServerRestart() throws Throwable {
+        int port = ThriftUtil.DEFAULT_PORT + 6;
+        ThriftExporter exporter = startExporter(port);
+
+        ThriftProxyFactoryBean<Crm.Iface> proxyFactoryBean = new ThriftProxyFactoryBean<Crm.Iface>();
+        proxyFactoryBean.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        proxyFactoryBean.setServiceInterface(Crm.Iface.class);
+        proxyFactoryBean.setPooled(true);
+        proxyFactoryBean.setPort(port);
+        proxyFactoryBean.setTestIdleTime(0); // the restart takes less than the default
+        proxyFactoryBean.afterPropertiesSet();
+        try {
+            Crm.Iface pooledClient = proxyFactoryBean.getObject();
+            Assert.assertEquals(1, pooledClient.getCustomerById(1).getId());
+            Assert.assertEquals(1, proxyFactoryBean.getPool().getIdleCount());
+
+            // the stopped server answers at most one more request on the pooled connection and then closes it, which
+            // the client only notices once it writes to the socket again
+            exporter.stop();
+            exporter = startExporter(port);
+
+            for (int id = 2; id < 5; id++) {
+                Assert.assertEquals(id, pooledClient.getCustomerById(id).getId());
+            }
+        } finally {
+            proxyFactoryBean.destroy();
+            exporter.stop();
+        }
+    }
+
+    @Test
+    public void testOnlyClientsIdleForAWhileHaveTheirSocketsProbed() throws Throwable {
+        TTransport transport = Mockito.mock(TTransport.class);
+        Mockito.when(transport.isOpen()).thenReturn(true);
+        final AtomicInteger probes = new AtomicInteger();
+        Socket socket = new Socket() {
+            @Override
+            public InputStream getInputStream() {
+                return new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        probes.incrementAndGet();
+                        throw new SocketTimeoutException();
+                    }
+                };
+            }
+
+            @Override
+            public synchronized void setSoTimeout(int timeout) {
+            }
+        };
+        final ThriftClientPool.PooledClient pooled = new ThriftClientPool.PooledClient(transport, new Object(), socket);
+
+        ThriftClientPool pool = new ThriftClientPool(new ThriftClientPool.ClientFactory() {
+            @Override
+            public ThriftClientPool.PooledClient create() {
+                return pooled;
+            }
+        });
+        pool.setTimeBetweenEvictionRuns(0);
+        pool.start();
+        try {
+            pool.release(pool.borrow(), false);
+            // handed straight back out, so only the transport is checked
+            Assert.assertSame(pooled, pool.borrow());
+            Assert.assertEquals(0, probes.get());
+
+            pool.release(pooled, false);
+            pool.setTestIdleTime(0);
+            Assert.assertSame(pooled, pool.borrow());
+            Assert.assertEquals(1, probes.get());
+            pool.release(pooled, false);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testMultiplexedServices() throws Throwable {
+        int port = ThriftUtil.DEFAULT_PORT + 2;
+        Map<String, Object> services = new HashMap<String, Object>();
+        services.put("crm", new CustomCrmService());
+        services.put("users", new UserManager.Iface() {
+            @Override
+            public User login(String email, String password) throws TException {
+                return new User(email, password, 42);
+            }
+        });
+        MultiplexedThriftExporter exporter = new MultiplexedThriftExporter();
+        exporter.setServices(services);
+        exporter.setPort(port);
+        exporter.setNonblocking(true);
+        exporter.afterPropertiesSet();
+        exporter.start();
+        try {
+            Crm.Iface crm = buildMultiplexedClient(Crm.Iface.class, "crm", port);
+            UserManager.Iface users = buildMultiplexedClient(UserManager.Iface.class, "users", port);
+
+            Assert.assertEquals(7, crm.getCustomerById(7).getId());
+            Assert.assertEquals(42, users.login("josh@email.com", "secret").getId());
+            Assert.assertEquals(8, crm.getCustomerById(8).getId());
+
+            Crm.Iface unknown = buildMultiplexedClient(Crm.Iface.class, "nobody", port);
+            try {
+                unknown.getCustomerById(1);
+                Assert.fail("a call to an unknown service must fail");
+            } catch (Exception e) {
+                Throwable cause = e;
+                while (cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                Assert.assertTrue(cause instanceof TApplicationException);
+            }
+        } finally {
+            exporter.stop();
+        }
+    }
+
+    @Test
+    public void testMultiplexedExporterRefusesServingExporters() throws Throwable {
+        ThriftServiceExporter httpExporter = new ThriftServiceExporter();
+        httpExporter.setService(new CustomCrmService());
+        httpExporter.setServiceInterface(Crm.class);
+        httpExporter.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        httpExporter.afterPropertiesSet();
+
+        ThriftExporter servingExporter = new ThriftExporter();
+        servingExporter.setService(new CustomCrmService());
+        servingExporter.setServiceInterface(Crm.class);
+        servingExporter.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        servingExporter.afterPropertiesSet();
+
+        MultiplexedThriftExporter exporter = new MultiplexedThriftExporter();
+        Assert.assertSame(httpExporter.getProcessor(), exporter.buildProcessor("crm", httpExporter));
+        try {
+            exporter.buildProcessor("crm", servingExporter);
+            Assert.fail("an exporter that serves itself can't be multiplexed as well");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private <I> I buildMultiplexedClient(Class<I> serviceInterface, String serviceName, int port) {
+        ThriftProxyFactoryBean<I> client = new ThriftProxyFactoryBean<I>();
+        client.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        client.setServiceInterface(serviceInterface);
+        client.setServiceName(serviceName);
+        client.setFramed(true);
+        client.setPort(port);
+        client.afterPropertiesSet();
+        return client.getObject();
+    }
+
+    public static interface AsyncCrm {
+
+        Future<Customer> getCustomerById(int customerId);
+
+        Customer createCustomer(String fn, String ln, String email) throws TException;
+    }
+
+    @Test
+    public void testAsyncClient() throws Throwable {
+        int port = ThriftUtil.DEFAULT_PORT + 3;
+        ThriftExporter exporter = new ThriftExporter();
+        exporter.setService(new CustomCrmService());
+        exporter.setServiceInterface(Crm.class);
+        exporter.setNonblocking(true);
+        exporter.setPort(port);
+        exporter.afterPropertiesSet();
+        exporter.start();
+
+        ThriftAsyncProxyFactoryBean<AsyncCrm> proxyFactoryBean = new ThriftAsyncProxyFactoryBean<AsyncCrm>();
+        proxyFactoryBean.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        proxyFactoryBean.setServiceInterface(AsyncCrm.class);
+        proxyFactoryBean.setThriftClass(Crm.class);
+        proxyFactoryBean.setPort(port);
+        proxyFactoryBean.setMaxConnections(4);
+        proxyFactoryBean.afterPropertiesSet();
+        try {
+            AsyncCrm asyncCrm = proxyFactoryBean.getObject();
+
+            // many more calls in flight than connections, all from this one thread
+            List<Future<Customer>> customers = new ArrayList<Future<Customer>>();
+            for (int i = 0; i < 50; i++) {
+                customers.add(asyncCrm.getCustomerById(i));
+            }
+            for (int i = 0; i < customers.size(); i++) {
+                Assert.assertEquals(i, customers.get(i).get().getId());
+            }
+
+            Customer customer = asyncCrm.createCustomer("Josh", "Long", "josh@email.com");
+            Assert.assertEquals("Josh", customer.getFirstName());
+        } finally {
+            proxyFactoryBean.destroy();
+            exporter.stop();
+        }
+    }
+
+    private ThriftAsyncProxyFactoryBean<AsyncCrm> buildAsyncClient(ThriftAsyncProxyFactoryBean<AsyncCrm> proxyFactoryBean, int port) throws Exception {
+        proxyFactoryBean.setBeanClassLoader(ClassUtils.getDefaultClassLoader());
+        proxyFactoryBean.setServiceInterface(AsyncCrm.class);
+        proxyFactoryBean.setThriftClass(Crm.class);
+        proxyFactoryBean.setPort(port);
+        proxyFactoryBean.setMaxConnections(1);
+        proxyFactoryBean.afterPropertiesSet();
+        return proxyFactoryBean;
+    }
+
+    @Test
+    public void testAsyncCallsFailWhenNoClientCanBeOpened() throws Throwable {
+        int port = ThriftUtil.DEFAULT_PORT + 4;
+        final AtomicInteger calls = new AtomicInteger();
+        ThriftExporter exporter = new ThriftExporter();
+        exporter.setService(new CustomCrmService() {
+            @Override
+            public Customer getCustomerById(int customerId) throws TException {
+                calls.incrementAndGet();
+                return super.getCustomerById(customerId);
+            }
+        });
+        exporter.setServiceInterface(Crm.class);
+        exporter.setNonblocking(true);
+        exporter.setPort(port);
+        exporter.afterPropertiesSet();
+        exporter.start();
+
+        final AtomicBoolean reachable = new AtomicBoolean(false);
+        ThriftAsyncProxyFactoryBean<AsyncCrm> proxyFactoryBean = buildAsyncClient(new ThriftAsyncProxyFactoryBean<AsyncCrm>() {
+            @Override
+            protected TNonblockingTransport openTransport() throws IOException {
+                if (!reachable.get()) {
+                    throw new IOException("too many open files");
+                }
+                return super.openTransport();
+            }
+        }, port);
+        try {
+            AsyncCrm asyncCrm = proxyFactoryBean.getObject();
+            Future<Customer> failed = asyncCrm.getCustomerById(1);
+            try {
+                failed.get(5, TimeUnit.SECONDS);
+                Assert.fail("the call can't have been made");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause().getCause() instanceof IOException);
+            }
+
+            // the failed call mustn't be sent along with the next one
+            reachable.set(true);
+            Assert.assertEquals(2, asyncCrm.getCustomerById(2).get(5, TimeUnit.SECONDS).getId());
+            Assert.assertEquals(1, calls.get());
+        } finally {
+            proxyFactoryBean.destroy();
+            exporter.stop();
+        }
+    }
+
+    @Test
+    public void testDestroyFailsOutstandingAsyncCalls() throws Throwable {
+        int port = ThriftUtil.DEFAULT_PORT + 5;
+        final CountDownLatch release = new CountDownLatch(1);
+        ThriftExporter exporter = new ThriftExporter();
+        exporter.setService(new CustomCrmService() {
+            @Override
+            public Customer getCustomerById(int customerId) throws TException {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getCustomerById(customerId);
+            }
+        });
+        exporter.setServiceInterface(Crm.class);
+        exporter.setNonblocking(true);
+        exporter.setWorkerThreads(2);
+        exporter.setPort(port);
+        exporter.afterPropertiesSet();
+        exporter.start();
+
+        ThriftAsyncProxyFactoryBean<AsyncCrm> proxyFactoryBean = buildAsyncClient(new ThriftAsyncProxyFactoryBean<AsyncCrm>(), port);
+        try {
+            AsyncCrm asyncCrm = proxyFactoryBean.getObject();
+            Future<Customer> inFlight = asyncCrm.getCustomerById(1);
+            Future<Customer> queued = asyncCrm.getCustomerById(2); // there's only the one connection
+            Thread.sleep(200);
+            proxyFactoryBean.destroy();
+            for (Future<Customer> call : Arrays.asList(inFlight, queued)) {
+                try {
+                    call.get(5, TimeUnit.SECONDS);
+                    Assert.fail("the call must fail once the proxy is destroyed");
+                } catch (ExecutionException e) {
+                    // expected
+                }
+            }
+        } finally {
+            release.countDown();
+            exporter.stop();
+        }
+    }
+
     @Before
     public void startServer() throws Exception {
 
@@ -20,12 +20,18 @@ import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.THttpClient;
+import org.apache.thrift.transport.TMemoryBuffer;
 import org.apache.thrift.transport.TTransport;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mortbay.jetty.Server;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
@@ -33,14 +39,31 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.obm.thrift.crm.Crm;
 import org.springframework.obm.thrift.crm.Customer;
+import org.springframework.remoting.support.AsyncRequestHandlerSupport;
+import org.springframework.util.FileCopyUtils;
 import org.springframework.util.http.DispatcherServletJettyConfigurationCallback;
 import org.springframework.util.http.EndpointTestUtils;
 import org.springframework.util.http.RestIntegrationTestUtils;
 import org.springframework.web.servlet.handler.BeanNameUrlHandlerMapping;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+import static org.mockito.Mockito.*;
 
 /**
  * Tests the {@link ThriftServiceExporter} which is a Spring Web {@link org.springframework.web.HttpRequestHandler}
@@ -52,6 +75,8 @@ import java.util.Random;
  */
 public class TestThriftServiceExporter {
 
+    private static final String URL = "http://localhost:8080" + ExporterConfiguration.SERVLET;
+
     private Log log = LogFactory.getLog(getClass());
 
     private Server jettyServer;
@@ -95,6 +120,152 @@ public class TestThriftServiceExporter {
         Assert.assertTrue(customer.getId() > 0);
     }
 
+    @Test
+    public void testProtocolIsNegotiatedFromTheContentType() throws Throwable {
+        for (String contentType : new String[]{ThriftServiceExporter.BINARY, ThriftServiceExporter.COMPACT, ThriftServiceExporter.JSON}) {
+            THttpClient transport = new THttpClient(URL);
+            transport.setCustomHeader("Content-Type", contentType);
+            TProtocol protocol = ThriftServiceExporter.COMPACT.equals(contentType) ? new TCompactProtocol(transport) :
+                    ThriftServiceExporter.JSON.equals(contentType) ? new TJSONProtocol(transport) : new TBinaryProtocol(transport);
+            Crm.Client client = new Crm.Client(protocol);
+            Assert.assertEquals(contentType, 7, client.getCustomerById(7).getId());
+        }
+    }
+
+    @Test
+    public void testMalformedContentTypeFallsBackToTheDefaultProtocol() throws Throwable {
+        TMemoryBuffer requestBuffer = new TMemoryBuffer(64);
+        TMemoryBuffer responseBuffer = new TMemoryBuffer(64);
+        Crm.Client client = new Crm.Client(new TBinaryProtocol(responseBuffer), new TBinaryProtocol(requestBuffer));
+        client.send_getCustomerById(42);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(URL).openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "thrift");
+        connection.getOutputStream().write(requestBuffer.getArray(), 0, requestBuffer.length());
+
+        Assert.assertEquals(HttpServletResponse.SC_OK, connection.getResponseCode());
+        responseBuffer.write(FileCopyUtils.copyToByteArray(connection.getInputStream()));
+        Assert.assertEquals(42, client.recv_getCustomerById().getId());
+    }
+
+    @Test
+    public void testResponseIsBufferedAndGzipped() throws Throwable {
+        TMemoryBuffer requestBuffer = new TMemoryBuffer(64);
+        TMemoryBuffer responseBuffer = new TMemoryBuffer(64);
+        Crm.Client client = new Crm.Client(new TCompactProtocol(responseBuffer), new TCompactProtocol(requestBuffer));
+        client.send_getCustomerById(42);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(URL).openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", ThriftServiceExporter.COMPACT);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.getOutputStream().write(requestBuffer.getArray(), 0, requestBuffer.length());
+
+        Assert.assertEquals(ThriftServiceExporter.COMPACT, connection.getContentType());
+        Assert.assertEquals("gzip", connection.getContentEncoding());
+        Assert.assertTrue("the response must have a Content-Length", connection.getContentLength() > 0);
+
+        byte[] response = FileCopyUtils.copyToByteArray(new GZIPInputStream(connection.getInputStream()));
+        responseBuffer.write(response);
+        Assert.assertEquals(42, client.recv_getCustomerById().getId());
+    }
+
+    @Test
+    public void testRequestIsHandledAsynchronously() throws Throwable {
+        TMemoryBuffer requestBuffer = new TMemoryBuffer(64);
+        TMemoryBuffer responseBuffer = new TMemoryBuffer(64);
+        Crm.Client client = new Crm.Client(new TCompactProtocol(responseBuffer), new TCompactProtocol(requestBuffer));
+        client.send_getCustomerById(42);
+
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpServletResponse response = mockResponse(body);
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        HttpServletRequest request = mockAsyncRequest(requestBuffer, response, asyncContext);
+
+        asyncExporter(tasks).handleRequest(request, response);
+
+        Assert.assertEquals("the service must be invoked on the executor", 1, tasks.size());
+        verify(response, never()).getOutputStream();
+        tasks.get(0).run();
+
+        verify(asyncContext).complete();
+        verify(response).setContentLength(body.size());
+        responseBuffer.write(body.toByteArray());
+        Assert.assertEquals(42, client.recv_getCustomerById().getId());
+    }
+
+    @Test
+    public void testAsynchronousRequestTimesOut() throws Throwable {
+        TMemoryBuffer requestBuffer = new TMemoryBuffer(64);
+        Crm.Client client = new Crm.Client(new TCompactProtocol(requestBuffer));
+        client.send_getCustomerById(42);
+
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        HttpServletResponse response = mockResponse(new ByteArrayOutputStream());
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        HttpServletRequest request = mockAsyncRequest(requestBuffer, response, asyncContext);
+
+        asyncExporter(tasks).handleRequest(request, response);
+
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContext).setTimeout(1000);
+        verify(asyncContext).addListener(listener.capture());
+        listener.getValue().onTimeout(null);
+        verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+
+        tasks.get(0).run();
+        verify(response, never()).getOutputStream();
+        verify(asyncContext, times(1)).complete();
+    }
+
+    private static ThriftServiceExporter asyncExporter(final List<Runnable> tasks) throws Exception {
+        ThriftServiceExporter exporter = new ThriftServiceExporter();
+        exporter.setService(new CrmService());
+        exporter.setServiceInterface(Crm.Iface.class);
+        AsyncRequestHandlerSupport asyncSupport = new AsyncRequestHandlerSupport(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        asyncSupport.setTimeout(1000);
+        exporter.setAsyncSupport(asyncSupport);
+        exporter.afterPropertiesSet();
+        return exporter;
+    }
+
+    private static HttpServletRequest mockAsyncRequest(TMemoryBuffer requestBuffer, HttpServletResponse response, AsyncContext asyncContext) throws Exception {
+        final ByteArrayInputStream in = new ByteArrayInputStream(requestBuffer.getArray(), 0, requestBuffer.length());
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContentType()).thenReturn(ThriftServiceExporter.COMPACT);
+        when(request.getContentLength()).thenReturn(requestBuffer.length());
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+        });
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(asyncContext.getResponse()).thenReturn(response);
+        return request;
+    }
+
+    private static HttpServletResponse mockResponse(final ByteArrayOutputStream body) throws Exception {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        });
+        return response;
+    }
+
 
 }
 
@@ -121,6 +292,7 @@ class ExporterConfiguration {
         ThriftServiceExporter exporter = new ThriftServiceExporter();
         exporter.setService(crmServiceImpl());
         exporter.setServiceInterface(Crm.Iface.class);
+        exporter.setGzipThreshold(0); // so that even the small test responses are gzipped, when the client accepts it
         return exporter;
     }
 }